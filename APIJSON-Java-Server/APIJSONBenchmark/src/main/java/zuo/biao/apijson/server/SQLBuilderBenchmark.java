@@ -0,0 +1,161 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.RequestMethod;
+
+/**id{}:[] 的 IN 列表，原来的 String += 和 {@link SQLBuilder} 对比，以及完整 getSQL 用和不用SQL模板缓存的对比
+ * <br > concat, builder 只拼 IN (...)，和 {@link AbstractSQLConfig#getInString} 改前改后的循环一致
+ * <br > getSQL* 从 newSQLConfig 开始，包括解析请求和生成整条 SQL
+ * @author Lemon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLBuilderBenchmark {
+
+	@Param({"10", "1000", "10000"})
+	public int size;
+
+	private Object[] ids;
+	private JSONObject request;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		//Log 固定打印到控制台，不屏蔽的话测的主要是打印的时间
+		PrintStream empty = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		});
+		System.setOut(empty);
+		System.setErr(empty);
+
+		ids = new Object[size];
+		JSONArray array = new JSONArray(size);
+		for (int i = 0; i < size; i++) {
+			ids[i] = 82001L + i;
+			array.add(ids[i]);
+		}
+		request = new JSONObject(true);
+		request.put("id{}", array);
+	}
+
+
+	/**改之前的 getInString
+	 * @return
+	 */
+	@Benchmark
+	public String concat() {
+		List<Object> preparedValues = new ArrayList<Object>();
+		String condition = "";
+		for (int i = 0; i < ids.length; i++) {
+			preparedValues.add(ids[i]);
+			condition += ((i > 0 ? "," : "") + "?");
+		}
+		return " IN (" + condition + ")";
+	}
+
+	/**改之后的 getInString
+	 * @return
+	 */
+	@Benchmark
+	public String builder() {
+		List<Object> preparedValues = new ArrayList<Object>();
+		SQLBuilder condition = SQLBuilder.obtain().not(false).append(" IN (");
+		for (int i = 0; i < ids.length; i++) {
+			preparedValues.add(ids[i]);
+			condition.comma(i <= 0).append("?");
+		}
+		return condition.close().release();
+	}
+
+
+	@Benchmark
+	public String getSQL() throws Exception {
+		AbstractSQLConfig.TEMPLATE_CACHE_SIZE = 1000;
+		return newSQLConfig().getSQL(true);
+	}
+
+	@Benchmark
+	public String getSQLWithoutTemplateCache() throws Exception {
+		AbstractSQLConfig.TEMPLATE_CACHE_SIZE = 0;
+		return newSQLConfig().getSQL(true);
+	}
+
+	private AbstractSQLConfig newSQLConfig() throws Exception {
+		return AbstractSQLConfig.newSQLConfig(RequestMethod.GET, "Moment", (JSONObject) request.clone(), new AbstractSQLConfig.Callback() {
+
+			@Override
+			public AbstractSQLConfig getSQLConfig(RequestMethod method, String table) {
+				return new BenchmarkSQLConfig(method, table);
+			}
+		});
+	}
+
+
+	/**不连接数据库，只生成 SQL
+	 */
+	public static class BenchmarkSQLConfig extends AbstractSQLConfig {
+
+		public BenchmarkSQLConfig(RequestMethod method, String table) {
+			super(method, table);
+		}
+
+		@Override
+		public String getDBUri() {
+			return "jdbc:mysql://localhost:3306";
+		}
+		@Override
+		public String getDBAccount() {
+			return "root";
+		}
+		@Override
+		public String getDBPassword() {
+			return "apijson";
+		}
+		@Override
+		public String getSchema() {
+			return "sys";
+		}
+	}
+
+}
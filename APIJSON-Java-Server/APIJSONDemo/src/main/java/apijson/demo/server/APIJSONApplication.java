@@ -21,6 +21,11 @@ import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.web.filter.CorsFilter;
 
+import zuo.biao.apijson.server.AbstractSQLExecutor;
+import zuo.biao.apijson.server.LocalInvalidationBus;
+import zuo.biao.apijson.server.StructureIndex;
+import zuo.biao.apijson.server.ThreadModel;
+
 
 /**application
  * @author Lemon
@@ -29,6 +34,20 @@ import org.springframework.web.filter.CorsFilter;
 public class APIJSONApplication {
 
 	public static void main(String[] args) throws Exception {
+		//异步解析，JDK 21+ 每个请求一个虚拟线程，否则用有界线程池
+		ThreadModel.setDefault(ThreadModel.newVirtualOrPool());
+		//缓存失效消息总线，TODO 多个节点部署时改成 new UDPInvalidationBus(InetAddress.getByName("230.0.0.1"), 4446, secret) 等
+		AbstractSQLExecutor.setInvalidationBus(new LocalInvalidationBus());
+
+		//启动时一次性加载 Request 表，之后每 10 分钟刷新一次，被增删改后也会刷新
+		DemoParser loader = new DemoParser();
+		try {
+			StructureIndex.REQUEST.init(loader);
+		} catch (Exception e) { //数据库还不可用时在第一次请求时加载
+			e.printStackTrace();
+		}
+		StructureIndex.REQUEST.schedule(loader, 10*60*1000);
+
 		SpringApplication.run(APIJSONApplication.class, args);
 
 		System.out.println("\n\n\n\n\n<<<<<<<<<<<<<<<<<<<<<<<<< APIJSON >>>>>>>>>>>>>>>>>>>>>>>>\n");
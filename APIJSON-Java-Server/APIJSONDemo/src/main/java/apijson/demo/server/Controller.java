@@ -22,10 +22,13 @@ import static zuo.biao.apijson.RequestMethod.HEADS;
 import static zuo.biao.apijson.RequestMethod.POST;
 import static zuo.biao.apijson.RequestMethod.PUT;
 
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.springframework.web.bind.annotation.PathVariable;
@@ -147,6 +150,102 @@ public class Controller {
 	}
 
 
+	/**流式获取，简单的数组查询逐行写出，内存占用和数量无关，ADMIN 可以一次查更多
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param response
+	 * @throws IOException
+	 * @see {@link RequestMethod#GET}
+	 */
+	@PostMapping("stream/get")
+	public void getStream(@RequestBody String request, HttpSession session, HttpServletResponse response) throws IOException {
+		response.setContentType("application/json;charset=UTF-8");
+		new DemoParser(GET).setSession(session).parse(request, response.getWriter());
+	}
+
+
+	//异步，解析和查询在 ThreadModel 的线程里，等数据库时不占用请求线程 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+
+	/**异步获取
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#GET}
+	 */
+	@PostMapping("async/get")
+	public CompletableFuture<String> getAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(GET).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	/**异步计数
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#HEAD}
+	 */
+	@PostMapping("async/head")
+	public CompletableFuture<String> headAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(HEAD).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	/**异步限制性GET
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#GETS}
+	 */
+	@PostMapping("async/gets")
+	public CompletableFuture<String> getsAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(GETS).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	/**异步限制性HEAD
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#HEADS}
+	 */
+	@PostMapping("async/heads")
+	public CompletableFuture<String> headsAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(HEADS).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	/**异步新增
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#POST}
+	 */
+	@PostMapping("async/post")
+	public CompletableFuture<String> postAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(POST).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	/**异步修改
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#PUT}
+	 */
+	@PostMapping("async/put")
+	public CompletableFuture<String> putAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(PUT).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	/**异步删除
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @return
+	 * @see {@link RequestMethod#DELETE}
+	 */
+	@PostMapping("async/delete")
+	public CompletableFuture<String> deleteAsync(@RequestBody String request, HttpSession session) {
+		return new DemoParser(DELETE).setSession(session).parseAsync(request).toCompletableFuture();
+	}
+
+	//异步 >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+
 
 
 
@@ -601,34 +700,24 @@ public class Controller {
 
 
 
-		//生成User和Privacy
+		//生成User和Privacy，在同一个事务内，任何一个写入失败都会全部回滚
 		if (StringUtil.isEmpty(requestObject.getString(JSONRequest.KEY_TAG), true)) {
 			requestObject.put(JSONRequest.KEY_TAG, REGISTER);
 		}
-		response = new JSONResponse( 
-				new DemoParser(POST).setNoVerifyLogin(true).parseResponse(requestObject)
-				);
-
-		//验证User和Privacy
-		User user = response.getObject(User.class);
-		long userId = user == null ? 0 : BaseModel.value(user.getId());
-		Privacy privacy = response.getObject(Privacy.class);
-		long userId2 = privacy == null ? 0 : BaseModel.value(privacy.getId());
-		Exception e = null;
-		if (userId <= 0 || userId != userId2) { //id不同
-			e = new Exception("服务器内部错误！写入User或Privacy失败！");
-		}
-
-		if (e != null) { //出现错误，回退
-			new DemoParser(DELETE, true).parseResponse(
-					new JSONRequest(new User(userId))
-					);
-			new DemoParser(DELETE, true).parseResponse(
-					new JSONRequest(new Privacy(userId2))
-					);
-		}
-
-		return response;
+		//验证User和Privacy在提交前进行，id不同则整个事务回滚，不会留下只写了一半的账号
+		return new DemoParser(POST) {
+			@Override
+			protected void onVerifyResponse(JSONObject response) throws Exception {
+				JSONResponse result = new JSONResponse(response);
+				User user = result.getObject(User.class);
+				long userId = user == null ? 0 : BaseModel.value(user.getId());
+				Privacy privacy = result.getObject(Privacy.class);
+				long userId2 = privacy == null ? 0 : BaseModel.value(privacy.getId());
+				if (userId <= 0 || userId != userId2) { //id不同
+					throw new Exception("服务器内部错误！写入User或Privacy失败！");
+				}
+			}
+		}.setNoVerifyLogin(true).setTransaction(true).parseResponse(requestObject);
 	}
 
 
@@ -14,8 +14,11 @@ limitations under the License.*/
 
 package apijson.demo.server;
 
+import java.util.List;
+
 import com.alibaba.fastjson.JSONObject;
 
+import apijson.demo.server.model.Moment;
 import apijson.demo.server.model.Privacy;
 import apijson.demo.server.model.User;
 import zuo.biao.apijson.RequestMethod;
@@ -35,6 +38,18 @@ public class DemoSQLConfig extends AbstractSQLConfig {
 		TABLE_KEY_MAP.put(Privacy.class.getSimpleName(), "apijson_privacy");
 	}
 
+	//延迟关联分页，Moment 有 pictureList, praiseUserIdList 等大字段，深分页时先查 id 再取完整的行
+	static {
+		DEFERRED_JOIN_MAP.put(Moment.class.getSimpleName(), 10);
+	}
+
+	//水平分片，只在 getDBShardUriList 不为空时生效，动态和用户都按用户 id 分片，这样一个用户的数据都在同一个分片
+	static {
+		SHARD_KEY_MAP.put(Moment.class.getSimpleName(), "userId");
+		SHARD_KEY_MAP.put(User.class.getSimpleName(), "id");
+		SHARD_KEY_MAP.put(Privacy.class.getSimpleName(), "id");
+	}
+
 	@Override
 	public String getDBUri() {
 		return "jdbc:mysql://localhost:3306"; //TODO 改成你自己的
@@ -48,6 +63,14 @@ public class DemoSQLConfig extends AbstractSQLConfig {
 		return "apijson"; //TODO 改成你自己的
 	}
 	@Override
+	public List<String> getDBReplicaUriList() {
+		return null; //TODO 有从库则改成你自己的，例如 Arrays.asList("jdbc:mysql://localhost:3307", "jdbc:mysql://localhost:3308")
+	}
+	@Override
+	public List<String> getDBShardUriList() {
+		return null; //TODO 有分片则改成你自己的，例如 Arrays.asList("jdbc:mysql://localhost:3306", "jdbc:mysql://localhost:3316")
+	}
+	@Override
 	public String getSchema() {
 		String s = super.getSchema();
 		return StringUtil.isEmpty(s, true) ? "sys" : s; //TODO 改成你自己的
@@ -16,22 +16,24 @@ package apijson.demo.server;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.List;
 
 import javax.validation.constraints.NotNull;
 
+import apijson.demo.server.model.Moment;
+import apijson.demo.server.model.User;
+import zuo.biao.apijson.CacheTime;
 import zuo.biao.apijson.Log;
-import zuo.biao.apijson.server.AbstractSQLExecutor;
+import zuo.biao.apijson.server.AbstractPoolSQLExecutor;
+import zuo.biao.apijson.server.ResultCache;
 import zuo.biao.apijson.server.SQLConfig;
+import zuo.biao.apijson.server.SQLConnectionPool;
 
 
 /**executor for query(read) or update(write) MySQL database
  * @author Lemon
  */
-public class DemoSQLExecutor extends AbstractSQLExecutor {
+public class DemoSQLExecutor extends AbstractPoolSQLExecutor {
 	private static final String TAG = "DemoSQLExecutor";
 
 
@@ -44,64 +46,43 @@ public class DemoSQLExecutor extends AbstractSQLExecutor {
 		}
 	}
 
+	static { //注册共享查询结果缓存的时间
+		ResultCache.TIME_MAP.put(User.class.getSimpleName(), ResultCache.getTime(User.class.getAnnotation(CacheTime.class)));
+		ResultCache.TIME_MAP.put(Moment.class.getSimpleName(), ResultCache.getTime(Moment.class.getAnnotation(CacheTime.class)));
+	}
+
 
 
 
 	@Override
-	public ResultSet executeQuery(@NotNull SQLConfig config) throws Exception {
-		return getStatement(config).executeQuery();
+	protected SQLConnectionPool getPool(@NotNull SQLConfig config) {
+		return getPool(config.getDBUri(), config.getDBAccount(), config.getDBPassword());
 	}
 
 	@Override
-	public int executeUpdate(@NotNull SQLConfig config) throws Exception {
-		return getStatement(config).executeUpdate();
+	protected SQLConnectionPool getPool(@NotNull SQLConfig config, @NotNull String uri) {
+		return getPool(uri, config.getDBAccount(), config.getDBPassword());
 	}
 
-
-	private Connection connection = null;
-	private PreparedStatement statement = null;
-	/**
-	 * @param config 
+	/**获取连接池，每个数据库账号一个
+	 * @param uri
+	 * @param account
+	 * @param password
 	 * @return
-	 * @throws Exception
-	 */
-	private PreparedStatement getStatement(@NotNull SQLConfig config) throws Exception {
-		if (connection == null || connection.isClosed()) {
-			Log.i(TAG, "select  connection " + (connection == null ? " = null" : ("isClosed = " + connection.isClosed()))) ;
-
-			connection = DriverManager.getConnection(config.getDBUri() + "?useUnicode=true&characterEncoding=UTF-8&user="
-					+ config.getDBAccount() + "&password=" + config.getDBPassword());
-		}
-		
-		statement = connection.prepareStatement(config.getSQL(config.isPrepared())); //创建Statement对象
-		List<Object> valueList = config.isPrepared() ? config.getPreparedValueList() : null;
-		if (valueList != null && valueList.isEmpty() == false) {
-			for (int i = 0; i < valueList.size(); i++) {
-				statement.setString(i + 1, "" + valueList.get(i));
-			}
-		}
-
-		return statement;
-	}
-
-
-	/**关闭连接，释放资源
 	 */
-	@Override
-	public void close() {
-		super.close();
-		try {
-			if (statement != null && statement.isClosed() == false) {
-				statement.close();
-			}
-			if (connection != null && connection.isClosed() == false) {
-				connection.close();
+	public static SQLConnectionPool getPool(final String uri, final String account, final String password) {
+		return SQLConnectionPool.getInstance(uri + "#" + account, new SQLConnectionPool.Callback() {
+
+			@Override
+			public Connection newConnection() throws SQLException {
+				Log.i(TAG, "newConnection  uri = " + uri + "; account = " + account);
+				//useServerPrepStmts 让缓存的 PreparedStatement 在服务端也只解析一次
+				//useCursorFetch 让设置了 fetchSize 的流式查询用服务端游标分批取，fetchSize 为 0 的不受影响
+				//rewriteBatchedStatements 让 executeBatch 的 INSERT 合并成一条发送
+				return DriverManager.getConnection(uri + "?useUnicode=true&characterEncoding=UTF-8&useServerPrepStmts=true&useCursorFetch=true&rewriteBatchedStatements=true&user="
+						+ account + "&password=" + password);
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		statement = null;
-		connection = null;
+		});
 	}
 
 
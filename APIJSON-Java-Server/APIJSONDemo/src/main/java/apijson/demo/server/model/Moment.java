@@ -20,6 +20,7 @@ import static zuo.biao.apijson.RequestRole.CONTACT;
 import static zuo.biao.apijson.RequestRole.LOGIN;
 import static zuo.biao.apijson.RequestRole.OWNER;
 
+import zuo.biao.apijson.CacheTime;
 import zuo.biao.apijson.MethodAccess;
 
 /**动态
@@ -28,5 +29,6 @@ import zuo.biao.apijson.MethodAccess;
 @MethodAccess(
 		PUT = {LOGIN, CONTACT, CIRCLE, OWNER, ADMIN}//TODO 还要细分，LOGIN,CONTACT只允许修改praiseUserIdList。数据库加role没用，应该将praiseUserIdList移到Praise表
 		)
+@CacheTime(10*1000)
 public class Moment {
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import static zuo.biao.apijson.RequestRole.UNKNOWN;
 
 import java.util.List;
 
+import zuo.biao.apijson.CacheTime;
 import zuo.biao.apijson.MethodAccess;
 import zuo.biao.apijson.server.Visitor;
 
@@ -29,6 +30,7 @@ import zuo.biao.apijson.server.Visitor;
 		POST = {UNKNOWN, ADMIN},
 		DELETE = {ADMIN}
 		)
+@CacheTime(60*1000)
 public class User extends BaseModel implements Visitor {
 	private static final long serialVersionUID = 1L;
 	
@@ -0,0 +1,44 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**GET, HEAD 查询结果的共享缓存时间，和 {@link MethodAccess} 一样声明在表对应的类上
+ * 表被 POST, PUT, DELETE 后会清除相关的缓存
+ * @author Lemon
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface CacheTime {
+
+	/**查到结果时的缓存时间，单位为毫秒，<= 0 则不缓存
+	 * @return
+	 */
+	long value();
+
+	/**没查到结果时的缓存时间，单位为毫秒，<= 0 则不缓存
+	 * @return default 1000
+	 */
+	long notFound() default 1000;
+
+}
@@ -132,6 +132,7 @@ public class JSONObject extends com.alibaba.fastjson.JSONObject {
 	public static final String KEY_GROUP = "@group"; //分组方式
 	public static final String KEY_HAVING = "@having"; //聚合函数条件，一般和@group一起用
 	public static final String KEY_ORDER = "@order"; //排序方式
+	public static final String KEY_CURSOR = "@cursor"; //游标分页，上一页最后一条的排序字段值，第一页传 ""
 	
 	public static final List<String> TABLE_KEY_LIST;
 	static {
@@ -143,6 +144,7 @@ public class JSONObject extends com.alibaba.fastjson.JSONObject {
 		TABLE_KEY_LIST.add(KEY_GROUP);
 		TABLE_KEY_LIST.add(KEY_HAVING);
 		TABLE_KEY_LIST.add(KEY_ORDER);
+		TABLE_KEY_LIST.add(KEY_CURSOR);
 	}
 
 	//@key关键字都放这个类 >>>>>>>>>>>>>>>>>>>>>>
@@ -265,6 +267,14 @@ public class JSONObject extends com.alibaba.fastjson.JSONObject {
 		return puts(KEY_ORDER, keys);
 	}
 
+	/**set cursor for keyset pagination
+	 * @param cursor 上一页返回的 cursor，第一页传 ""
+	 * @return
+	 */
+	public JSONObject setCursor(String cursor) {
+		return puts(KEY_CURSOR, cursor);
+	}
+
 
 	//JSONObject内关键词 key >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
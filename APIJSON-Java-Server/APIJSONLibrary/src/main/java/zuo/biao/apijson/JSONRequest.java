@@ -54,6 +54,7 @@ public class JSONRequest extends JSONObject {
 	
 	public static final String KEY_TAG = "tag";//只在最外层，最外层用JSONRequest
 	public static final String KEY_VERSION = "version";//只在最外层，最外层用JSONRequest
+	public static final String KEY_TRANSACTION = "@transaction";//只在最外层，最外层用JSONRequest
 	
 	/**set "tag":tag in outermost layer
 	 * for write operations
@@ -71,6 +72,14 @@ public class JSONRequest extends JSONObject {
 	public JSONRequest setVersion(String version) {
 		return puts(KEY_VERSION, version);
 	}
+	/**set "@transaction":transaction in outermost layer
+	 * whether all SQL of the request run in one transaction, write operations do by default
+	 * @param transaction
+	 * @return
+	 */
+	public JSONRequest setTransaction(boolean transaction) {
+		return puts(KEY_TRANSACTION, transaction);
+	}
 
 
 	//array object <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
@@ -82,6 +91,11 @@ public class JSONRequest extends JSONObject {
 	public static final String KEY_QUERY = "query";
 	public static final String KEY_COUNT = "count";
 	public static final String KEY_PAGE = "page";
+	public static final String KEY_TOTAL = "@total"; //total 的获取方式
+
+	public static final String TOTAL_OVER = "over"; //和这一页在同一条 SQL 里用 COUNT(*) OVER() 查出，需要 MySQL 8.0+
+	public static final String TOTAL_APPROX = "approx"; //没有条件时取表的统计行数，是估算值，有条件时同 TOTAL_CACHE
+	public static final String TOTAL_CACHE = "cache"; //缓存 COUNT(*) 的结果一段时间
 
 	public static final List<String> ARRAY_KEY_LIST;
 	static {
@@ -89,6 +103,7 @@ public class JSONRequest extends JSONObject {
 		ARRAY_KEY_LIST.add(KEY_QUERY);
 		ARRAY_KEY_LIST.add(KEY_COUNT);
 		ARRAY_KEY_LIST.add(KEY_PAGE);
+		ARRAY_KEY_LIST.add(KEY_TOTAL);
 	}
 	
 	/**set what to query in Array layer
@@ -115,6 +130,16 @@ public class JSONRequest extends JSONObject {
 	public JSONRequest setPage(int page) {
 		return puts(KEY_PAGE, page);
 	}
+	/**set how to get total in Array layer
+	 * @param total
+	 * @return
+	 * @see {@link #TOTAL_OVER}
+	 * @see {@link #TOTAL_APPROX}
+	 * @see {@link #TOTAL_CACHE}
+	 */
+	public JSONRequest setTotal(String total) {
+		return puts(KEY_TOTAL, total);
+	}
 	//array object >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
 
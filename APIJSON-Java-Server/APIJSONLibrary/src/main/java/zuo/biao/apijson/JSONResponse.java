@@ -69,6 +69,7 @@ public class JSONResponse extends zuo.biao.apijson.JSONObject {
 	public static final String KEY_MSG = "msg";
 	public static final String KEY_COUNT = "count";
 	public static final String KEY_TOTAL = "total";
+	public static final String KEY_CURSOR = "cursor";
 
 	/**获取状态
 	 * @return
@@ -120,6 +121,12 @@ public class JSONResponse extends zuo.biao.apijson.JSONObject {
 		}
 		return 0;
 	}
+	/**获取下一页的游标
+	 * @return
+	 */
+	public String getCursor() {
+		return getString(KEY_CURSOR);
+	}
 
 
 	/**是否成功
@@ -37,6 +37,7 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
+import zuo.biao.apijson.JSONResponse;
 import zuo.biao.apijson.Log;
 import zuo.biao.apijson.RequestMethod;
 import zuo.biao.apijson.StringUtil;
@@ -197,6 +198,12 @@ public abstract class AbstractObjectParser implements ObjectParser {
 	protected Map<String, String> functionMap;
 	protected Map<String, JSONObject> childMap;
 
+	protected int referenceCount;//key@ 的数量
+	protected String batchKey;//数组内可批量查询的 key@ 去掉 @ 后的 key
+	protected String batchPath;//batchKey 对应的引用路径
+	protected Map<String, Object> parallelMap;//最外层已并行解析的 key - 结果
+	protected List<String> putArrayKeyList;//在数据库里修改的 PUT key+:[], key-:[]
+
 	/**解析成员
 	 * response重新赋值
 	 * @return null or this
@@ -215,6 +222,12 @@ public abstract class AbstractObjectParser implements ObjectParser {
 			functionMap = null;//must init
 			childMap = null;//must init
 
+			referenceCount = 0;//must init
+			batchKey = null;//must init
+			batchPath = null;//must init
+			parallelMap = null;//must init
+			putArrayKeyList = null;//must init
+
 			Set<Entry<String, Object>> set = new LinkedHashSet<Entry<String, Object>>(request.entrySet());
 			if (set != null && set.isEmpty() == false) {//判断换取少几个变量的初始化是否值得？
 				if (isTable) {//非Table下不必分离出去再添加进来
@@ -244,6 +257,10 @@ public abstract class AbstractObjectParser implements ObjectParser {
 				}
 				//条件>>>>>>>>>>>>>>>>>>>
 
+				if (parentPath == null && arrayConfig == null && isTable == false) { //最外层
+					parallelMap = parser.onParallelParse(request);
+				}
+
 				String key;
 				Object value;
 				int index = 0;
@@ -341,6 +358,14 @@ public abstract class AbstractObjectParser implements ObjectParser {
 			} 
 
 
+			//数组内的子对象通过 key@ 引用主表，可以批量查询
+			referenceCount ++;
+			if (isTable && arrayConfig == null && target instanceof Number
+					&& targetPath.contains("]/") && StringUtil.isName(replaceKey)) {
+				batchKey = replaceKey;
+				batchPath = targetPath;
+			}
+
 			//直接替换原来的key@:path为key:target
 			Log.i(TAG, "onParse    >>  key = replaceKey; value = target;");
 			key = replaceKey;
@@ -385,7 +410,8 @@ public abstract class AbstractObjectParser implements ObjectParser {
 						+ "数组 []:{} 中第一个 key:{} 必须是主表 TableKey:{} ！不能为 arrayKey[]:{} ！");
 			}
 
-			child = parser.onArrayParse(value, path, key);
+			child = parallelMap != null && parallelMap.containsKey(key)
+					? (JSON) getParallelResult(key) : parser.onArrayParse(value, path, key);
 			isEmpty = child == null || ((JSONArray) child).isEmpty();
 		}
 		else {//APIJSON Object
@@ -394,7 +420,8 @@ public abstract class AbstractObjectParser implements ObjectParser {
 						+ "数组 []:{} 中每个 key:{} 都必须是表 TableKey:{} 或 数组 arrayKey[]:{} ！");
 			}
 
-			child = parser.onObjectParse(value, path, key, isMain ? arrayConfig.setType(SQLConfig.TYPE_ITEM_CHILD_0) : null);
+			child = parallelMap != null && parallelMap.containsKey(key) ? (JSON) getParallelResult(key)
+					: parser.onObjectParse(value, path, key, isMain ? arrayConfig.setType(SQLConfig.TYPE_ITEM_CHILD_0) : null);
 
 			isEmpty = child == null || ((JSONObject) child).isEmpty();
 			if (isFirst && isEmpty) {
@@ -408,8 +435,23 @@ public abstract class AbstractObjectParser implements ObjectParser {
 
 
 
-	//TODO 改用 MySQL json_add,json_remove,json_contains 等函数！ 
+	/**取出已并行解析的结果，解析出错则在这里抛出，和按顺序解析时一样
+	 * @param key
+	 * @return
+	 * @throws Exception
+	 */
+	protected Object getParallelResult(String key) throws Exception {
+		Object result = parallelMap.remove(key);
+		if (result instanceof Exception) {
+			throw (Exception) result;
+		}
+		return result;
+	}
+
+
 	/**PUT key:[]
+	 * key+:[] 和 key-:[] 用 JSON 函数在一条 UPDATE 里原子地修改，条件里用 JSON_CONTAINS 保证要加的都不存在、要删的都存在，
+	 * 数据库不支持时先查出来，修改后整个替换
 	 * @param key
 	 * @param array
 	 * @throws Exception
@@ -432,6 +474,34 @@ public abstract class AbstractObjectParser implements ObjectParser {
 		}
 		String realKey = AbstractSQLConfig.getRealKey(method, key, false, false);
 
+		//在数据库里修改 <<<<<<<<<<<<<<<<<<<<<<<<<
+		if (putType == 1 || (putType == 2 && AbstractSQLConfig.JSON_TABLE_SUPPORTED)) {
+			JSONArray valueArray = new JSONArray(array.size());
+			for (Object obj : array) {
+				if (obj == null) {
+					continue;
+				}
+				if (valueArray.contains(obj)) {
+					if (putType == 1) {
+						throw new ConflictException("PUT " + path + ", " + realKey + ":" + obj + " 已存在！");
+					}
+					continue;
+				}
+				valueArray.add(obj);
+			}
+			if (valueArray.isEmpty()) {
+				return;
+			}
+
+			sqlRequest.put(key, valueArray);
+			if (putArrayKeyList == null) {
+				putArrayKeyList = new ArrayList<String>();
+			}
+			putArrayKeyList.add(key);
+			return;
+		}
+		//在数据库里修改 >>>>>>>>>>>>>>>>>>>>>>>>>
+
 		//GET > add all 或 remove all > PUT > remove key
 
 		//GET <<<<<<<<<<<<<<<<<<<<<<<<<
@@ -505,6 +575,17 @@ public abstract class AbstractObjectParser implements ObjectParser {
 					sqlConfig = newSQLConfig();
 				}
 				sqlConfig.setCount(count).setPage(page).setPosition(position);
+				//数组主表 LEFT JOIN 被引用的子对象
+				if (type == SQLConfig.TYPE_ITEM_CHILD_0 && arrayConfig != null && arrayConfig.getJoinList() != null
+						&& RequestMethod.isGetMethod(method, true)) {
+					sqlConfig.setJoinList(arrayConfig.getJoinList()).setAlias(Join.getAlias(0));
+				}
+				if (type == SQLConfig.TYPE_ITEM_CHILD_0 && arrayConfig != null) {
+					sqlConfig.setTotal(arrayConfig.getTotal());
+				}
+				if (batchKey != null && referenceCount == 1 && RequestMethod.isGetMethod(method, true)) {
+					parser.onReferenceBatchParse(this, batchKey, batchPath);
+				}
 				sqlReponse = onSQLExecute();
 			} catch (Exception e) {
 				Log.e(TAG, "getObject  try { response = getSQLObject(config2); } catch (Exception e) {");
@@ -596,12 +677,43 @@ public abstract class AbstractObjectParser implements ObjectParser {
 	@Override
 	public JSONObject onSQLExecute() throws Exception {
 		JSONObject result = parser.executeSQL(sqlConfig);
+		//条件里的 JSON_CONTAINS 不满足时没有修改任何记录，对象本身不存在则和普通 PUT 一样返回 CODE_NOT_FOUND
+		if (putArrayKeyList != null && result != null && result.getIntValue(JSONResponse.KEY_COUNT) <= 0 && onExistCheck()) {
+			String msg = "PUT " + path + ", " + putArrayKeyList + " 中 key+:[] 有已存在的值，或 key-:[] 有不存在的值！";
+			boolean add = false;
+			for (String k : putArrayKeyList) {
+				add = add || k.endsWith("+");
+			}
+			if (add) {
+				throw new ConflictException(msg);
+			}
+			throw new NullPointerException(msg);
+		}
 		if (result != null) {
 			parser.putQueryResult(path, result);//解决获取关联数据时requestObject里不存在需要的关联数据
 		}
 		return result;
 	}
 
+	/**PUT key+:[], key-:[] 没有修改任何记录时，按 id 或 id{} 查对象是否存在，用来区分冲突和对象不存在
+	 * @return
+	 * @throws Exception
+	 */
+	protected boolean onExistCheck() throws Exception {
+		JSONObject rq = new JSONObject();
+		Object id = request.get(JSONRequest.KEY_ID);
+		if (id != null) {
+			rq.put(JSONRequest.KEY_ID, id);
+		} else {
+			rq.put(JSONRequest.KEY_ID_IN, request.get(JSONRequest.KEY_ID_IN));
+		}
+
+		JSONObject rp = parser.createVerifier().createParser().setMethod(RequestMethod.HEAD).setNoVerify(true)
+				.parseResponse(new JSONRequest(table, rq));
+		rp = rp == null ? null : rp.getJSONObject(table);
+		return rp != null && rp.getIntValue(JSONResponse.KEY_COUNT) > 0;
+	}
+
 
 	/**
 	 * response has the final value after parse (and query if isTable)
@@ -646,6 +758,7 @@ public abstract class AbstractObjectParser implements ObjectParser {
 		functionMap = null;
 		customMap = null;
 		childMap = null;
+		parallelMap = null;
 	}
 
 
@@ -16,12 +16,35 @@ package zuo.biao.apijson.server;
 
 import static zuo.biao.apijson.RequestMethod.GET;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.activation.UnsupportedDataTypeException;
 
@@ -43,7 +66,7 @@ import zuo.biao.apijson.server.exception.OutOfRangeException;
 /**parser for parsing request to JSONObject
  * @author Lemon
  */
-public abstract class AbstractParser implements Parser {
+public abstract class AbstractParser implements AsyncParser {
 	protected static final String TAG = "AbstractParser";
 
 
@@ -97,6 +120,14 @@ public abstract class AbstractParser implements Parser {
 		this.visitor = visitor;
 		return this;
 	}
+	/**获取已登录的访问者的 id，用于读写分离时的写后读
+	 * @return 未登录则返回 null
+	 * @see {@link ReplicaRouter#isReadYourWrites(Object)}
+	 */
+	protected Long getVisitorId() {
+		Long id = getVisitor().getId();
+		return id == null || id <= 0 ? null : id;
+	}
 
 	protected RequestMethod requestMethod;
 	@NotNull
@@ -177,8 +208,243 @@ public abstract class AbstractParser implements Parser {
 
 
 
+	protected boolean batch = true;
+	/**是否批量查询数组内被引用的子对象
+	 * @return
+	 */
+	public boolean isBatch() {
+		return batch;
+	}
+	/**批量查询数组内被引用的子对象，把每个数组元素内的 key@ 查询合并为一条 key{}:[] 查询
+	 * @param batch
+	 * @return
+	 */
+	public AbstractParser setBatch(boolean batch) {
+		this.batch = batch;
+		return this;
+	}
+
+	protected boolean join = false;
+	/**是否把数组内被引用的子对象 LEFT JOIN 到主表查询
+	 * @return
+	 */
+	public boolean isJoin() {
+		return join;
+	}
+	/**把数组内通过 id@ 引用主表的子对象 LEFT JOIN 到主表，整页只查 1 次，
+	 * 只支持简单的子对象，不满足条件的仍然按 {@link #isBatch()} 批量查询或逐条查询
+	 * @param join
+	 * @return
+	 */
+	public AbstractParser setJoin(boolean join) {
+		this.join = join;
+		return this;
+	}
+
+	protected boolean parallel = false;
+	/**是否并行解析最外层互相独立的对象和数组
+	 * @return
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+	/**GET, HEAD 等请求中，最外层没有 key@ 互相引用的对象和数组并行解析，每个线程用各自的 SQLExecutor（连接池里的不同连接），
+	 * 有引用的按依赖关系先后解析，最后仍按原来的 key 顺序放进结果
+	 * @param parallel
+	 * @return
+	 */
+	public AbstractParser setParallel(boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	protected Boolean transaction;
+	/**是否在一个事务内执行，没有设置过则 POST, PUT, DELETE 等写请求在事务内，
+	 * GET, HEAD 等查询请求不并行解析且会查询多次时在只读事务内，所有查询用同一个连接、同一个一致性快照
+	 * @return
+	 */
+	public boolean isTransaction() {
+		if (transaction != null) {
+			return transaction;
+		}
+		if (RequestMethod.isQueryMethod(requestMethod) == false) {
+			return true;
+		}
+		return parallel == false && requestObject != null && isMultiQuery(requestObject);
+	}
+
+	/**是否会查询多次，最外层有多个对象或数组，或数组要查总数，或数组内有多个对象
+	 * @param request
+	 * @return
+	 */
+	protected boolean isMultiQuery(@NotNull JSONObject request) {
+		int count = 0;
+		JSONObject value;
+		for (Entry<String, Object> entry : request.entrySet()) {
+			if (entry.getKey() == null || entry.getKey().startsWith("@") || entry.getValue() instanceof JSONObject == false) {
+				continue;
+			}
+			value = (JSONObject) entry.getValue();
+			if (entry.getKey().endsWith("[]")) {
+				if (value.getIntValue(JSONRequest.KEY_QUERY) != JSONRequest.QUERY_TABLE || isMultiQuery(value)) {
+					return true;
+				}
+			}
+			count ++;
+			if (count > 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**整个请求的 SQL 在同一个连接的同一个事务内执行，最后一起提交，出错则全部回滚，
+	 * 请求最外层的 "@transaction":Boolean 优先；事务内不并行解析
+	 * @param transaction 为 null 则按 {@link #isTransaction()} 的默认值
+	 * @return
+	 */
+	public AbstractParser setTransaction(Boolean transaction) {
+		this.transaction = transaction;
+		return this;
+	}
+
+	protected int transactionIsolation;
+	public int getTransactionIsolation() {
+		return transactionIsolation;
+	}
+	/**事务的隔离级别
+	 * @param transactionIsolation 见 {@link java.sql.Connection#TRANSACTION_READ_COMMITTED} 等，<= 0 则用数据库默认的
+	 * @return
+	 */
+	public AbstractParser setTransactionIsolation(int transactionIsolation) {
+		this.transactionIsolation = transactionIsolation;
+		return this;
+	}
+
+	/**
+	 * 并行解析的线程数
+	 */
+	public static int PARALLEL_THREAD_COUNT = Math.max(2, 2*Runtime.getRuntime().availableProcessors());
+	/**
+	 * 并行解析排队的最大任务数，超出则在当前线程解析
+	 */
+	public static int PARALLEL_QUEUE_SIZE = 1000;
+	private static ExecutorService parallelExecutor;
+	/**获取并行解析的线程池
+	 * @return
+	 */
+	protected static synchronized ExecutorService getParallelExecutor() {
+		if (parallelExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLEL_THREAD_COUNT, PARALLEL_THREAD_COUNT
+					, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(PARALLEL_QUEUE_SIZE), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "APIJSON-parallel-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			parallelExecutor = executor;
+		}
+		return parallelExecutor;
+	}
+
+
 	protected SQLExecutor sqlExecutor;
+	private final ThreadLocal<SQLExecutor> localExecutor = new ThreadLocal<SQLExecutor>();//并行解析时每个线程各自的 SQLExecutor
 	protected Map<String, Object> queryResultMap;//path-result
+	protected Map<String, List<JSONObject>> arrayPageMap;//arrayPath/Table-page
+	protected Set<String> batchSet;//已批量查询的 arrayPath/Table/key
+
+
+	protected ThreadModel threadModel;
+	@NotNull
+	@Override
+	public ThreadModel getThreadModel() {
+		if (threadModel == null) {
+			threadModel = ThreadModel.getDefault();
+		}
+		return threadModel;
+	}
+	/**设置异步解析用的线程模型，默认为 {@link ThreadModel#getDefault()}
+	 * @param threadModel
+	 * @return
+	 */
+	@Override
+	public AbstractParser setThreadModel(ThreadModel threadModel) {
+		this.threadModel = threadModel;
+		return this;
+	}
+
+	/**异步解析请求json并获取对应结果
+	 * @param request
+	 * @return
+	 */
+	@Override
+	public CompletionStage<String> parseAsync(final String request) {
+		return toStringAsync(parseResponseAsync(request));
+	}
+	/**异步解析请求json并获取对应结果
+	 * @param request
+	 * @return
+	 */
+	@Override
+	public CompletionStage<String> parseAsync(final JSONObject request) {
+		return toStringAsync(parseResponseAsync(request));
+	}
+	/**异步解析请求json并获取对应结果
+	 * @param request
+	 * @return
+	 */
+	@Override
+	public CompletionStage<JSONObject> parseResponseAsync(final String request) {
+		return onParseAsync(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return parseResponse(request);
+			}
+		});
+	}
+	/**异步解析请求json并获取对应结果
+	 * @param request
+	 * @return
+	 */
+	@Override
+	public CompletionStage<JSONObject> parseResponseAsync(final JSONObject request) {
+		return onParseAsync(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return parseResponse(request);
+			}
+		});
+	}
+
+	/**在 {@link #getThreadModel()} 的线程里解析，整个请求都在同一个线程，线程池满了等异常也返回错误结果
+	 * @param task
+	 * @return
+	 */
+	protected CompletionStage<JSONObject> onParseAsync(Callable<JSONObject> task) {
+		return getThreadModel().submit(task).exceptionally(new Function<Throwable, JSONObject>() {
+			@Override
+			public JSONObject apply(Throwable e) {
+				if (e instanceof CompletionException && e.getCause() != null) {
+					e = e.getCause();
+				}
+				return newErrorResult(e instanceof Exception ? (Exception) e : new Exception(e));
+			}
+		});
+	}
+
+	protected CompletionStage<String> toStringAsync(CompletionStage<JSONObject> stage) {
+		return stage.thenApply(new Function<JSONObject, String>() {
+			@Override
+			public String apply(JSONObject response) {
+				return JSON.toJSONString(response);
+			}
+		});
+	}
 
 
 	/**解析请求json并获取对应结果
@@ -231,6 +497,17 @@ public abstract class AbstractParser implements Parser {
 
 		requestObject = request;
 
+		//必须在 onVerifyContent 前面，Request 表中的校验规则不包含 @transaction
+		try {
+			Boolean tx = requestObject.getBoolean(JSONRequest.KEY_TRANSACTION);
+			requestObject.remove(JSONRequest.KEY_TRANSACTION);
+			if (tx != null) {
+				setTransaction(tx);
+			}
+		} catch (Exception e) {
+			return extendErrorResult(requestObject, e);
+		}
+
 		verifier = createVerifier().setVisitor(getVisitor());
 
 		if (RequestMethod.isPublicMethod(requestMethod) == false) {
@@ -259,15 +536,43 @@ public abstract class AbstractParser implements Parser {
 		final String requestString = JSON.toJSONString(request);//request传进去解析后已经变了
 
 
-		queryResultMap = new HashMap<String, Object>();
+		if (parallel) {
+			queryResultMap = new ConcurrentHashMap<String, Object>();
+			arrayPageMap = new ConcurrentHashMap<String, List<JSONObject>>();
+			batchSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		} else {
+			queryResultMap = new HashMap<String, Object>();
+			arrayPageMap = new HashMap<String, List<JSONObject>>();
+			batchSet = new HashSet<String>();
+		}
 
 		Exception error = null;
+		final boolean transaction = isTransaction();
+		final boolean query = RequestMethod.isQueryMethod(requestMethod);
 		sqlExecutor = createSQLExecutor();
+		sqlExecutor.setPrimary(query == false || ReplicaRouter.isReadYourWrites(getVisitorId()));
 		try {
+			if (transaction) {
+				sqlExecutor.begin(getTransactionIsolation(), query);
+			}
 			requestObject = onObjectParse(request, null, null, null);
+			onVerifyResponse(requestObject);
+			if (transaction) {
+				sqlExecutor.commit();
+			}
+			if (query == false) { //之后一段时间内这个访问者的查询都在主库执行
+				ReplicaRouter.onWrite(getVisitorId());
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			error = e;
+			if (transaction) {
+				try {
+					sqlExecutor.rollback();
+				} catch (Exception e2) {
+					Log.e(TAG, "parseResponse  sqlExecutor.rollback(); >> catch (Exception e2) >> " + e2.getMessage());
+				}
+			}
 		}
 		sqlExecutor.close();
 		sqlExecutor = null;
@@ -278,6 +583,8 @@ public abstract class AbstractParser implements Parser {
 
 
 		queryResultMap.clear();
+		arrayPageMap.clear();
+		batchSet.clear();
 
 		//会不会导致原来的session = null？		session = null;
 
@@ -296,12 +603,205 @@ public abstract class AbstractParser implements Parser {
 	}
 
 
+	/**
+	 * 流式查询每次从数据库取的行数
+	 */
+	public static int STREAM_FETCH_SIZE = 100;
+
+	/**
+	 * 流式查询是否已经写出了 "name":[ ，写出后出错也要先闭合数组再写错误信息
+	 */
+	protected boolean streamStarted;
+
+	/**流式解析请求json并把结果写到 writer
+	 * @param request
+	 * @param writer
+	 * @throws IOException
+	 * @see {@link #parse(JSONObject, Writer)}
+	 */
+	public void parse(String request, @NotNull Writer writer) throws IOException {
+		JSONObject object;
+		try {
+			object = parseRequest(request);
+		} catch (Exception e) {
+			writer.write(JSON.toJSONString(newErrorResult(e)));
+			return;
+		}
+		parse(object, writer);
+	}
+	/**流式解析请求json并把结果写到 writer
+	 * 简单的数组查询 { "Table[]":{ "count":10, "page":0, "Table":{...} } } 逐行从 ResultSet 写出，不在内存中保存整个结果，
+	 * Table 内不能有 key@, key(), 子对象 等；其它请求仍然 {@link #parse(JSONObject)} 后一次写出
+	 * @param request
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void parse(JSONObject request, @NotNull Writer writer) throws IOException {
+		requestObject = request;
+		if (requestMethod != GET || request == null) {
+			writer.write(parse(request));
+			return;
+		}
+
+		if (noVerifyRole == false && globleRole == null) {
+			try {
+				setGlobleRole(RequestRole.get(request.getString(JSONRequest.KEY_ROLE)));
+				request.remove(JSONRequest.KEY_ROLE);
+			} catch (Exception e) {
+				writer.write(JSON.toJSONString(extendErrorResult(request, e)));
+				return;
+			}
+		}
+
+		String name = request.size() == 1 ? request.keySet().iterator().next() : null;
+		JSONObject array = name == null ? null : request.getJSONObject(name);
+		String table = getStreamTable(name, array);
+		if (table == null) {
+			writer.write(parse(request));
+			return;
+		}
+
+		verifier = createVerifier().setVisitor(getVisitor());
+		sqlExecutor = createSQLExecutor();
+		sqlExecutor.setPrimary(ReplicaRouter.isReadYourWrites(getVisitorId()));
+
+		streamStarted = false;
+		Exception error = null;
+		try {
+			onStreamParse(array, name, table, writer);
+		} catch (Exception e) {
+			e.printStackTrace();
+			error = e;
+		}
+		sqlExecutor.close();
+		sqlExecutor = null;
+
+		String result = JSON.toJSONString(error == null ? newSuccessResult() : newErrorResult(error));
+		if (streamStarted) { //已经写出了部分行，不能再写一个新的对象
+			writer.write("],");
+			writer.write(result.substring(1));
+		} else {
+			writer.write(result);
+		}
+		writer.flush();
+	}
+
+	/**获取可以流式查询的数组内的表
+	 * @param name 数组的 key
+	 * @param array 数组的 value
+	 * @return 不能流式查询则返回 null
+	 */
+	protected String getStreamTable(String name, JSONObject array) {
+		if (array == null || name == null || name.endsWith("[]") == false || array.getIntValue(JSONRequest.KEY_QUERY) != 0) {
+			return null;
+		}
+
+		String table = null;
+		for (Entry<String, Object> entry : array.entrySet()) {
+			String key = entry.getKey();
+			if (JSONRequest.ARRAY_KEY_LIST.contains(key)) {
+				continue;
+			}
+			if (table != null || JSONRequest.isTableKey(key) == false || entry.getValue() instanceof JSONObject == false) {
+				return null;
+			}
+			table = key;
+		}
+		if (table == null || (name.equals("[]") == false && name.equals(table + "[]") == false)) {
+			return null;
+		}
+
+		for (Entry<String, Object> entry : array.getJSONObject(table).entrySet()) {
+			String key = entry.getKey();
+			if (entry.getValue() instanceof JSONObject || key.endsWith("@") || key.endsWith("()")
+					|| (key.startsWith("@") && JSONRequest.TABLE_KEY_LIST.contains(key) == false)) {
+				return null;
+			}
+		}
+		return table;
+	}
+
+	/**流式查询数组，逐行写出 "name":[ ...
+	 * 每行先写到缓冲里再整行写出，读取出错时不会写出半行；写出 "name":[ 前设置 {@link #streamStarted}
+	 * @param array
+	 * @param name
+	 * @param table
+	 * @param writer
+	 * @return 写出的行数
+	 * @throws Exception
+	 */
+	protected int onStreamParse(JSONObject array, final String name, final String table, final Writer writer) throws Exception {
+		int count = array.getIntValue(JSONRequest.KEY_COUNT);
+		int page = array.getIntValue(JSONRequest.KEY_PAGE);
+		String path = getAbsPath(null, name);
+
+		ObjectParser op = createObjectParser(array.getJSONObject(table), path + "/0", table, null).parse();
+		SQLConfig config = op == null ? null : op.newSQLConfig();
+		if (op != null) {
+			op.recycle();
+		}
+		if (config == null) {
+			return 0;
+		}
+		onVerifyRole(config);
+
+		int max = getMaxStreamCount();
+		config.setCount(count <= 0 ? Math.min(100, max) : Math.min(count, max)).setPage(page).setPosition(0);
+
+		final boolean wrap = name.equals("[]"); //[]:{Table:{}} 每项为 {Table:{}}，Table[]:{Table:{}} 每项为 Table:{} 内的值
+		final String prefix = com.alibaba.fastjson.JSON.toJSONString(name); //带引号和转义
+		final String tablePrefix = com.alibaba.fastjson.JSON.toJSONString(table);
+		final StringWriter row = new StringWriter();
+		return getSQLExecutor().execute(config, STREAM_FETCH_SIZE, new SQLExecutor.RowCallback() {
+
+			@Override
+			public void onRow(int position, ColumnPlan plan, ResultSet rs) throws Exception {
+				row.getBuffer().setLength(0);
+				if (wrap) {
+					row.write('{');
+					row.write(tablePrefix);
+					row.write(':');
+				}
+				plan.write(rs, row);
+				if (wrap) {
+					row.write('}');
+				}
+
+				if (streamStarted == false) {
+					streamStarted = true;
+					writer.write('{');
+					writer.write(prefix);
+					writer.write(":[");
+				} else {
+					writer.write(',');
+				}
+				writer.write(row.toString());
+			}
+		});
+	}
+
+	/**流式查询时每页的最大数量，默认和普通查询一样为 100
+	 * 请求里的 @role 是客户端传的，不能作为依据；要放宽需重写，
+	 * 根据服务端的状态判断，例如 session 里登录的账号或 {@link #getVisitor()} 是否为可信的内部账号
+	 * @return
+	 */
+	protected int getMaxStreamCount() {
+		return 100;
+	}
+
+
 	protected void onVerifyLogin() throws Exception {
 		verifier.verifyLogin();
 	}
 	protected void onVerifyContent() throws Exception {
 		requestObject = parseCorrectRequest();
 	}
+	/**解析完、提交事务前校验结果，抛出异常则回滚事务并返回错误，例如注册时 User 和 Privacy 的 id 必须相同
+	 * @param response 还没有加 code, msg
+	 * @throws Exception
+	 */
+	protected void onVerifyResponse(JSONObject response) throws Exception {
+	}
 	
 	
 	/**解析请求JSONObject
@@ -431,7 +931,6 @@ public abstract class AbstractParser implements Parser {
 
 
 
-	//TODO 启动时一次性加载Request所有内容，作为初始化。
 	/**获取正确的请求，非GET请求必须是服务器指定的
 	 * @param method
 	 * @param request
@@ -450,6 +949,14 @@ public abstract class AbstractParser implements Parser {
 		}
 		int version = requestObject.getIntValue(JSONRequest.KEY_VERSION);
 
+		//已编译的校验规则，不用复制和解析结构
+		CompiledStructure compiled = getCompiledStructure(tag, version);
+		if (compiled != null) {
+			requestObject.remove(JSONRequest.KEY_TAG);
+			requestObject.remove(JSONRequest.KEY_VERSION);
+			return parseCorrectRequest(compiled);
+		}
+
 		JSONObject object = null;
 		String error = "";
 		try {
@@ -475,6 +982,42 @@ public abstract class AbstractParser implements Parser {
 		return parseCorrectRequest((JSONObject) target.clone());
 	}
 
+	/**获取 Request 表中编译后的校验规则
+	 * @param tag
+	 * @param version
+	 * @return 没有或不能编译则返回 null，改用 {@link #getStructure} 取出来由 {@link #parseCorrectRequest(JSONObject)} 解释
+	 */
+	protected CompiledStructure getCompiledStructure(String tag, int version) {
+		try {
+			StructureIndex.REQUEST.init(this);
+			return StructureIndex.REQUEST.getCompiled(requestMethod, tag, version);
+		} catch (Exception e) {
+			Log.e(TAG, "getCompiledStructure  try { StructureIndex.REQUEST.init(this); ... } catch (Exception e) >> " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**用编译后的校验规则校验并修改请求
+	 * @param compiled
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	public JSONObject parseCorrectRequest(@NotNull CompiledStructure compiled) throws Exception {
+		return compiled.parseRequest(requestMethod, "", requestObject, new SQLCreator() {
+
+			@Override
+			public SQLConfig createSQLConfig() {
+				return AbstractParser.this.createSQLConfig();
+			}
+
+			@Override
+			public SQLExecutor createSQLExecutor() {
+				return AbstractParser.this.createSQLExecutor();
+			}
+		});
+	}
+
 
 	//TODO 优化性能！
 	/**获取正确的返回结果
@@ -513,6 +1056,13 @@ public abstract class AbstractParser implements Parser {
 	 */
 	@Override
 	public JSONObject getStructure(@NotNull String table, String key, String value, int version) throws Exception  {
+		//Request, Response 从启动时加载的索引里查，不访问数据库
+		StructureIndex index = StructureIndex.get(table);
+		if (index != null && index.getKey().equals(key)) {
+			index.init(this);
+			return index.get(requestMethod, value, version);
+		}
+
 		//获取指定的JSON结构 <<<<<<<<<<<<<<
 		SQLConfig config = createSQLConfig().setMethod(GET).setTable(table);
 		config.setPrepared(false);
@@ -573,9 +1123,12 @@ public abstract class AbstractParser implements Parser {
 			} else {//Array Item Child
 				int query = arrayConfig.getQuery();
 
+				//@total:"over" 时 total 和这一页一起查出，不需要单独 HEAD 查询
+				boolean over = type == SQLConfig.TYPE_ITEM_CHILD_0 && JSONRequest.TOTAL_OVER.equals(arrayConfig.getTotal());
+
 				//total 这里不能用arrayConfig.getType()，因为在createObjectParser.onChildParse传到onObjectParse时已被改掉
 				if (type == SQLConfig.TYPE_ITEM_CHILD_0 && query != JSONRequest.QUERY_TABLE
-						&& arrayConfig.getPosition() == 0) {
+						&& arrayConfig.getPosition() == 0 && over == false) {
 					JSONObject rp = op.setMethod(RequestMethod.HEAD).executeSQL().getSqlReponse();
 					if (rp != null) {
 						int index = parentPath.lastIndexOf("]/");
@@ -596,10 +1149,37 @@ public abstract class AbstractParser implements Parser {
 				if (query == JSONRequest.QUERY_TOTAL) {
 					response = null;//不再往后查询
 				} else {
-					response = op.executeSQL(
-							arrayConfig.getCount(), arrayConfig.getPage(), arrayConfig.getPosition()
-							).response();
+					op.executeSQL(arrayConfig.getCount(), arrayConfig.getPage(), arrayConfig.getPosition());
+					if ((batch || join) && type == SQLConfig.TYPE_ITEM_CHILD_0 && arrayConfig.getPosition() == 0) {
+						putArrayPage(parentPath, name, op.getSQLConfig());
+					}
+					//游标分页，每一条都覆盖，最后留下的是这一页最后一条的游标
+					if (type == SQLConfig.TYPE_ITEM_CHILD_0 && op.getSQLConfig() != null
+							&& op.getSQLConfig().getCursor() != null && op.getSqlReponse() != null) {
+						int index = parentPath.lastIndexOf("]/");
+						if (index >= 0) {
+							String cursor = op.getSQLConfig().newCursor(op.getSqlReponse());
+							if (cursor != null) {
+								putQueryResult(parentPath.substring(0, index) + "]/" + JSONResponse.KEY_CURSOR, cursor);
+							}
+						}
+					}
+					Object total = over && op.getSqlReponse() != null ? op.getSqlReponse().remove(AbstractSQLConfig.KEY_TOTAL) : null;
+					response = op.response();
 					//					itemConfig = op.getConfig();
+
+					if (over && arrayConfig.getPosition() == 0) {
+						int index = parentPath.lastIndexOf("]/");
+						if (total == null && arrayConfig.getPage() > 0) { //这一页没有数据，只能再查一次
+							JSONObject rp = op.setMethod(RequestMethod.HEAD).executeSQL().getSqlReponse();
+							total = rp == null ? null : rp.getIntValue(JSONResponse.KEY_COUNT);
+							op.setMethod(requestMethod);
+						}
+						if (index >= 0) {
+							putQueryResult(parentPath.substring(0, index) + "]/" + JSONResponse.KEY_TOTAL
+									, total == null ? 0 : ((Number) total).intValue());
+						}
+					}
 				}
 			}
 
@@ -610,6 +1190,138 @@ public abstract class AbstractParser implements Parser {
 		return response;
 	}
 
+	/**并行解析最外层的对象和数组
+	 * 根据每个子树里 key@ 的引用路径建立依赖关系，前后两个 key 之间有引用则后面的依赖前面的，
+	 * 然后按依赖分轮，每轮内互相独立的 key 并行解析，每个线程使用各自的 SQLExecutor
+	 * @param request 最外层的请求
+	 * @return key - 解析结果，出错的为 Exception，没有并行解析则返回 null
+	 * @throws Exception
+	 */
+	@Override
+	public Map<String, Object> onParallelParse(final JSONObject request) throws Exception {
+		if (parallel == false || request == null || RequestMethod.isGetMethod(requestMethod, true) == false || isTransaction()) {
+			return null;
+		}
+
+		final List<String> keyList = new ArrayList<String>();
+		for (Entry<String, Object> entry : request.entrySet()) {
+			if (entry.getValue() instanceof JSONObject && entry.getKey().startsWith("@") == false) {
+				keyList.add(entry.getKey());
+			}
+		}
+		final int size = keyList.size();
+		if (size <= 1) {
+			return null;
+		}
+
+		//依赖关系 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+		List<Set<String>> referenceList = new ArrayList<Set<String>>(size);
+		for (String key : keyList) {
+			Set<String> set = new HashSet<String>();
+			putReferenceKeys(request.getJSONObject(key), set);
+			referenceList.add(set);
+		}
+
+		int[] levels = new int[size];//第几轮解析
+		int maxLevel = 0;
+		for (int i = 1; i < size; i++) {
+			for (int j = 0; j < i; j++) {
+				//引用后面的 key 时，原来按顺序解析是取不到值的，也要等前面的解析完，保持一致
+				if (referenceList.get(i).contains(keyList.get(j)) || referenceList.get(j).contains(keyList.get(i))) {
+					levels[i] = Math.max(levels[i], levels[j] + 1);
+				}
+			}
+			maxLevel = Math.max(maxLevel, levels[i]);
+		}
+		if (maxLevel >= size - 1) { //全部串行
+			return null;
+		}
+		//依赖关系 >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+		Log.d(TAG, "onParallelParse  keyList = " + keyList + "; levels = " + Arrays.toString(levels));
+
+		final Map<String, Object> resultMap = new HashMap<String, Object>();
+		List<Future<Object>> futureList = new ArrayList<Future<Object>>();
+		List<String> levelKeyList = new ArrayList<String>();
+		for (int level = 0; level <= maxLevel; level++) {
+			levelKeyList.clear();
+			for (int i = 0; i < size; i++) {
+				if (levels[i] == level) {
+					levelKeyList.add(keyList.get(i));
+				}
+			}
+
+			//第一个在当前线程解析，其它的交给线程池
+			futureList.clear();
+			for (int i = 1; i < levelKeyList.size(); i++) {
+				final String key = levelKeyList.get(i);
+				futureList.add(getParallelExecutor().submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						SQLExecutor executor = createSQLExecutor();
+						executor.setPrimary(sqlExecutor != null && sqlExecutor.isPrimary());
+						localExecutor.set(executor);
+						try {
+							return onParallelChildParse(request, key);
+						} finally {
+							localExecutor.remove();
+							executor.close();
+						}
+					}
+				}));
+			}
+
+			resultMap.put(levelKeyList.get(0), onParallelChildParse(request, levelKeyList.get(0)));
+			for (int i = 0; i < futureList.size(); i++) {
+				try {
+					resultMap.put(levelKeyList.get(i + 1), futureList.get(i).get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					resultMap.put(levelKeyList.get(i + 1), cause instanceof Exception ? cause : e);
+				}
+			}
+		}
+
+		return resultMap;
+	}
+
+	/**解析最外层的一个对象或数组
+	 * @param request 最外层的请求
+	 * @param key
+	 * @return 解析结果，出错则为 Exception
+	 */
+	protected Object onParallelChildParse(JSONObject request, String key) {
+		try {
+			JSONObject value = request.getJSONObject(key);
+			return JSONRequest.isArrayKey(key) ? onArrayParse(value, "", key) : onObjectParse(value, "", key, null);
+		} catch (Exception e) {
+			return e;
+		}
+	}
+
+	/**把子树里所有 key@ 引用路径中的各级 key 放进 set
+	 * @param request
+	 * @param set
+	 */
+	protected static void putReferenceKeys(JSONObject request, Set<String> set) {
+		if (request == null) {
+			return;
+		}
+		Object value;
+		for (Entry<String, Object> entry : request.entrySet()) {
+			value = entry.getValue();
+			if (value instanceof JSONObject) {
+				putReferenceKeys((JSONObject) value, set);
+			}
+			else if (value instanceof String && entry.getKey().endsWith("@")) {
+				String[] keys = StringUtil.splitPath((String) value);
+				if (keys != null) {
+					set.addAll(Arrays.asList(keys));
+				}
+			}
+		}
+	}
+
 	/**获取对象数组，该对象数组处于parentObject内
 	 * @param parentPath parentObject的路径
 	 * @param name parentObject的key
@@ -634,10 +1346,12 @@ public abstract class AbstractParser implements Parser {
 		final int query = request.getIntValue(JSONRequest.KEY_QUERY);
 		final int count = request.getIntValue(JSONRequest.KEY_COUNT);
 		final int page = request.getIntValue(JSONRequest.KEY_PAGE);
+		final String total = request.getString(JSONRequest.KEY_TOTAL);
 		request.remove(JSONRequest.KEY_QUERY);
 		request.remove(JSONRequest.KEY_COUNT);
 		request.remove(JSONRequest.KEY_PAGE);
-		Log.d(TAG, "getArray  query = " + query + "; count = " + count + "; page = " + page);
+		request.remove(JSONRequest.KEY_TOTAL);
+		Log.d(TAG, "getArray  query = " + query + "; count = " + count + "; page = " + page + "; total = " + total);
 
 		if (request.isEmpty()) {//如果条件成立，说明所有的 parentPath/name:request 中request都无效！！！
 			Log.e(TAG, "getArray  request.isEmpty() >> return null;");
@@ -667,7 +1381,11 @@ public abstract class AbstractParser implements Parser {
 				.setMethod(requestMethod)
 				.setCount(size)
 				.setPage(page)
-				.setQuery(query);
+				.setQuery(query)
+				.setTotal(getTotal(query, total));
+		if (join) {
+			config.setJoinList(onJoinParse(request, path));
+		}
 
 		JSONObject parent;
 		//生成size个
@@ -707,12 +1425,374 @@ public abstract class AbstractParser implements Parser {
 		request.put(JSONRequest.KEY_QUERY, query);
 		request.put(JSONRequest.KEY_COUNT, count);
 		request.put(JSONRequest.KEY_PAGE, page);
+		if (total != null) {
+			request.put(JSONRequest.KEY_TOTAL, total);
+		}
 
 		Log.i(TAG, "getArray  return response = \n" + JSON.toJSONString(response) + "\n>>>>>>>>>>>>>>>\n\n\n");
 		return response;
 	}
 
 
+	/**获取 total 的获取方式
+	 * @param query
+	 * @param total 请求里的 @total
+	 * @return null - 单独 HEAD 查询 COUNT(*)
+	 */
+	protected String getTotal(int query, String total) {
+		if (total == null || query == JSONRequest.QUERY_TABLE) {
+			return null;
+		}
+		if (JSONRequest.TOTAL_OVER.equals(total)) {
+			return query == JSONRequest.QUERY_ALL ? total : null; //只查 total 时没有这一页的查询可以带上
+		}
+		if (JSONRequest.TOTAL_APPROX.equals(total) || JSONRequest.TOTAL_CACHE.equals(total)) {
+			return total;
+		}
+		throw new IllegalArgumentException(JSONRequest.KEY_TOTAL + ":value 中 value 只能是 "
+				+ JSONRequest.TOTAL_OVER + ", " + JSONRequest.TOTAL_APPROX + ", " + JSONRequest.TOTAL_CACHE + " 中的一种！");
+	}
+
+	/**保存数组主表的整页结果，供数组内被引用的子对象批量查询
+	 * @param parentPath 数组元素的路径 []/0
+	 * @param name 主表的key
+	 * @param config 主表的SQLConfig
+	 * @throws Exception
+	 */
+	protected void putArrayPage(String parentPath, String name, SQLConfig config) throws Exception {
+		int index = parentPath == null || config == null ? -1 : parentPath.lastIndexOf("]/");
+		if (index < 0) {
+			return;
+		}
+
+		boolean prepared = config.isPrepared();
+		String sql = config.getSQL(false);
+		config.setPrepared(prepared);
+
+		List<JSONObject> page = new ArrayList<JSONObject>();
+		JSONObject row;
+		for (int i = 0; i < config.getCount(); i++) {
+			row = getSQLExecutor().getCache(sql, i, config.isCacheStatic());
+			if (row == null || row.isEmpty()) {
+				break;
+			}
+			page.add(row);
+		}
+
+		String arrayPath = parentPath.substring(0, index + 1);
+		List<Join> joinList = config.getJoinList();
+		if (joinList == null || joinList.isEmpty()) {
+			arrayPageMap.put(arrayPath + "/" + name, page);
+			return;
+		}
+
+		//LEFT JOIN 查询的每行结果为 { "0":主表, "1":副表1 ... }，拆分为主表的页和每个副表的页，按下标对应
+		List<JSONObject> mainPage = new ArrayList<JSONObject>();
+		for (JSONObject r : page) {
+			mainPage.add(r.getJSONObject("0"));
+		}
+		arrayPageMap.put(arrayPath + "/" + name, mainPage);
+
+		List<JSONObject> joinPage;
+		for (int i = 0; i < joinList.size(); i++) {
+			Join join = joinList.get(i);
+			joinPage = new ArrayList<JSONObject>();
+			for (JSONObject r : page) {
+				joinPage.add(r.getJSONObject("" + (i + 1)));//没关联到为 null
+			}
+			arrayPageMap.put(getJoinPagePath(arrayPath, join.getName(), join.getKey(), name, join.getTargetKey()), joinPage);
+		}
+	}
+
+	/**获取 LEFT JOIN 副表的页在 arrayPageMap 中的 key
+	 * @param arrayPath
+	 * @param name 副表的key
+	 * @param key 副表被引用赋值的key
+	 * @param targetName 主表的key
+	 * @param targetKey 主表被引用的key
+	 * @return arrayPath/User/id@=Moment/userId
+	 */
+	protected static String getJoinPagePath(String arrayPath, String name, String key, String targetName, String targetKey) {
+		return arrayPath + "/" + name + "/" + key + "@=" + targetName + "/" + targetKey;
+	}
+
+	/**解析数组内可以 LEFT JOIN 到主表的子对象，只支持
+	 * Moment:{ @column:"id,userId", @order:"date-" }, User:{ "id@":"/Moment/userId", @column:"id,name" } 这种
+	 * 主表没有 @group, @having，子对象只通过 id@ 引用主表的形式，保证每行主表最多关联 1 行副表
+	 * @param request 数组的请求
+	 * @param path 数组的路径
+	 * @return 没有可以 JOIN 的子对象时返回 null
+	 */
+	protected List<Join> onJoinParse(JSONObject request, String path) {
+		Set<Entry<String, Object>> set = request == null ? null : request.entrySet();
+		if (set == null || set.isEmpty()) {
+			return null;
+		}
+
+		String mainName = null;
+		List<String> mainColumnList = null; //主表的 @column，为 null 则是全部字段
+		String itemPath = path + "/0";
+		List<Join> joinList = null;
+
+		String key;
+		JSONObject obj;
+		for (Entry<String, Object> entry : set) {
+			key = entry == null ? null : entry.getKey();
+			obj = key == null || entry.getValue() instanceof JSONObject == false ? null : (JSONObject) entry.getValue();
+
+			if (mainName == null) {//第一个为主表
+				if (obj == null || JSONRequest.isTableKey(key) == false || isJoinable(obj, true) == false) {
+					return null;
+				}
+				mainName = key;
+				String column = obj.getString(JSONRequest.KEY_COLUMN);
+				mainColumnList = column == null ? null : Arrays.asList(StringUtil.split(column));
+				continue;
+			}
+			if (obj == null || JSONRequest.isTableKey(key) == false || isJoinable(obj, false) == false) {
+				continue;
+			}
+
+			//只有 1 个 key@ 且为 id@:"/Main/targetKey"
+			String targetKey = null;
+			boolean valid = true;
+			for (String k : obj.keySet()) {
+				if (k.endsWith("@")) {
+					if (targetKey != null || JSONRequest.KEY_ID.equals(k.substring(0, k.length() - 1)) == false
+							|| obj.get(k) instanceof String == false) {
+						valid = false;
+						break;
+					}
+					String target = getValuePath(itemPath, obj.getString(k));
+					String prefix = itemPath + "/" + mainName + "/";
+					targetKey = target.startsWith(prefix) ? target.substring(prefix.length()) : null;
+					//ON 里用的是字段名，引用 @column 里的别名例如 userId:uid 时不能 JOIN
+					if (StringUtil.isName(targetKey) == false
+							|| (mainColumnList != null && mainColumnList.contains(targetKey) == false)) {
+						valid = false;
+						break;
+					}
+				}
+			}
+			if (valid == false || targetKey == null) {
+				continue;
+			}
+
+			try {
+				JSONObject rq = new JSONObject(true);
+				rq.putAll(obj);
+				rq.remove(JSONRequest.KEY_ID + "@");
+
+				ObjectParser op = createObjectParser(rq, itemPath, key, null).parse();
+				SQLConfig jc = op == null ? null : op.newSQLConfig();
+				if (op != null) {
+					op.recycle();
+				}
+				if (jc == null) {
+					continue;
+				}
+
+				if (joinList == null) {
+					joinList = new ArrayList<Join>();
+				}
+				jc.setCount(1).setPage(0).setPosition(0).setAlias(Join.getAlias(joinList.size() + 1));
+				onVerifyRole(jc);
+
+				joinList.add(new Join(key, JSONRequest.KEY_ID, targetKey, jc));
+			} catch (Exception e) {
+				Log.e(TAG, "onJoinParse  catch (Exception e) >> 不 JOIN " + key + " \n" + e.getMessage());
+			}
+		}
+
+		return joinList == null || joinList.isEmpty() ? null : joinList;
+	}
+
+	/**判断对象是否可以作为 LEFT JOIN 的主表或副表，@column, @order 都只能是字段名，不能有 @group, @having 和嵌套的对象
+	 * @param obj
+	 * @param main
+	 * @return
+	 */
+	protected boolean isJoinable(JSONObject obj, boolean main) {
+		if (obj.containsKey(JSONRequest.KEY_GROUP) || obj.containsKey(JSONRequest.KEY_HAVING)
+				|| (main == false && obj.containsKey(JSONRequest.KEY_ORDER))) {
+			return false;
+		}
+
+		Object column = obj.get(JSONRequest.KEY_COLUMN);
+		if (column != null) {
+			if (column instanceof String == false) {
+				return false;
+			}
+			String[] cs = StringUtil.split((String) column);
+			if (cs == null) {
+				return false;
+			}
+			for (String c : cs) {
+				int index = c.indexOf(":");
+				if (StringUtil.isName(index < 0 ? c : c.substring(0, index)) == false
+						|| (index >= 0 && StringUtil.isName(c.substring(index + 1)) == false)) {
+					return false;
+				}
+			}
+		}
+
+		Object order = obj.get(JSONRequest.KEY_ORDER);
+		if (order != null) {
+			if (order instanceof String == false) {
+				return false;
+			}
+			String[] os = StringUtil.split((String) order);
+			if (os == null) {
+				return false;
+			}
+			for (String o : os) {
+				if (StringUtil.isName(o.endsWith("+") || o.endsWith("-") ? o.substring(0, o.length() - 1) : o) == false) {
+					return false;
+				}
+			}
+		}
+
+		for (Entry<String, Object> entry : obj.entrySet()) {
+			if (entry.getValue() instanceof JSONObject || entry.getKey().endsWith("()")
+					|| (main && entry.getKey().endsWith("@"))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**批量查询数组内被引用的子对象，把 N 次 WHERE key = value 合并为 1 次 WHERE key IN(...)，
+	 * 再按每个数组元素对应的 SQL 放入缓存，之后每个数组元素仍然走原来的校验和查询流程，只是直接命中缓存
+	 * <br > 只合并主键 id，每个值最多 1 行，IN 查询最多返回 N 行；
+	 * 其它 key 例如 Comment:{ "momentId@":"/Moment/id" } 每个值可能有很多行，仍然逐条 LIMIT 1 查询
+	 * @param op 第0个数组元素内的子对象的ObjectParser
+	 * @param key 被引用赋值的key，例如 User:{ "id@":"/Moment/userId" } 中的 id
+	 * @param targetPath 引用路径，例如 []/0/Moment/userId
+	 */
+	@Override
+	public void onReferenceBatchParse(ObjectParser op, String key, String targetPath) {
+		SQLConfig config = (batch || join) && op != null && targetPath != null
+				&& JSONRequest.KEY_ID.equals(key) ? op.getSQLConfig() : null;
+		int index = config == null ? -1 : targetPath.lastIndexOf("]/");
+		if (index < 0) {
+			return;
+		}
+		String arrayPath = targetPath.substring(0, index + 1);
+		String[] keys = StringUtil.splitPath(targetPath.substring(index + 2));
+		String childPath = op.getPath() == null || op.getPath().startsWith(arrayPath + "/0/") == false
+				? null : op.getPath().substring(arrayPath.length() + 3);
+		if (keys == null || keys.length != 3 || "0".equals(keys[0]) == false
+				|| StringUtil.isNotEmpty(childPath, false) == false || childPath.contains("/")) {
+			return;
+		}
+
+		List<JSONObject> page = arrayPageMap.get(arrayPath + "/" + keys[1]);
+		//已经 LEFT JOIN 到主表，按下标对应，不用再查询
+		List<JSONObject> joinPage = arrayPageMap.get(getJoinPagePath(arrayPath, childPath, key, keys[1], keys[2]));
+		if (page == null || batchSet.contains(arrayPath + "/" + childPath + "/" + key)
+				|| (joinPage == null && (batch == false || page.size() <= 1))) {
+			return;
+		}
+		batchSet.add(arrayPath + "/" + childPath + "/" + key);
+
+		//只有 @column 包含 key 且没有 @group, @having 时才能把结果按 key 分配给每个数组元素
+		String column = config.getColumn();
+		if (joinPage == null && column != null && Arrays.asList(StringUtil.split(column)).contains(key) == false) {
+			return;
+		}
+		if (StringUtil.isNotEmpty(config.getGroup(), true) || StringUtil.isNotEmpty(config.getHaving(), true)) {
+			return;
+		}
+
+		//只批量查询整数，避免数据库的类型转换和大小写规则导致结果和逐条查询不一致
+		Map<Long, Object> valueMap = new LinkedHashMap<Long, Object>();
+		Map<Long, JSONObject> resultMap = new HashMap<Long, JSONObject>();
+		Object value;
+		for (int i = 0; i < page.size(); i++) {
+			value = page.get(i).get(keys[2]);
+			if (value instanceof Long == false && value instanceof Integer == false) {
+				return;
+			}
+			valueMap.put(((Number) value).longValue(), value);
+			if (joinPage != null && i < joinPage.size() && joinPage.get(i) != null) {
+				resultMap.put(((Number) value).longValue(), joinPage.get(i));
+			}
+		}
+
+		JSONObject request = op.getSqlRequest();
+		JSONObject origin = new JSONObject(true);
+		origin.putAll(request);
+		try {
+			JSONObject row;
+			if (joinPage == null) {
+				//WHERE key IN(...) <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+				request.clear();
+				for (Entry<String, Object> entry : origin.entrySet()) {
+					if (key.equals(entry.getKey())) {
+						request.put(key + "{}", new JSONArray(new ArrayList<Object>(valueMap.values())));
+					} else {
+						request.put(entry.getKey(), entry.getValue());
+					}
+				}
+				SQLConfig batchConfig = op.newSQLConfig().setCount(valueMap.size()).setPage(0).setPosition(0);
+				onVerifyRole(batchConfig);
+				getSQLExecutor().execute(batchConfig);
+
+				boolean prepared = batchConfig.isPrepared();
+				String batchSql = batchConfig.getSQL(false);
+				batchConfig.setPrepared(prepared);
+
+				for (int i = 0; ; i++) {
+					row = getSQLExecutor().getCache(batchSql, i, false);
+					if (row == null || row.isEmpty()) {
+						break;
+					}
+					value = row.get(key);
+					if (value instanceof Number && resultMap.containsKey(((Number) value).longValue()) == false) {
+						resultMap.put(((Number) value).longValue(), row);//和 LIMIT 1 一样取第一条
+					}
+				}
+				getSQLExecutor().removeCache(batchSql, false);
+				//WHERE key IN(...) >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+			}
+
+
+			//按每个数组元素对应的 SQL 放入缓存 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+			request.clear();
+			request.putAll(origin);
+
+			SQLConfig itemConfig;
+			Map<Integer, JSONObject> itemMap;
+			for (Entry<Long, Object> entry : valueMap.entrySet()) {
+				request.put(key, entry.getValue());
+				itemConfig = op.newSQLConfig().setCount(1).setPage(0).setPosition(0);
+				try {
+					onVerifyRole(itemConfig);
+				} catch (Exception e) {
+					continue;//交给数组元素自己查询时抛出
+				}
+
+				boolean itemPrepared = itemConfig.isPrepared();
+				String itemSql = itemConfig.getSQL(false);
+				itemConfig.setPrepared(itemPrepared);
+
+				itemMap = new HashMap<Integer, JSONObject>();
+				row = resultMap.get(entry.getKey());
+				if (row != null) {
+					itemMap.put(0, row);
+				}
+				getSQLExecutor().putCache(itemSql, itemMap, false);
+			}
+			//按每个数组元素对应的 SQL 放入缓存 >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+		} catch (Exception e) {
+			Log.e(TAG, "onReferenceBatchParse  catch (Exception e) >> 改为逐条查询 \n" + e.getMessage());
+		} finally {
+			request.clear();
+			request.putAll(origin);
+		}
+	}
+
+
 	/**根据路径取值
 	 * @param parent
 	 * @param pathKeys
@@ -817,7 +1897,11 @@ public abstract class AbstractParser implements Parser {
 		Log.i(TAG, "\n putQueryResult  valuePath = " + path + "; result = " + result + "\n <<<<<<<<<<<<<<<<<<<<<<<");
 		//		if (queryResultMap.containsKey(valuePath)) {//只保存被关联的value
 		Log.d(TAG, "putQueryResult  queryResultMap.containsKey(valuePath) >> queryResultMap.put(path, result);");
-		queryResultMap.put(path, result);
+		if (result == null) { //并行解析时是 ConcurrentHashMap，不能放 null
+			queryResultMap.remove(path);
+		} else {
+			queryResultMap.put(path, result);
+		}
 		//		}
 	}
 	/**根据路径获取值
@@ -909,8 +1993,29 @@ public abstract class AbstractParser implements Parser {
 	 * @throws Exception
 	 */
 	@Override
-	public synchronized JSONObject executeSQL(SQLConfig config) throws Exception {
+	public JSONObject executeSQL(SQLConfig config) throws Exception {
 		Log.i(TAG, "executeSQL  config = " + JSON.toJSONString(config));
+		onVerifyRole(config);
+		JSONObject result = getSQLExecutor().execute(config);
+		if (result != null && config.getJoinList() != null && config.getJoinList().isEmpty() == false) {
+			result = result.getJSONObject("0");//LEFT JOIN 查询结果为 { "0":主表, "1":副表1 ... }
+		}
+		return parseCorrectResponse(config.getTable(), result);
+	}
+
+	/**获取当前线程的 SQLExecutor，并行解析时每个线程各自一个
+	 * @return
+	 */
+	protected SQLExecutor getSQLExecutor() {
+		SQLExecutor executor = localExecutor.get();
+		return executor != null ? executor : sqlExecutor;
+	}
+
+	/**校验角色及对应操作的权限，可能会给config添加条件
+	 * @param config
+	 * @throws Exception
+	 */
+	protected void onVerifyRole(SQLConfig config) throws Exception {
 		if (noVerifyRole == false) {
 			if (config.getRole() == null) {
 				if (globleRole != null) {
@@ -921,7 +2026,6 @@ public abstract class AbstractParser implements Parser {
 			}
 			verifier.verify(config);
 		}
-		return parseCorrectResponse(config.getTable(), sqlExecutor.execute(config));
 	}
 
 
@@ -0,0 +1,550 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import zuo.biao.apijson.Log;
+import zuo.biao.apijson.RequestMethod;
+
+/**从连接池借出连接的executor，close 时归还连接而不是关闭
+ * 同一线程内嵌套创建的 executor（verifyRepeat, getStructure, sqlVerify 等）复用同一个连接，
+ * 预编译模式下复用连接上缓存的 PreparedStatement；
+ * 分片时每个分片各借出一个连接
+ * @author Lemon
+ */
+public abstract class AbstractPoolSQLExecutor extends AbstractSQLExecutor {
+	private static final String TAG = "AbstractPoolSQLExecutor";
+
+
+	/**获取 config 对应的连接池
+	 * @param config
+	 * @return
+	 * @see {@link SQLConnectionPool#getInstance(String, SQLConnectionPool.Callback)}
+	 */
+	protected abstract SQLConnectionPool getPool(@NotNull SQLConfig config);
+
+	/**获取 uri 对应的连接池，用于从库和分片，账号密码和主库相同
+	 * @param config
+	 * @param uri {@link SQLConfig#getDBReplicaUriList()} 或 {@link SQLConfig#getDBShardUriList()} 中的一个
+	 * @return 默认不支持从库和分片，返回 null
+	 */
+	protected SQLConnectionPool getPool(@NotNull SQLConfig config, @NotNull String uri) {
+		return null;
+	}
+
+
+	@Override
+	public ResultSet executeQuery(@NotNull SQLConfig config) throws Exception {
+		PreparedStatement statement = getStatement(config);
+		if (replicaUri == null) {
+			resultSet = statement.executeQuery();
+		} else {
+			long startTime = System.nanoTime();
+			resultSet = statement.executeQuery();
+			ReplicaRouter.onLatency(replicaUri, System.nanoTime() - startTime);
+		}
+		return resultSet;
+	}
+
+	@Override
+	public int executeUpdate(@NotNull SQLConfig config) throws Exception {
+		return getStatement(config).executeUpdate();
+	}
+
+
+	/**借出的连接
+	 */
+	protected static class Borrowed {
+		final SQLConnectionPool pool;
+		final Connection connection;
+		final String replicaUri; //在从库则为从库地址
+		boolean joined; //连接已在外层 executor 的事务中，提交和回滚都由外层执行
+		int lastIsolation; //开启事务前的隔离级别，结束后还原
+
+		Borrowed(SQLConnectionPool pool, Connection connection, String replicaUri) {
+			this.pool = pool;
+			this.connection = connection;
+			this.replicaUri = replicaUri;
+		}
+	}
+
+	private final Map<SQLConnectionPool, Borrowed> borrowedMap = new LinkedHashMap<SQLConnectionPool, Borrowed>();
+	private Borrowed main; //不分片的表用的连接，在主库或从库，第一次借出后固定
+
+	protected SQLConnectionPool pool; //当前连接的连接池
+	protected Connection connection; //当前连接
+	protected PreparedStatement statement;
+	protected boolean statementCached; //statement是否由连接池缓存，缓存的不能关闭
+	protected ResultSet resultSet;
+	protected String replicaUri; //当前连接所在的从库，在主库则为 null
+
+	/**获取连接，第一次调用时从连接池借出，之后的 SQL 都用这个连接；分片表用所在分片的连接
+	 * @param config
+	 * @return
+	 * @throws Exception
+	 */
+	protected Connection getConnection(@NotNull SQLConfig config) throws Exception {
+		Borrowed b;
+		if (config.getShard() >= 0) {
+			String uri = config.getDBShardUriList().get(config.getShard());
+			SQLConnectionPool shardPool = getPool(config, uri);
+			if (shardPool == null) {
+				throw new UnsupportedOperationException(TAG + " 不支持分片！请重写 getPool(SQLConfig, String) ！");
+			}
+			b = borrow(shardPool, null);
+		}
+		else if (main == null) {
+			SQLConnectionPool primaryPool = getPool(config);
+			String uri = isPrimary(config, primaryPool) ? null : ReplicaRouter.select(config.getDBUri(), config.getDBReplicaUriList());
+			SQLConnectionPool replicaPool = uri == null ? null : getPool(config, uri);
+			if (replicaPool != null) {
+				try {
+					main = borrow(replicaPool, uri);
+				} catch (SQLException e) { //从库不可用时用主库
+					Log.e(TAG, "getConnection  borrow(replicaPool, uri) >> catch (SQLException e) >> uri = " + uri + "; " + e.getMessage());
+				}
+			}
+			if (main == null) {
+				main = borrow(primaryPool, null);
+			}
+			b = main;
+		}
+		else {
+			if (main.replicaUri != null && RequestMethod.isQueryMethod(config.getMethod()) == false) {
+				throw new UnsupportedOperationException("从库 " + main.replicaUri + " 的连接不能执行 " + config.getMethod() + " 写操作！");
+			}
+			b = main;
+		}
+
+		pool = b.pool;
+		connection = b.connection;
+		replicaUri = b.replicaUri;
+		return connection;
+	}
+
+	/**从连接池借出连接，已借出过则直接返回，在事务中则开启事务
+	 * @param pool
+	 * @param replicaUri
+	 * @return
+	 * @throws SQLException
+	 */
+	private Borrowed borrow(@NotNull SQLConnectionPool pool, String replicaUri) throws SQLException {
+		Borrowed b = borrowedMap.get(pool);
+		if (b == null) {
+			b = new Borrowed(pool, pool.borrow(), replicaUri);
+			borrowedMap.put(pool, b);
+			Log.d(TAG, "borrow  pool.borrow(); replicaUri = " + replicaUri + "; pool = " + pool);
+			if (transaction) {
+				begin(b);
+			}
+		}
+		return b;
+	}
+
+	/**是否要在主库执行，写操作、写事务、{@link #isPrimary()}，以及当前线程已借出主库连接（例如在写事务内嵌套的查询）时都在主库执行
+	 * @param config
+	 * @param primaryPool
+	 * @return
+	 */
+	protected boolean isPrimary(@NotNull SQLConfig config, @NotNull SQLConnectionPool primaryPool) {
+		List<String> replicaUriList = config.getDBReplicaUriList();
+		if (replicaUriList == null || replicaUriList.isEmpty()) {
+			return true;
+		}
+		return primary || (transaction && readOnly == false) || RequestMethod.isQueryMethod(config.getMethod()) == false
+				|| primaryPool.isBorrowed();
+	}
+
+
+	/**开启事务，还没借出连接时在第一次借出后开启
+	 * 同一线程内嵌套创建的 executor 复用同一个连接，所以也在这个事务内；
+	 * 分片时每个分片的连接各自开启事务，提交时依次提交，不保证跨分片的原子性
+	 * @param transactionIsolation
+	 * @param readOnly
+	 * @throws SQLException
+	 */
+	@Override
+	public void begin(int transactionIsolation, boolean readOnly) throws SQLException {
+		super.begin(transactionIsolation, readOnly);
+		for (Borrowed b : borrowedMap.values()) {
+			begin(b);
+		}
+	}
+	/**在连接上开启事务，连接已在事务中则加入
+	 * @param b
+	 * @throws SQLException
+	 */
+	protected void begin(@NotNull Borrowed b) throws SQLException {
+		Connection connection = b.connection;
+		b.lastIsolation = 0;
+		b.joined = connection.getAutoCommit() == false;
+		if (b.joined) {
+			Log.d(TAG, "begin  connection.getAutoCommit() == false >> joined = true;");
+			return;
+		}
+
+		if (transactionIsolation > 0 && connection.getTransactionIsolation() != transactionIsolation) {
+			b.lastIsolation = connection.getTransactionIsolation();
+			connection.setTransactionIsolation(transactionIsolation);
+		}
+		if (readOnly) { //必须在事务开始前设置
+			connection.setReadOnly(true);
+		}
+		connection.setAutoCommit(false);
+	}
+
+	/**依次提交每个连接上的事务，有一个失败则回滚还没提交的，都结束后再调用 super.commit()
+	 * @throws SQLException
+	 */
+	@Override
+	public void commit() throws SQLException {
+		if (transaction == false) {
+			super.commit();
+			return;
+		}
+
+		SQLException error = null;
+		for (Borrowed b : borrowedMap.values()) {
+			if (b.joined) {
+				b.joined = false;
+				continue;
+			}
+			try {
+				if (error == null) {
+					b.connection.commit();
+				} else {
+					b.connection.rollback();
+				}
+			} catch (SQLException e) {
+				Log.e(TAG, "commit  catch (SQLException e) >> " + e.getMessage());
+				if (error == null) {
+					error = e;
+				}
+			} finally {
+				end(b);
+			}
+		}
+		super.commit(); //连接提交后再清除缓存，出错时也可能已经提交了一部分
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		boolean transaction = this.transaction;
+		super.rollback();
+		if (transaction == false) {
+			return;
+		}
+
+		SQLException error = null;
+		for (Borrowed b : borrowedMap.values()) {
+			if (b.joined) {
+				b.joined = false;
+				continue;
+			}
+			try {
+				b.connection.rollback();
+			} catch (SQLException e) {
+				Log.e(TAG, "rollback  catch (SQLException e) >> " + e.getMessage());
+				if (error == null) {
+					error = e;
+				}
+			} finally {
+				end(b);
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**结束事务，还原连接的自动提交、只读和隔离级别
+	 * @param b
+	 * @throws SQLException
+	 */
+	protected void end(@NotNull Borrowed b) throws SQLException {
+		Connection connection = b.connection;
+		connection.setAutoCommit(true);
+		if (readOnly) {
+			connection.setReadOnly(false);
+		}
+		if (b.lastIsolation > 0) {
+			connection.setTransactionIsolation(b.lastIsolation);
+			b.lastIsolation = 0;
+		}
+	}
+
+
+	/**
+	 * @param config
+	 * @return
+	 * @throws Exception
+	 */
+	protected PreparedStatement getStatement(@NotNull SQLConfig config) throws Exception {
+		Connection connection = getConnection(config);
+		closeStatement();
+
+		//只缓存预编译的 SQL 模板，非预编译的 SQL 包含值，缓存只会不断淘汰
+		String sql = config.getSQL(config.isPrepared());
+		if (config.isPrepared()) {
+			statement = pool.prepareStatement(connection, sql);
+			statementCached = pool.isCached(connection, statement);
+		} else {
+			statement = connection.prepareStatement(sql); //创建Statement对象
+			statementCached = false;
+		}
+		statement.setFetchSize(fetchSize); //缓存的 statement 会保留上次的值，每次都要设置
+		if (config.isPrepared()) {
+			setValues(statement, config.getPreparedValueList());
+		}
+
+		return statement;
+	}
+
+	/**绑定预编译的值
+	 * @param statement
+	 * @param valueList
+	 * @throws SQLException
+	 */
+	protected void setValues(@NotNull PreparedStatement statement, List<Object> valueList) throws SQLException {
+		if (valueList != null && valueList.isEmpty() == false) {
+			for (int i = 0; i < valueList.size(); i++) {
+				statement.setString(i + 1, "" + valueList.get(i));
+			}
+		}
+	}
+
+	/**用 JDBC batch 批量执行，SQL 和分片都相同的连续几项共用一个 PreparedStatement，每 {@link #BATCH_SIZE} 项执行一次
+	 * 不在事务中时，所有项在同一个事务内执行，出错则全部回滚
+	 * @param configList
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	public int[] executeBatch(@NotNull List<SQLConfig> configList) throws Exception {
+		int[] counts = new int[configList.size()];
+		if (counts.length <= 0) {
+			return counts;
+		}
+
+		closeStatement();
+
+		boolean begin = transaction == false;
+		if (begin) {
+			begin(0);
+		}
+
+		String lastSQL = null;
+		int lastShard = -1;
+		int start = 0; //当前这批的第一项
+		try {
+			SQLConfig config;
+			String sql;
+			for (int i = 0; i < counts.length; i++) {
+				config = configList.get(i);
+				sql = config.getSQL(true);
+				boolean same = sql.equals(lastSQL) && config.getShard() == lastShard;
+
+				if (statement != null && (same == false || i - start >= BATCH_SIZE)) {
+					flushBatch(counts, start);
+					start = i;
+					if (same == false) {
+						closeStatement();
+					}
+				}
+				if (statement == null) {
+					Connection connection = getConnection(config);
+					statement = pool.prepareStatement(connection, sql);
+					statementCached = pool.isCached(connection, statement);
+					lastSQL = sql;
+					lastShard = config.getShard();
+					start = i;
+				}
+
+				setValues(statement, config.getPreparedValueList());
+				statement.addBatch();
+			}
+			flushBatch(counts, start);
+
+			if (begin) {
+				commit();
+			}
+		} catch (Exception e) {
+			Log.e(TAG, "executeBatch  catch (Exception e) >> " + e.getMessage());
+			if (statement != null) { //缓存的 statement 不能留着没执行的项
+				statement.clearBatch();
+			}
+			if (begin) {
+				rollback();
+			}
+			throw e;
+		} finally {
+			closeStatement();
+		}
+		return counts;
+	}
+
+	/**执行当前 statement 里积累的一批
+	 * @param counts
+	 * @param start 这一批第一项在 counts 中的位置
+	 * @throws SQLException
+	 */
+	private void flushBatch(int[] counts, int start) throws SQLException {
+		int[] cs = statement.executeBatch();
+		System.arraycopy(cs, 0, counts, start, Math.min(cs.length, counts.length - start));
+	}
+
+
+	/**不在事务中时，每个分片各借出一个连接并行查询，在事务中则依次用事务内的连接查询
+	 * @param config
+	 * @param shardList
+	 * @param template
+	 * @param join
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	protected List<ColumnarResult> executeShardQuery(@NotNull final SQLConfig config, @NotNull List<Integer> shardList
+			, final String template, final boolean join) throws Exception {
+		if (transaction || shardList.size() <= 1) {
+			return super.executeShardQuery(config, shardList, template, join);
+		}
+
+		final boolean prepared = config.isPrepared();
+		final String sql = config.getSQL(prepared);
+		final List<Object> valueList = prepared ? config.getPreparedValueList() : null;
+		final int capacity = config.getCount();
+		final List<String> uriList = config.getDBShardUriList();
+
+		//第一个分片在当前线程查询，其它的交给线程模型
+		List<CompletableFuture<ColumnarResult>> futureList = new ArrayList<CompletableFuture<ColumnarResult>>(shardList.size() - 1);
+		for (int i = 1; i < shardList.size(); i++) {
+			final String uri = uriList.get(shardList.get(i));
+			futureList.add(getThreadModel().submit(new Callable<ColumnarResult>() {
+				@Override
+				public ColumnarResult call() throws Exception {
+					return queryShard(config, uri, sql, valueList, template, join, capacity);
+				}
+			}));
+		}
+
+		List<ColumnarResult> list = new ArrayList<ColumnarResult>(shardList.size());
+		list.add(queryShard(config, uriList.get(shardList.get(0)), sql, valueList, template, join, capacity));
+		try {
+			for (CompletableFuture<ColumnarResult> future : futureList) {
+				list.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+		return list;
+	}
+
+	/**在一个分片上查询，独立借出和归还连接，不影响这个 executor 的状态
+	 * 可能在别的线程并行执行，所以连接不和线程内的其它借用共享，也不用连接上缓存的 PreparedStatement
+	 * @param config
+	 * @param uri
+	 * @param sql
+	 * @param valueList
+	 * @param template
+	 * @param join
+	 * @param capacity
+	 * @return
+	 * @throws Exception
+	 */
+	protected ColumnarResult queryShard(@NotNull SQLConfig config, @NotNull String uri, @NotNull String sql, List<Object> valueList
+			, String template, boolean join, int capacity) throws Exception {
+		SQLConnectionPool pool = getPool(config, uri);
+		if (pool == null) {
+			throw new UnsupportedOperationException(TAG + " 不支持分片！请重写 getPool(SQLConfig, String) ！");
+		}
+
+		Connection connection = pool.borrow(false);
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		try {
+			statement = connection.prepareStatement(sql);
+			statement.setFetchSize(fetchSize);
+			setValues(statement, valueList);
+			rs = statement.executeQuery();
+			return read(rs, template, join, capacity);
+		} finally {
+			if (rs != null) {
+				rs.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+			pool.release(connection);
+		}
+	}
+
+
+	/**关闭上一个ResultSet和没有缓存的Statement
+	 */
+	protected void closeStatement() {
+		try {
+			if (resultSet != null && resultSet.isClosed() == false) {
+				resultSet.close();
+			}
+			if (statement != null && statementCached == false && statement.isClosed() == false) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "closeStatement  catch (SQLException e) >> " + e.getMessage());
+		}
+		resultSet = null;
+		statement = null;
+		statementCached = false;
+	}
+
+	/**归还所有连接，释放资源，没有提交的事务由连接池回滚
+	 */
+	@Override
+	public void close() {
+		if (transaction) {
+			try {
+				rollback();
+			} catch (SQLException e) {
+				Log.e(TAG, "close  rollback(); >> catch (SQLException e) >> " + e.getMessage());
+			}
+		}
+		super.close();
+		closeStatement();
+		for (Borrowed b : borrowedMap.values()) {
+			b.pool.release(b.connection);
+		}
+		borrowedMap.clear();
+		main = null;
+		connection = null;
+		pool = null;
+		replicaUri = null;
+	}
+
+}
@@ -16,6 +16,7 @@ package zuo.biao.apijson.server;
 
 import static zuo.biao.apijson.JSONObject.KEY_COLUMN;
 import static zuo.biao.apijson.JSONObject.KEY_COMBINE;
+import static zuo.biao.apijson.JSONObject.KEY_CURSOR;
 import static zuo.biao.apijson.JSONObject.KEY_GROUP;
 import static zuo.biao.apijson.JSONObject.KEY_HAVING;
 import static zuo.biao.apijson.JSONObject.KEY_ID;
@@ -33,14 +34,20 @@ import static zuo.biao.apijson.SQL.AND;
 import static zuo.biao.apijson.SQL.NOT;
 import static zuo.biao.apijson.SQL.OR;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import com.alibaba.fastjson.JSON;
@@ -48,6 +55,7 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.annotation.JSONField;
 
+import zuo.biao.apijson.JSONRequest;
 import zuo.biao.apijson.Log;
 import zuo.biao.apijson.RequestMethod;
 import zuo.biao.apijson.RequestRole;
@@ -74,6 +82,86 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		TABLE_KEY_MAP.put(Column.class.getSimpleName(), Column.TAG);
 	}
 
+	/**
+	 * 水平分片，表名 - 分片字段，在 {@link #getDBShardUriList()} 不为空时生效，
+	 * 分片字段的值按 {@link #getShard(Object, int)} 决定记录在哪个分片
+	 */
+	public static final Map<String, String> SHARD_KEY_MAP;
+	static {
+		SHARD_KEY_MAP = new HashMap<String, String>();
+	}
+
+	/**
+	 * LEFT JOIN 查询中副表是否存在的标记字段前缀，_join1, _join2 ...
+	 */
+	public static final String KEY_JOIN = "_join";
+
+	/**
+	 * @total:"over" 时和每行一起查出的总数的字段名
+	 */
+	public static final String KEY_TOTAL = "_total";
+
+	/**
+	 * POST 的 id{}:[] 数量 >= 这个值时，每条记录单独一行，用 JDBC batch 执行，< 0 则不用 batch
+	 */
+	public static int BATCH_MIN_COUNT = 10;
+
+	/**
+	 * 数据库是否支持 JSON_TABLE（MySQL 8.0.14+），支持时 PUT key-:[] 也在一条 UPDATE 里完成，
+	 * 否则先查出来修改后整个替换；PUT key+:[] 只用 MySQL 5.7 就有的 JSON_ARRAY_APPEND, JSON_CONTAINS
+	 */
+	public static boolean JSON_TABLE_SUPPORTED = false;
+
+	/**
+	 * 延迟关联分页，表名 - 起始页码，page >= 起始页码时先用覆盖索引查出这一页的 id，再关联回原表取 @column，
+	 * 适合有大字段的表，避免 LIMIT offset, count 读取并丢弃 offset 条完整的行
+	 */
+	public static final Map<String, Integer> DEFERRED_JOIN_MAP;
+	static {
+		DEFERRED_JOIN_MAP = new HashMap<String, Integer>();
+	}
+	/**
+	 * 延迟关联分页里原表的别名
+	 */
+	public static final String DEFERRED_ALIAS = "d0";
+	/**
+	 * 延迟关联分页里 id 子查询的别名
+	 */
+	public static final String DEFERRED_ID_ALIAS = "d1";
+
+
+	/**
+	 * 预编译SQL模板缓存的最大数量，<= 0 则不缓存
+	 */
+	public static int TEMPLATE_CACHE_SIZE = 1000;
+	/**
+	 * 预编译SQL模板缓存，请求结构-SQL模板，结构相同的请求只是绑定的值不同，SQL 模板一样
+	 */
+	private static final Map<String, String> TEMPLATE_CACHE;
+	private static final AtomicLong TEMPLATE_HIT_COUNT = new AtomicLong();
+	private static final AtomicLong TEMPLATE_MISS_COUNT = new AtomicLong();
+	static {
+		TEMPLATE_CACHE = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, String> eldest) {
+				return size() > TEMPLATE_CACHE_SIZE;
+			}
+		};
+	}
+	public static long getTemplateHitCount() {
+		return TEMPLATE_HIT_COUNT.get();
+	}
+	public static long getTemplateMissCount() {
+		return TEMPLATE_MISS_COUNT.get();
+	}
+	public static void clearTemplateCache() {
+		synchronized (TEMPLATE_CACHE) {
+			TEMPLATE_CACHE.clear();
+		}
+	}
+
 
 
 	private long id; //Table的id
@@ -88,11 +176,16 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	private String group; //分组方式的字符串数组，','分隔
 	private String having; //聚合函数的字符串数组，','分隔
 	private String order; //排序方式的字符串数组，','分隔
+	private List<Object> cursor; //游标分页，上一页最后一条的排序字段值
 	private String column; //Table内字段名(或函数名，仅查询操作可用)的字符串数组，','分隔
 	private String values; //对应Table内字段的值的字符串数组，','分隔
 	private Map<String, Object> content; //Request内容，key:value形式，column = content.keySet()，values = content.values()
 	private Map<String, Object> where; //筛选条件，key:value形式
 	private Map<String, List<String>> combine; //条件组合，{ "&":[key], "|":[key], "!":[key] }
+	private String alias; //JOIN 查询里表的别名
+	private List<Join> joinList; //LEFT JOIN 的副表
+	private List<SQLConfig> batchList; //批量写的每一行
+	private int shard = -1; //在哪个分片执行，-1 为没有指定
 
 
 	//array item <<<<<<<<<<
@@ -100,6 +193,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	private int page; //Table所在页码
 	private int position; //Table在[]中的位置
 	private int query; //JSONRequest.query
+	private String total; //JSONRequest.total
 	private int type; //ObjectParser.type
 	//array item >>>>>>>>>>
 	private boolean test; //测试
@@ -166,6 +260,99 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return this;
 	}
 
+	/**默认没有从库，所有 SQL 都在 {@link #getDBUri()} 执行
+	 * @return
+	 */
+	@JSONField(serialize = false)
+	@Override
+	public List<String> getDBReplicaUriList() {
+		return null;
+	}
+
+	/**默认不分片
+	 * @return
+	 */
+	@JSONField(serialize = false)
+	@Override
+	public List<String> getDBShardUriList() {
+		return null;
+	}
+
+	@Override
+	public int getShard() {
+		return shard;
+	}
+	@Override
+	public AbstractSQLConfig setShard(int shard) {
+		this.shard = shard;
+		return this;
+	}
+
+	/**获取要执行的分片，条件里 AND 连接的 shardKey:value 或 shardKey{}:[] 只在对应的分片执行，没有则在所有分片执行
+	 * @return 不分片则返回 null
+	 */
+	@JSONField(serialize = false)
+	@Override
+	public List<Integer> getShardList() {
+		List<String> uriList = getDBShardUriList();
+		int size = uriList == null ? 0 : uriList.size();
+		String key = size <= 0 ? null : SHARD_KEY_MAP.get(getTable());
+		if (key == null) {
+			return null;
+		}
+		List<Integer> list = new ArrayList<Integer>();
+		if (shard >= 0) {
+			list.add(shard);
+			return list;
+		}
+
+		Collection<?> values = null;
+		if (where != null && getMethod() != POST) {
+			List<String> andList = combine == null ? null : combine.get("&");
+			Object value;
+			if (where.containsKey(key) && (andList == null || andList.contains(key))) {
+				value = where.get(key);
+				values = value == null ? null : Collections.singletonList(value);
+			}
+			else if (where.get(key + "{}") instanceof Collection && (andList == null || andList.contains(key + "{}"))) {
+				values = (Collection<?>) where.get(key + "{}");
+			}
+		}
+
+		if (values == null || values.isEmpty()) {
+			for (int i = 0; i < size; i++) {
+				list.add(i);
+			}
+			return list;
+		}
+
+		Set<Integer> set = new TreeSet<Integer>();
+		for (Object v : values) {
+			set.add(getShard(v, size));
+		}
+		list.addAll(set);
+		return list;
+	}
+
+	/**获取分片字段的值所在的分片，整数按值取模，其它按 String.hashCode 取模
+	 * @param value
+	 * @param count 分片数量
+	 * @return
+	 */
+	public static int getShard(Object value, int count) {
+		if (value == null) {
+			throw new IllegalArgumentException("分片字段的值不能为 null！");
+		}
+		if (value instanceof Number) {
+			return (int) Math.floorMod(((Number) value).longValue(), (long) count);
+		}
+		String s = String.valueOf(value);
+		if (s.length() <= 18 && StringUtil.isNumer(s)) { //"82001" 和 82001 在同一个分片
+			return (int) Math.floorMod(Long.parseLong(s), (long) count);
+		}
+		return Math.floorMod(s.hashCode(), count);
+	}
+
 	@Override
 	public String getSchema() {
 		String sqlTable = getSQLTable();
@@ -213,6 +400,33 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return this;
 	}
 
+	@Override
+	public String getAlias() {
+		return alias;
+	}
+	@Override
+	public AbstractSQLConfig setAlias(String alias) {
+		this.alias = alias;
+		return this;
+	}
+	/**JOIN 查询时给字段加上表的别名，`t0`.key
+	 * @param key
+	 * @return
+	 */
+	public String getAliasKey(String key) {
+		return alias == null ? key : "`" + alias + "`." + key;
+	}
+
+	@Override
+	public List<Join> getJoinList() {
+		return joinList;
+	}
+	@Override
+	public AbstractSQLConfig setJoinList(List<Join> joinList) {
+		this.joinList = joinList;
+		return this;
+	}
+
 	@Override
 	public String getGroup() {
 		return group;
@@ -284,7 +498,19 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	}
 	@JSONField(serialize = false)
 	public String getOrderString() {
-		order = StringUtil.getTrimedString(order);
+		//不修改 this.order，同一个 config 多次 getSQL 的结果要完全一样，才能按 SQL 命中 SQLExecutor 的缓存
+		String order = StringUtil.getTrimedString(this.order);
+		if (isCursorQuery()) { //游标分页必须按确定的顺序，最后加上 id 保证唯一
+			Map<String, Boolean> keyMap = getCursorKeyMap();
+			SQLBuilder b = SQLBuilder.obtain().append(" ORDER BY ");
+			boolean first = true;
+			for (Entry<String, Boolean> e : keyMap.entrySet()) {
+				b.comma(first).append(getAliasKey(e.getKey())).append(e.getValue() ? " DESC" : " ASC");
+				first = false;
+			}
+			return b.release();
+		}
+
 		if (order.isEmpty()) {
 			return "";
 		}
@@ -316,10 +542,199 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			}
 		}
 
+		if (alias != null) { //JOIN 查询时排序字段加上主表的别名，planner已保证每一项都是 column ASC/DESC
+			String[] keys = StringUtil.split(order);
+			if (keys != null && keys.length > 0) {
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = getAliasKey(keys[i].trim());
+				}
+				return " ORDER BY " + StringUtil.getString(keys);
+			}
+		}
+
 		return " ORDER BY " + order;
 	}
 
 
+	@Override
+	public List<Object> getCursor() {
+		return cursor;
+	}
+	@Override
+	public AbstractSQLConfig setCursor(List<Object> cursor) {
+		this.cursor = cursor;
+		return this;
+	}
+	/**是否为游标分页的查询，HEAD 查总数时不加游标条件
+	 * @return
+	 */
+	public boolean isCursorQuery() {
+		return cursor != null && RequestMethod.isGetMethod(getMethod(), true);
+	}
+
+	/**获取游标分页的排序字段，没有 id 则在最后加上 id，方向和前一个字段一致
+	 * @return key - 是否为 DESC
+	 */
+	@JSONField(serialize = false)
+	public Map<String, Boolean> getCursorKeyMap() {
+		Map<String, Boolean> keyMap = new LinkedHashMap<String, Boolean>();
+		String[] keys = StringUtil.split(StringUtil.getTrimedString(order));
+
+		boolean desc = false;
+		String key;
+		if (keys != null) {
+			for (int i = 0; i < keys.length; i++) {
+				key = keys[i].trim(); //可能已被 getOrderString 替换成 key ASC / key DESC
+				if (key.endsWith("+") || key.endsWith(" ASC")) {
+					desc = false;
+					key = key.substring(0, key.length() - (key.endsWith("+") ? 1 : 4)).trim();
+				}
+				else if (key.endsWith("-") || key.endsWith(" DESC")) {
+					desc = true;
+					key = key.substring(0, key.length() - (key.endsWith("-") ? 1 : 5)).trim();
+				}
+				else {
+					desc = false;
+				}
+
+				if (StringUtil.isName(key) == false) {
+					throw new IllegalArgumentException("@cursor 游标分页时 @order:value 中 value里面用 , 分割的每一项"
+							+ " column+ / column- 中 column必须是1个单词！");
+				}
+				keyMap.put(key, desc);
+			}
+		}
+
+		if (keyMap.containsKey(KEY_ID) == false) {
+			keyMap.put(KEY_ID, desc);
+		}
+		return keyMap;
+	}
+
+	/**获取游标分页的条件，(date, id) < (?, ?)，排序方向不一致时展开为
+	 * (date < ?) OR (date = ? AND id > ?)
+	 * @return 第一页返回 ""
+	 */
+	@JSONField(serialize = false)
+	public String getCursorString() {
+		if (cursor == null || cursor.isEmpty()) {
+			return "";
+		}
+
+		Map<String, Boolean> keyMap = getCursorKeyMap();
+		if (cursor.size() != keyMap.size()) {
+			throw new IllegalArgumentException("@cursor 不合法！必须是 " + keyMap.keySet() + " 的值，且顺序一致！");
+		}
+		for (Object v : cursor) {
+			if (v == null || v instanceof JSON) {
+				throw new IllegalArgumentException("@cursor 不合法！值不能为 null, {} 或 [] ！");
+			}
+		}
+
+		String[] keys = keyMap.keySet().toArray(new String[]{});
+		Boolean[] descs = keyMap.values().toArray(new Boolean[]{});
+
+		SQLBuilder b = SQLBuilder.obtain();
+		if (isUniform(keyMap)) {
+			b.open();
+			for (int i = 0; i < keys.length; i++) {
+				b.comma(i <= 0).append(getAliasKey(keys[i]));
+			}
+			b.close().append(descs[0] ? " < " : " > ").open();
+			for (int i = 0; i < keys.length; i++) {
+				b.comma(i <= 0).append(getValue(cursor.get(i)));
+			}
+			return b.close().release();
+		}
+
+		for (int i = 0; i < keys.length; i++) {
+			b.logic(i <= 0, false).open();
+			for (int j = 0; j < i; j++) {
+				b.append(getAliasKey(keys[j])).append(" = ").append(getValue(cursor.get(j))).and();
+			}
+			b.append(getAliasKey(keys[i])).append(descs[i] ? " < " : " > ").append(getValue(cursor.get(i))).close();
+		}
+		return b.release();
+	}
+
+	/**排序方向是否全部一致，一致则可以用 (date, id) < (?, ?)
+	 * @param keyMap
+	 * @return
+	 */
+	private static boolean isUniform(Map<String, Boolean> keyMap) {
+		return new HashSet<Boolean>(keyMap.values()).size() <= 1;
+	}
+
+	/**获取游标分页要绑定的值，和 {@link #getCursorString()} 顺序一致
+	 * @return
+	 */
+	protected List<Object> getCursorValueList() {
+		List<Object> list = new ArrayList<Object>();
+		if (cursor == null || cursor.isEmpty()) {
+			return list;
+		}
+
+		if (isUniform(getCursorKeyMap())) {
+			list.addAll(cursor);
+			return list;
+		}
+		for (int i = 0; i < cursor.size(); i++) {
+			list.addAll(cursor.subList(0, i + 1));
+		}
+		return list;
+	}
+
+	/**生成下一页的游标，是 @order 字段值的 JSONArray 经过 Base64 URL 编码的字符串
+	 * @param row
+	 * @return row 里没有某个排序字段时返回 null
+	 */
+	@Override
+	public String newCursor(JSONObject row) {
+		if (row == null) {
+			return null;
+		}
+
+		JSONArray arr = new JSONArray();
+		Object value;
+		for (String key : getCursorKeyMap().keySet()) {
+			value = row.get(key);
+			if (value == null) {
+				Log.w(TAG, "newCursor  value == null >> @column 里没有 " + key + " 或值为 null，无法生成游标 return null;");
+				return null;
+			}
+			arr.add(value);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(arr.toJSONString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**解析请求里的 @cursor
+	 * @param cursor "" - 第一页；[...] 或 Base64 URL 编码的 [...] - 上一页最后一条的 @order 字段值
+	 * @return
+	 */
+	public static List<Object> parseCursor(Object cursor) {
+		if (cursor == null) {
+			return null;
+		}
+		if (cursor instanceof List) {
+			return new ArrayList<Object>((List<?>) cursor);
+		}
+
+		String s = StringUtil.getTrimedString(cursor.toString());
+		if (s.isEmpty()) {
+			return new ArrayList<Object>();
+		}
+		try {
+			if (s.startsWith("[") == false) {
+				s = new String(Base64.getUrlDecoder().decode(s), StandardCharsets.UTF_8);
+			}
+			JSONArray arr = JSON.parseArray(s);
+			return arr == null ? new ArrayList<Object>() : new ArrayList<Object>(arr);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("@cursor:value 中 value 不合法！必须是上一页返回的 cursor ！" + e.getMessage());
+		}
+	}
+
+
 
 	@Override
 	public String getColumn() {
@@ -364,7 +779,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		default:
 			column = StringUtil.getString(column);
 			if (column.isEmpty()) {
-				return "*";
+				return getAliasKey("*");
 			}
 
 			if (isPrepared()) { //不能通过 ? 来代替，SELECT 'id','name' 返回的就是 id:"id", name:"name"，而不是数据库里的值！
@@ -386,7 +801,18 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 				}
 			}
 
-			return column.contains(":") == false ? column : column.replaceAll(":", " AS ");//不能在这里改，后续还要用到:
+			String c = column;
+			if (alias != null) { //JOIN 查询时字段加上表的别名，planner已保证每一项都是 column 或 column:alias
+				String[] keys = StringUtil.split(c);
+				if (keys != null && keys.length > 0) {
+					for (int i = 0; i < keys.length; i++) {
+						keys[i] = getAliasKey(keys[i]);
+					}
+					c = StringUtil.getString(keys); //不能改 column，getSQL 会调用多次
+				}
+			}
+
+			return c.contains(":") == false ? c : c.replaceAll(":", " AS ");//不能在这里改，后续还要用到:
 		}
 	}
 
@@ -400,25 +826,25 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return values;
 	}
 	public AbstractSQLConfig setValues(Object[][] valuess) {
-		String s = "";
+		SQLBuilder s = SQLBuilder.obtain();
 		if (valuess != null && valuess.length > 0) {
-			Object[] items = new Object[valuess.length];
 			Object[] vs;
+			boolean first = true;
 			for (int i = 0; i < valuess.length; i++) {
 				vs = valuess[i];
 				if (vs == null) {
 					continue;
 				}
 
-				items[i] = "(";
+				s.comma(first).open();
 				for (int j = 0; j < vs.length; j++) {
-					items[i] += ((j <= 0 ? "" : ",") + getValue(vs[j]));
+					s.comma(j <= 0).append(getValue(vs[j]));
 				}
-				items[i] += ")";
+				s.close();
+				first = false;
 			}
-			s = StringUtil.getString(items);
 		}
-		return setValues(s);
+		return setValues(s.release());
 	}
 	@Override
 	public AbstractSQLConfig setValues(String values) {
@@ -426,6 +852,16 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return this;
 	}
 
+	@Override
+	public List<SQLConfig> getBatchList() {
+		return batchList;
+	}
+	@Override
+	public AbstractSQLConfig setBatchList(List<SQLConfig> batchList) {
+		this.batchList = batchList;
+		return this;
+	}
+
 	@Override
 	public Map<String, Object> getContent() {
 		return content;
@@ -474,6 +910,42 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return this;
 	}
 	@Override
+	public String getTotal() {
+		return total;
+	}
+	@Override
+	public AbstractSQLConfig setTotal(String total) {
+		this.total = total;
+		return this;
+	}
+	/**是否在查询这一页时用 COUNT(*) OVER() 同时查出总数
+	 * @return
+	 */
+	public boolean isTotalOver() {
+		return JSONRequest.TOTAL_OVER.equals(total) && getCount() > 0 && RequestMethod.isGetMethod(getMethod(), true);
+	}
+	/**
+	 * @return , COUNT(*) OVER() AS _total
+	 */
+	@JSONField(serialize = false)
+	public String getTotalColumnString() {
+		return isTotalOver() ? ", COUNT(*) OVER() AS " + KEY_TOTAL : "";
+	}
+	/**获取表的统计行数的SQL，InnoDB 的是估算值
+	 * @return
+	 */
+	@JSONField(serialize = false)
+	public String getApproxCountSQL() {
+		String schema = StringUtil.getString(getSchema());
+		if (schema.startsWith("`") && schema.endsWith("`")) {
+			schema = schema.substring(1, schema.length() - 1);
+		}
+		//schema 已在 setSchema 校验，table 已在 Parser 中校验
+		return "SELECT table_rows AS count FROM " + SCHEMA_INFORMATION + "." + Table.TAG
+				+ " WHERE " + TABLE_SCHEMA + " = " + (schema.isEmpty() ? "DATABASE()" : "'" + schema + "'")
+				+ AND + TABLE_NAME + " = '" + getSQLTable() + "'";
+	}
+	@Override
 	public int getType() {
 		return type;
 	}
@@ -523,7 +995,8 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 */
 	@JSONField(serialize = false)
 	public String getLimitString() {
-		return getLimitString(getPage(), getCount());// + 1);
+		//游标分页由条件定位到上一页的最后一条，不需要跳过
+		return getLimitString(isCursorQuery() ? 0 : getPage(), getCount());// + 1);
 	}
 	/**获取限制数量
 	 * @param limit
@@ -661,14 +1134,14 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 
 		List<String> keyList;
 
-		String whereString = "";
+		SQLBuilder whereString = SQLBuilder.obtain();
 
 		boolean isCombineFirst = true;
 		int logic;
 
 		boolean isItemFirst;
 		String c;
-		String cs;
+		SQLBuilder cs;
 
 		for (Entry<String, List<String>> ce : combineSet) {
 			keyList = ce == null ? null : ce.getValue();
@@ -688,7 +1161,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 
 
 			isItemFirst = true;
-			cs = "";
+			cs = SQLBuilder.obtain();
 			for (String key : keyList) {
 				c = getWhereItem(key, where.get(key), method, verifyName);
 
@@ -696,18 +1169,18 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 					continue;
 				}
 
-				cs += (isItemFirst ? "" : (Logic.isAnd(logic) ? AND : OR)) + "(" + c + ")";
+				cs.logic(isItemFirst, Logic.isAnd(logic)).open().append(c).close();
 
 				isItemFirst = false;
 			}
 
 
-			whereString += (isCombineFirst ? "" : AND) + (Logic.isNot(logic) ? NOT : "") + " (  " + cs + "  ) ";
+			whereString.logic(isCombineFirst, true).not(Logic.isNot(logic)).append(" (  ").append(cs.release()).append("  ) ");
 			isCombineFirst = false;
 		}
 
 
-		String s = whereString.isEmpty() ? "" : " WHERE " + whereString;
+		String s = whereString.isEmpty() ? whereString.release() : " WHERE " + whereString.release();
 
 		if (s.isEmpty() && RequestMethod.isQueryMethod(method) == false) {
 			throw new UnsupportedOperationException("写操作请求必须带条件！！！");
@@ -754,7 +1227,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		else { //else绝对不能省，避免再次踩坑！ keyType = 0; 写在for循环外面都没注意！
 			keyType = 0;
 		}
-		key = getRealKey(method, key, false, true, verifyName);
+		key = getAliasKey(getRealKey(method, key, false, true, verifyName));
 
 		switch (keyType) {
 		case 1:
@@ -823,15 +1296,15 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			return "";
 		}
 
-		String condition = "";
+		SQLBuilder condition = SQLBuilder.obtain();
 		for (int i = 0; i < values.length; i++) {
 			if (values[i] instanceof String == false) {
 				throw new IllegalArgumentException(key + "$\":value 中value的类型只能为String或String[]！");
 			}
-			condition += (i <= 0 ? "" : (Logic.isAnd(type) ? AND : OR)) + getLikeString(key, values[i]);
+			condition.logic(i <= 0, Logic.isAnd(type)).append(getLikeString(key, values[i]));
 		}
 
-		return getCondition(Logic.isNot(type), condition);
+		return getCondition(Logic.isNot(type), condition.release());
 	}
 
 	/**WHERE key LIKE 'value'
@@ -877,15 +1350,15 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			return "";
 		}
 
-		String condition = "";
+		SQLBuilder condition = SQLBuilder.obtain();
 		for (int i = 0; i < values.length; i++) {
 			if (values[i] instanceof String == false) {
 				throw new IllegalArgumentException(key + "$\":value 中value的类型只能为String或String[]！");
 			}
-			condition += (i <= 0 ? "" : (Logic.isAnd(type) ? AND : OR)) + getRegExpString(key, (String) values[i]);
+			condition.logic(i <= 0, Logic.isAnd(type)).append(getRegExpString(key, (String) values[i]));
 		}
 
-		return getCondition(Logic.isNot(type), condition);
+		return getCondition(Logic.isNot(type), condition.release());
 	}
 
 	/**WHERE key REGEXP 'value'
@@ -903,7 +1376,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	//{} range <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 
 	// * 和 / 不能同时出现，防止 /* */ 段注释！ # 和 -- 不能出现，防止行注释！ ; 不能出现，防止隔断SQL语句！空格不能出现，防止 CRUD,DROP,SHOW TABLES等语句！
-	private static final Pattern PATTERN_RANGE;
+	static final Pattern PATTERN_RANGE;
 	static {
 		PATTERN_RANGE = Pattern.compile("^[0-9%!=<>,]+$"); // ^[a-zA-Z0-9_*%!=<>(),"]+$ 导致 exists(select*from(Comment)) 通过！
 	}
@@ -938,21 +1411,23 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			}
 
 			String[] conditions = StringUtil.split((String) range);
-			String condition = "";
+			SQLBuilder condition = SQLBuilder.obtain();
 			if (conditions != null) {
 				int index;
 				for (int i = 0; i < conditions.length; i++) {//对函数条件length(key)<=5这种不再在开头加key
 					index = conditions[i] == null ? -1 : conditions[i].indexOf("(");
-					condition += ((i <= 0 ? "" : (logic.isAnd() ? AND : OR))//连接方式
-							+ (index >= 0 && index < conditions[i].indexOf(")") ? "" : key + " ")//函数和非函数条件
-							+ conditions[i]);//单个条件
+					condition.logic(i <= 0, logic.isAnd());//连接方式
+					if (index < 0 || index >= conditions[i].indexOf(")")) {//函数和非函数条件
+						condition.append(key).append(' ');
+					}
+					condition.append(conditions[i]);//单个条件
 				}
 			}
 			if (condition.isEmpty()) {
-				return "";
+				return condition.release();
 			}
 
-			return getCondition(logic.isNot(), condition);
+			return getCondition(logic.isNot(), condition.release());
 		}
 
 		throw new IllegalArgumentException(key + "{}:range 类型为" + range.getClass().getSimpleName()
@@ -964,17 +1439,17 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 * @throws NotExistException 
 	 */
 	public String getInString(String key, Object[] in, boolean not) throws NotExistException {
-		String condition = "";
-		if (in != null) {//返回 "" 会导致 id:[] 空值时效果和没有筛选id一样！
-			for (int i = 0; i < in.length; i++) {
-				condition += ((i > 0 ? "," : "") + getValue(in[i]));
-			}
-		}
-		if (condition.isEmpty()) {//条件如果存在必须执行，不能忽略。条件为空会导致出错，又很难保证条件不为空(@:条件)，所以还是这样好
+		if (in == null || in.length <= 0) {//返回 "" 会导致 id:[] 空值时效果和没有筛选id一样！
+			//条件如果存在必须执行，不能忽略。条件为空会导致出错，又很难保证条件不为空(@:条件)，所以还是这样好
 			throw new NotExistException(TAG + ".getInString(" + key + ", [], " + not
 					+ ") >> condition.isEmpty() >> IN()");
 		}
-		return (not ? NOT : "") + " IN (" + condition + ")";
+
+		SQLBuilder condition = SQLBuilder.obtain().not(not).append(" IN (");
+		for (int i = 0; i < in.length; i++) {
+			condition.comma(i <= 0).append(getValue(in[i]));
+		}
+		return condition.close().release();
 	}
 	//{} range >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
@@ -1007,30 +1482,32 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 */
 	public String getContainString(String key, Object[] childs, int type) throws IllegalArgumentException {
 		boolean not = Logic.isNot(type);
-		String condition = "";
-		if (childs != null) {
-			for (int i = 0; i < childs.length; i++) {
-				if (childs[i] != null) {
-					if (childs[i] instanceof JSON) {
-						throw new IllegalArgumentException(key + "<>\":value 中value类型不能为JSON！");
-					}
-					if (childs[i] instanceof String) {
-						childs[i] = "\"" + childs[i] + "\"";
-					}
-					condition += (i <= 0 ? "" : (Logic.isAnd(type) ? AND : OR))
-							+ "JSON_CONTAINS(" + key + ", " + getValue(childs[i]) + ")";
+		if (childs == null) {
+			return "";
+		}
+
+		SQLBuilder condition = SQLBuilder.obtain();
+		for (int i = 0; i < childs.length; i++) {
+			if (childs[i] != null) {
+				if (childs[i] instanceof JSON) {
+					throw new IllegalArgumentException(key + "<>\":value 中value类型不能为JSON！");
 				}
-			}
-			if (condition.isEmpty()) {
-				condition = (SQL.isNull(key, true) + OR + getLikeString(key, "[]")); // key = '[]' 无结果！
-			} else {
-				condition = (SQL.isNull(key, false) + AND + "(" + condition + ")");
+				if (childs[i] instanceof String) {
+					childs[i] = "\"" + childs[i] + "\"";
+				}
+				condition.logic(i <= 0, Logic.isAnd(type))
+				.append("JSON_CONTAINS(").append(key).append(", ").append(getValue(childs[i])).close();
 			}
 		}
+
+		String s;
 		if (condition.isEmpty()) {
-			return "";
+			condition.release();
+			s = SQL.isNull(key, true) + OR + getLikeString(key, "[]"); // key = '[]' 无结果！
+		} else {
+			s = SQL.isNull(key, false) + AND + "(" + condition.release() + ")";
 		}
-		return getCondition(not, condition);
+		return getCondition(not, s);
 	}
 	//<> contain >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
@@ -1082,9 +1559,9 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	public String getSetString(RequestMethod method, Map<String, Object> content, boolean verifyName) throws Exception {
 		Set<String> set = content == null ? null : content.keySet();
 		if (set != null && set.size() > 0) {
-			String setString = "";
+			SQLBuilder setString = SQLBuilder.obtain();
 			boolean isFirst = true;
-			int keyType = 0;// 0 - =; 1 - +, 2 - -
+			int keyType;// 0 - =; 1 - +, 2 - -
 			Object value;
 			for (String key : set) {
 				//避免筛选到全部	value = key == null ? null : content.get(key);
@@ -1096,19 +1573,24 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 					keyType = 1;
 				} else if (key.endsWith("-")) {
 					keyType = 2;
+				} else { //必须每次都重置，否则 key+ 后面的 key 也会变成 key+
+					keyType = 0;
 				}
 				value = content.get(key);
 				key = getRealKey(method, key, false, true, verifyName);
 
-				setString += (isFirst ? "" : ", ") + (key + "=" + (keyType == 1 ? getAddString(key, value) : (keyType == 2
-						? getRemoveString(key, value) : getValue(value)) ) );
+				if (isFirst == false) {
+					setString.append(", ");
+				}
+				setString.append(key).append('=').append(keyType == 1 ? getAddString(key, value) : (keyType == 2
+						? getRemoveString(key, value) : getValue(value)));
 
 				isFirst = false;
 			}
 			if (setString.isEmpty()) {
 				throw new NotExistException(TAG + "getSetString  >> setString.isEmpty()");
 			}
-			return " SET " + setString;
+			return " SET " + setString.release();
 		}
 		return "";
 	}
@@ -1120,6 +1602,13 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 * @throws IllegalArgumentException
 	 */
 	public String getAddString(String key, Object value) throws IllegalArgumentException {
+		if (value instanceof List) { //JSON_ARRAY_APPEND(IFNULL(key, JSON_ARRAY()), '$', CAST(? AS JSON), ...)
+			SQLBuilder s = SQLBuilder.obtain().append("JSON_ARRAY_APPEND(IFNULL(").append(key).append(", JSON_ARRAY())");
+			for (Object v : (List<?>) value) {
+				s.append(", '$', CAST(").append(getValue(JSON.toJSONString(v))).append(" AS JSON)");
+			}
+			return s.close().release();
+		}
 		if (value instanceof Number) {
 			return key + " + " + value;
 		}
@@ -1135,6 +1624,10 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 * @throws IllegalArgumentException
 	 */
 	public String getRemoveString(String key, Object value) throws IllegalArgumentException {
+		if (value instanceof List) { //需要 JSON_TABLE，去掉 ? 里包含的项后重新聚合
+			return "IFNULL((SELECT JSON_ARRAYAGG(`jt`.v) FROM JSON_TABLE(" + key + ", '$[*]' COLUMNS (v JSON PATH '$')) AS `jt`"
+					+ " WHERE JSON_CONTAINS(" + getValue(JSON.toJSONString(value)) + ", `jt`.v) = 0), JSON_ARRAY())";
+		}
 		if (value instanceof Number) {
 			return key + " - " + value;
 		}
@@ -1143,6 +1636,39 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		}
 		throw new IllegalArgumentException(key + "- 对应的值 " + value + " 不是Number,String,Array中的任何一种！");
 	}
+	/**PUT key+:[], key-:[] 的条件，要加的都不在原来的数组里，要删的都在原来的数组里
+	 * @return JSON_CONTAINS(IFNULL(key, JSON_ARRAY()), ?) = 0 AND JSON_CONTAINS(key, ?)，没有则返回 ""
+	 * @throws Exception 
+	 */
+	@JSONField(serialize = false)
+	public String getContainsString() throws Exception {
+		Map<String, Object> content = getContent();
+		if (content == null || content.isEmpty()) {
+			return "";
+		}
+
+		SQLBuilder s = SQLBuilder.obtain();
+		Object value;
+		String k;
+		for (String key : content.keySet()) {
+			value = content.get(key);
+			if (key == null || value instanceof List == false || (key.endsWith("+") == false && key.endsWith("-") == false)) {
+				continue;
+			}
+			k = getRealKey(getMethod(), key, false, true, ! isTest());
+
+			if (key.endsWith("+")) {
+				for (Object v : (List<?>) value) {
+					s.logic(s.isEmpty(), true).append("JSON_CONTAINS(IFNULL(").append(k).append(", JSON_ARRAY()), ")
+					.append(getValue(JSON.toJSONString(v))).append(") = 0");
+				}
+			} else {
+				s.logic(s.isEmpty(), true).append("JSON_CONTAINS(").append(k).append(", ")
+				.append(getValue(JSON.toJSONString(value))).append(")");
+			}
+		}
+		return s.isEmpty() ? s.release() : " ( " + s.release() + " ) ";
+	}
 	//SET >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
 
@@ -1153,7 +1679,153 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	@JSONField(serialize = false)
 	@Override
 	public String getSQL(boolean prepared) throws Exception {
-		return getSQL(this.setPrepared(prepared));
+		setPrepared(prepared);
+		if (prepared == false || getMethod() == POST) { //POST 的值在 setValues 时就已经加进 preparedValues
+			return getSQL(this);
+		}
+
+		preparedValues.clear(); //多次调用 getSQL(true) 时避免重复添加
+		List<Object> valueList = TEMPLATE_CACHE_SIZE <= 0 ? null : new ArrayList<Object>();
+		String key = valueList == null ? null : getTemplateKey(valueList);
+		if (key == null) {
+			return getSQL(this);
+		}
+
+		String sql;
+		synchronized (TEMPLATE_CACHE) {
+			sql = TEMPLATE_CACHE.get(key);
+		}
+		if (sql != null) {
+			TEMPLATE_HIT_COUNT.incrementAndGet();
+			preparedValues.addAll(valueList);
+			return sql;
+		}
+
+		TEMPLATE_MISS_COUNT.incrementAndGet();
+		sql = getSQL(this);
+		//绑定的值和生成 SQL 时的不一致，说明 getTemplateKey 没覆盖到这种结构，不能缓存
+		if (sql != null && valueList.equals(preparedValues)) {
+			synchronized (TEMPLATE_CACHE) {
+				TEMPLATE_CACHE.put(key, sql);
+			}
+		} else {
+			Log.w(TAG, "getSQL  valueList.equals(preparedValues) == false >> 不缓存SQL模板 " + sql);
+		}
+		return sql;
+	}
+
+	/**获取请求的结构，同时按生成 SQL 的顺序取出要绑定的值
+	 * 结构包括 Table, @column, @group, @having, @order, 分页, @combine, 每个条件的 key（包括 $, ?, {}, <> 等条件符）及值的形式，
+	 * 不包括值本身，结构相同则 SQL 模板相同
+	 * @param valueList 要绑定的值，和 {@link #getPreparedValueList()} 顺序一致
+	 * @return 不能缓存时返回 null，例如 POST, PUT, JOIN 和生成 SQL 时会抛异常的请求
+	 * @throws Exception
+	 */
+	protected String getTemplateKey(@NotNull List<Object> valueList) throws Exception {
+		RequestMethod method = getMethod();
+		if (method == POST || method == PUT || (joinList != null && joinList.isEmpty() == false)) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder(getClass().getName())
+				.append('|').append(method)
+				.append('|').append(getTablePath())
+				.append('|').append(alias)
+				.append('|').append(column)
+				.append('|').append(group)
+				.append('|').append(having)
+				.append('|').append(order)
+				.append('|').append(total)
+				.append('|').append(getCount()).append(',').append(getPage()).append(',').append(isDeferredJoin())
+				.append('|').append(isTest());
+
+		key.append('|').append(cursor == null ? -1 : cursor.size());
+
+		Map<String, Object> where = getWhere();
+		Set<Entry<String, List<String>>> combineSet = getCombine().entrySet();
+		if (where == null) {
+			if (combineSet.isEmpty() == false) {
+				return null;
+			}
+			if (isCursorQuery()) {
+				valueList.addAll(getCursorValueList());
+			}
+			return key.toString();
+		}
+
+		Object value;
+		JSONArray arr;
+		for (Entry<String, List<String>> ce : combineSet) {
+			List<String> keyList = ce.getValue();
+			if (keyList == null || keyList.isEmpty()) {
+				continue;
+			}
+			key.append('|').append(ce.getKey()).append(':');
+
+			for (String k : keyList) {
+				value = where.get(k);
+				if (k == null || value == null || k.startsWith("@") || k.endsWith("()")) {
+					key.append("-,");
+					continue;
+				}
+				if (k.endsWith("@")) {
+					return null;
+				}
+				key.append(k.length()).append('#').append(k); //避免 key 里包含分隔符导致不同结构相同
+
+				if (k.endsWith("$") || k.endsWith("?")) {
+					arr = newJSONArray(value);
+					for (Object v : arr) {
+						if (v instanceof String == false) {
+							return null;
+						}
+					}
+					valueList.addAll(arr);
+					key.append('S').append(arr.size());
+				}
+				else if (k.endsWith("{}")) {
+					if (value instanceof List) {
+						valueList.addAll((List<?>) value);
+						key.append('L').append(((List<?>) value).size());
+					}
+					else if (value instanceof String) { //范围条件直接拼在 SQL 里
+						key.append('R').append(((String) value).length()).append('#').append(value);
+					}
+					else {
+						return null;
+					}
+				}
+				else if (k.endsWith("<>")) {
+					arr = newJSONArray(value);
+					key.append('C');
+					boolean empty = true;
+					for (Object v : arr) {
+						if (v instanceof JSON) {
+							return null;
+						}
+						if (v == null) {
+							key.append('0');
+							continue;
+						}
+						key.append('1');
+						valueList.add(v instanceof String ? "\"" + v + "\"" : v);
+						empty = false;
+					}
+					if (empty) { //key IS NULL OR key LIKE '[]'
+						valueList.add("[]");
+					}
+				}
+				else {
+					valueList.add(value);
+				}
+				key.append(',');
+			}
+		}
+
+		if (isCursorQuery()) { //游标条件在 WHERE 最后
+			valueList.addAll(getCursorValueList());
+		}
+		return key.toString();
 	}
 	/**
 	 * @param config
@@ -1171,13 +1843,129 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		case POST:
 			return "INSERT INTO " + tablePath + config.getColumnString() + " VALUES" + config.getValuesString();
 		case PUT:
-			return "UPDATE " + tablePath + config.getSetString() + config.getWhereString();
+			String set = config.getSetString(); //预编译的值按 SET, WHERE, JSON_CONTAINS 的顺序
+			String where = config.getWhereString();
+			String contains = config.getContainsString();
+			return "UPDATE " + tablePath + set + (contains.isEmpty() ? where : where + AND + contains);
 		case DELETE:
 			return "DELETE FROM " + tablePath + config.getWhereString();
 		default:
+			//没有条件时才能用表的统计行数，有条件时由 SQLExecutor 缓存 COUNT(*) 的结果
+			if (RequestMethod.isHeadMethod(config.getMethod(), true) && JSONRequest.TOTAL_APPROX.equals(config.getTotal())
+					&& (config.getWhere() == null || config.getWhere().isEmpty())) {
+				return config.getApproxCountSQL();
+			}
+
+			List<Join> joinList = config.getJoinList();
+			if (joinList != null && joinList.isEmpty() == false && RequestMethod.isGetMethod(config.getMethod(), true)) {
+				return getJoinSQL(tablePath, config, joinList);
+			}
+
+			if (config.isDeferredJoin()) {
+				return getDeferredJoinSQL(tablePath, config);
+			}
+
 			String column = config.getColumnString();
-			return "SELECT " + column + " FROM " + getConditionString(column, tablePath, config);
+			return "SELECT " + column + config.getTotalColumnString() + " FROM " + getConditionString(column, tablePath, config);
+		}
+	}
+
+	/**是否用延迟关联分页，只对 {@link #DEFERRED_JOIN_MAP} 里的表，并且是没有函数、分组、LEFT JOIN 的普通分页查询
+	 * @return
+	 */
+	@JSONField(serialize = false)
+	public boolean isDeferredJoin() {
+		Integer minPage = DEFERRED_JOIN_MAP.get(getTable());
+		if (minPage == null || getPage() < minPage || getCount() <= 0 || isCursorQuery()
+				|| RequestMethod.isGetMethod(getMethod(), true) == false
+				|| alias != null || (joinList != null && joinList.isEmpty() == false)
+				|| StringUtil.isEmpty(group, true) == false || StringUtil.isEmpty(having, true) == false) {
+			return false;
+		}
+
+		String[] keys = StringUtil.split(StringUtil.getString(column));
+		if (keys != null) {
+			int index;
+			for (String k : keys) { //只能是 column 或 column:alias，函数等不能加上表的别名
+				index = k.indexOf(":");
+				if (StringUtil.isName(index < 0 ? k : k.substring(0, index)) == false
+						|| (index >= 0 && StringUtil.isName(k.substring(index + 1)) == false)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**获取延迟关联分页的SQL，子查询只查 id，可以走覆盖索引，然后只取这一页的完整行
+	 * SELECT `d0`.* FROM Moment AS `d0` INNER JOIN (SELECT id FROM Moment WHERE ... ORDER BY date DESC LIMIT 1000, 10) AS `d1`
+	 *  ON `d0`.id = `d1`.id ORDER BY `d0`.date DESC
+	 * @param tablePath
+	 * @param config
+	 * @return
+	 * @throws Exception
+	 */
+	private static String getDeferredJoinSQL(String tablePath, AbstractSQLConfig config) throws Exception {
+		String total = config.getTotalColumnString();
+		String ids = "SELECT " + KEY_ID + total + " FROM " + getConditionString(KEY_ID, tablePath, config);
+
+		config.setAlias(DEFERRED_ALIAS); //外层的字段和排序加上原表的别名
+		try {
+			String alias = "`" + DEFERRED_ALIAS + "`";
+			return "SELECT " + config.getColumnString() + (total.isEmpty() ? "" : ", `" + DEFERRED_ID_ALIAS + "`." + KEY_TOTAL)
+					+ " FROM " + tablePath + " AS " + alias
+					+ " INNER JOIN (" + ids + ") AS `" + DEFERRED_ID_ALIAS + "` ON " + alias + "." + KEY_ID
+					+ " = `" + DEFERRED_ID_ALIAS + "`." + KEY_ID + config.getOrderString();
+		} finally {
+			config.setAlias(null);
+		}
+	}
+
+	/**获取 LEFT JOIN 查询的SQL，每个副表前面有一个标记字段，表示是否关联到了副表
+	 * SELECT `t0`.*, (`t1`.id IS NOT NULL) AS _join1, `t1`.* FROM Moment AS `t0`
+	 *  LEFT JOIN User AS `t1` ON `t1`.id = `t0`.userId AND ( 副表条件 ) WHERE ( 主表条件 ) LIMIT ...
+	 * @param tablePath
+	 * @param config
+	 * @param joinList
+	 * @return
+	 * @throws Exception
+	 */
+	private static String getJoinSQL(String tablePath, AbstractSQLConfig config, List<Join> joinList) throws Exception {
+		String column = config.getColumnString();
+		String joinColumn = "";
+		String joinTable = "";
+
+		List<Object> valueList = config.getPreparedValueList();
+		AbstractSQLConfig jc;
+		List<Object> jvl;
+		String alias;
+		String on;
+		int start;
+		for (int i = 0; i < joinList.size(); i++) {
+			Join join = joinList.get(i);
+			jc = (AbstractSQLConfig) join.getJoinConfig();
+			jc.setPrepared(config.isPrepared());
+			alias = "`" + jc.getAlias() + "`";
+
+			joinColumn += ", (" + alias + "." + join.getKey() + " IS NOT NULL) AS " + KEY_JOIN + (i + 1)
+					+ ", " + jc.getColumnString();
+
+			//ON 在 WHERE 前面，副表条件的预编译值要先加进来
+			jvl = jc.getPreparedValueList();
+			start = jvl.size();
+			on = jc.getWhereString();
+			if (config.isPrepared()) {
+				valueList.addAll(jvl.subList(start, jvl.size()));
+			}
+			jvl.subList(start, jvl.size()).clear();
+
+			joinTable += " LEFT JOIN " + jc.getTablePath() + " AS " + alias
+					+ " ON " + alias + "." + join.getKey() + " = " + config.getAliasKey(join.getTargetKey())
+					+ (on.isEmpty() ? "" : AND + on.substring(" WHERE ".length()));
 		}
+
+		return "SELECT " + column + config.getTotalColumnString() + joinColumn + " FROM "
+		+ getConditionString(column, tablePath + " AS `" + config.getAlias() + "`" + joinTable, config);
 	}
 
 	/**获取条件SQL字符串
@@ -1190,6 +1978,12 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 */
 	private static String getConditionString(String column, String table, AbstractSQLConfig config) throws Exception {
 		String where = config.getWhereString();
+		if (config.isCursorQuery()) {
+			String c = config.getCursorString();
+			if (c.isEmpty() == false) {
+				where = (where.isEmpty() ? " WHERE " : where + AND) + " ( " + c + " ) ";
+			}
+		}
 
 		String condition = table + where + (
 				RequestMethod.isGetMethod(config.getMethod(), true) == false ?
@@ -1197,39 +1991,8 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 				)
 				; //+ config.getLimitString();
 
-		//no need to optimize
-		//		if (config.getPage() <= 0 || ID.equals(column.trim())) {
+		//深分页见 @cursor 游标分页 和 DEFERRED_JOIN_MAP 延迟关联分页
 		return condition + config.getLimitString();
-		//		}
-		//
-		//
-		//		//order: id+ -> id >= idOfStartIndex; id- -> id <= idOfStartIndex <<<<<<<<<<<<<<<<<<<
-		//		String order = StringUtil.getNoBlankString(config.getOrder());
-		//		List<String> orderList = order.isEmpty() ? null : Arrays.asList(StringUtil.split(order));
-		//
-		//		int type = 0;
-		//		if (BaseModel.isEmpty(orderList) || BaseModel.isContain(orderList, ID+"+")) {
-		//			type = 1;
-		//		}
-		//		else if (BaseModel.isContain(orderList, ID+"-")) {
-		//			type = 2;
-		//		}
-		//
-		//		if (type > 0) {
-		//			return condition.replace("WHERE",
-		//					"WHERE id " + (type == 1 ? ">=" : "<=") + " (SELECT id FROM " + table
-		//					+ where + " ORDER BY id " + (type == 1 ? "ASC" : "DESC") + " LIMIT " + config.getOffset() + ", 1) AND"
-		//					)
-		//					+ " LIMIT " + config.getCount(); //子查询起始id不一定准确，只能作为最小可能！ ;//
-		//		}
-		//		//order: id+ -> id >= idOfStartIndex; id- -> id <= idOfStartIndex >>>>>>>>>>>>>>>>>>
-		//
-		//
-		//		//结果错误！SELECT * FROM User AS t0 INNER JOIN
-		//      (SELECT id FROM User ORDER BY date ASC LIMIT 20, 10) AS t1 ON t0.id = t1.id
-		//		//common case, inner join
-		//		condition += config.getLimitString();
-		//		return table + " AS t0 INNER JOIN (SELECT id FROM " + condition + ") AS t1 ON t0.id = t1.id";
 	}
 
 	/**获取查询配置
@@ -1283,6 +2046,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		String group = request.getString(KEY_GROUP);
 		String having = request.getString(KEY_HAVING);
 		String order = request.getString(KEY_ORDER);
+		Object cursor = request.get(KEY_CURSOR);
 
 		//强制作为条件且放在最前面优化性能
 		request.remove(KEY_ID);
@@ -1295,6 +2059,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		request.remove(KEY_GROUP);
 		request.remove(KEY_HAVING);
 		request.remove(KEY_ORDER);
+		request.remove(KEY_CURSOR);
 
 
 		Map<String, Object> tableWhere = new LinkedHashMap<String, Object>();//保证顺序好优化 WHERE id > 1 AND name LIKE...
@@ -1328,6 +2093,30 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 				column = KEY_ID + "," + StringUtil.getString(columns); //set已经判断过不为空
 				final int size = columns.length + 1; //以key数量为准
 
+				//分片表每条记录写到分片字段的值对应的分片
+				String shardKey = SHARD_KEY_MAP.get(table);
+				List<String> shardUriList = shardKey == null ? null : config.getDBShardUriList();
+				int shardCount = shardUriList == null ? 0 : shardUriList.size();
+				int[] shards = new int[idList.size()];
+				boolean multiShard = false;
+				for (int i = 0; i < shards.length; i++) {
+					if (shardCount <= 0) {
+						shards[i] = -1;
+						continue;
+					}
+					Object sv = KEY_ID.equals(shardKey) ? idList.get(i) : request.get(shardKey);
+					if (sv == null) {
+						throw new IllegalArgumentException("POST请求中分片表 " + table + " 必须传分片字段 " + shardKey + " ！");
+					}
+					shards[i] = getShard(sv, shardCount);
+					multiShard = multiShard || shards[i] != shards[0];
+				}
+				config.setShard(multiShard ? -1 : shards[0]);
+
+				//数量多时每条记录单独一行用 JDBC batch，避免拼接和解析很长的 VALUES (...),(...)；跨分片时也要每条记录单独执行
+				boolean batch = multiShard || (BATCH_MIN_COUNT >= 0 && idList.size() >= BATCH_MIN_COUNT);
+				List<SQLConfig> batchList = batch ? new ArrayList<SQLConfig>(idList.size()) : null;
+
 				Object[][] valuess = new Object[idList.size()][]; // [idList.size()][]
 				Object[] items; //(item0, item1, ...)
 				for (int i = 0; i < idList.size(); i++) {
@@ -1337,8 +2126,24 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 						items[j] = values[j-1]; //从第1个开始，允许"null"
 					}
 					valuess[i] = items;
+
+					if (batch) {
+						AbstractSQLConfig bc = callback.getSQLConfig(method, table);
+						bc.setSchema(schema);
+						bc.setColumn(column);
+						bc.setValues(new Object[][]{items});
+						bc.setShard(shards[i]);
+						if (items[0] instanceof Number) {
+							bc.setId(((Number) items[0]).longValue());
+						}
+						batchList.add(bc);
+					}
+				}
+				if (batch) {
+					config.setBatchList(batchList);
+				} else {
+					config.setValues(valuess);
 				}
-				config.setValues(valuess);
 			}
 		} 
 		else { //非POST操作
@@ -1451,6 +2256,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		config.setGroup(group);
 		config.setHaving(having);
 		config.setOrder(order);
+		config.setCursor(parseCursor(cursor));
 
 		//后面还可能用到，要还原
 		//id或id{}条件
@@ -1464,6 +2270,9 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		request.put(KEY_GROUP, group);
 		request.put(KEY_HAVING, having);
 		request.put(KEY_ORDER, order);
+		if (cursor != null) {
+			request.put(KEY_CURSOR, cursor);
+		}
 
 
 		return config;
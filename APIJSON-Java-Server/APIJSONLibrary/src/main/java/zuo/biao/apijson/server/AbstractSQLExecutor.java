@@ -17,23 +17,131 @@ package zuo.biao.apijson.server;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
+import zuo.biao.apijson.JSONRequest;
 import zuo.biao.apijson.JSONResponse;
 import zuo.biao.apijson.Log;
+import zuo.biao.apijson.RequestMethod;
 import zuo.biao.apijson.StringUtil;
 
 /**executor for query(read) or update(write) MySQL database
  * @author Lemon
  */
-public abstract class AbstractSQLExecutor implements SQLExecutor {
+public abstract class AbstractSQLExecutor implements AsyncSQLExecutor {
 	private static final String TAG = "SQLExecutor";
 
+	/**
+	 * @total:"cache" 时 COUNT(*) 结果的缓存时间，单位为毫秒，<= 0 则不缓存
+	 */
+	public static long TOTAL_CACHE_TIME = 60*1000;
+	/**
+	 * COUNT(*) 结果缓存的最大数量
+	 */
+	public static int TOTAL_CACHE_SIZE = 1000;
+
+	/**
+	 * {@link #executeBatch(List)} 每批最多执行的数量，超过则分成多批
+	 */
+	public static int BATCH_SIZE = 1000;
+	/**
+	 * COUNT(*) 结果缓存，SQL - { count, 过期时间 }，SQL 里包含了条件的值
+	 */
+	private static final Map<String, long[]> TOTAL_CACHE;
+	static {
+		TOTAL_CACHE = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+				return size() > TOTAL_CACHE_SIZE;
+			}
+		};
+	}
+
+	/**获取缓存的 COUNT(*) 结果
+	 * @param sql
+	 * @return 没有或已过期则返回 null
+	 */
+	public static Long getTotalCache(String sql) {
+		long[] value;
+		synchronized (TOTAL_CACHE) {
+			value = TOTAL_CACHE.get(sql);
+			if (value != null && value[1] < System.currentTimeMillis()) {
+				TOTAL_CACHE.remove(sql);
+				value = null;
+			}
+		}
+		return value == null ? null : value[0];
+	}
+	/**缓存 COUNT(*) 结果
+	 * @param sql
+	 * @param count
+	 */
+	public static void putTotalCache(String sql, long count) {
+		if (TOTAL_CACHE_TIME <= 0) {
+			return;
+		}
+		synchronized (TOTAL_CACHE) {
+			TOTAL_CACHE.put(sql, new long[]{count, System.currentTimeMillis() + TOTAL_CACHE_TIME});
+		}
+	}
+	/**清空 COUNT(*) 结果缓存，增删改后需要准确的 total 时调用
+	 */
+	public static void clearTotalCache() {
+		synchronized (TOTAL_CACHE) {
+			TOTAL_CACHE.clear();
+		}
+	}
+
+
+	/**
+	 * 清除当前节点的 ResultCache, COUNT(*) 结果缓存，刷新 StructureIndex
+	 */
+	private static final CacheInvalidationBus.Callback LOCAL_CACHE_CALLBACK = new CacheInvalidationBus.Callback() {
+		@Override
+		public void onInvalidate(String table, List<Object> idList) {
+			ResultCache.invalidate(table);
+			clearTotalCache();
+			StructureIndex.onInvalidate(table);
+		}
+	};
+
+	private static CacheInvalidationBus invalidationBus;
+	/**获取缓存失效的消息总线，没有设置过则用 {@link LocalInvalidationBus}
+	 * @return
+	 */
+	public static synchronized CacheInvalidationBus getInvalidationBus() {
+		if (invalidationBus == null) {
+			setInvalidationBus(new LocalInvalidationBus());
+		}
+		return invalidationBus;
+	}
+	/**设置缓存失效的消息总线，并订阅来清除当前节点的缓存，原来的不会被关闭，其它订阅者也不会转移过来，需要在启动时设置
+	 * @param bus
+	 */
+	public static synchronized void setInvalidationBus(@NotNull CacheInvalidationBus bus) {
+		bus.subscribe(LOCAL_CACHE_CALLBACK);
+		invalidationBus = bus;
+	}
+
 
 	//访问一次后丢失，可能因为static导致内存共享，别的地方改变了内部对象的值
 	//	private static final Map<String, Map<Integer, JSONObject>> staticCacheMap;
@@ -94,10 +202,80 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 		if (map == null) {
 			return null;
 		} 
-		JSONObject result = map.get(position);
+		JSONObject result = map instanceof ColumnarResult ? ((ColumnarResult) map).getRow(position) : map.get(position);
 		return result != null ? result : new JSONObject();
 	}
 
+	protected boolean primary;
+	@Override
+	public boolean isPrimary() {
+		return primary;
+	}
+	@Override
+	public AbstractSQLExecutor setPrimary(boolean primary) {
+		this.primary = primary;
+		return this;
+	}
+
+	protected boolean transaction;
+	protected int transactionIsolation;
+	protected boolean readOnly;
+	private Map<String, List<Object>> writeTableMap; //事务中增删改过的表 - id，提交后再发布，避免提交前被其它请求缓存了旧数据
+	/**是否在事务中
+	 * @return
+	 */
+	public boolean isTransaction() {
+		return transaction;
+	}
+
+	@Override
+	public void begin(int transactionIsolation) throws SQLException {
+		begin(transactionIsolation, false);
+	}
+	/**开启事务，这里只记录状态，由持有连接的子类在连接上执行，如 {@link AbstractPoolSQLExecutor}
+	 * @param transactionIsolation
+	 * @param readOnly
+	 * @throws SQLException
+	 */
+	@Override
+	public void begin(int transactionIsolation, boolean readOnly) throws SQLException {
+		Log.d(TAG, "begin  transactionIsolation = " + transactionIsolation + "; readOnly = " + readOnly);
+		this.transaction = true;
+		this.transactionIsolation = transactionIsolation;
+		this.readOnly = readOnly;
+	}
+	/**提交事务，COUNT(*) 结果缓存可能已过时，清空，并向 {@link #getInvalidationBus()} 发布事务中增删改过的表
+	 * 持有连接的子类需要在连接提交后再调用
+	 * @throws SQLException
+	 */
+	@Override
+	public void commit() throws SQLException {
+		Log.d(TAG, "commit  transaction = " + transaction + "; readOnly = " + readOnly);
+		transaction = false;
+		if (readOnly == false) {
+			clearTotalCache();
+		}
+		if (writeTableMap != null) {
+			Map<String, List<Object>> map = writeTableMap;
+			writeTableMap = null;
+			for (Map.Entry<String, List<Object>> entry : map.entrySet()) {
+				getInvalidationBus().publish(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	/**回滚事务，事务内查到的结果可能已被撤销，清空缓存
+	 * @throws SQLException
+	 */
+	@Override
+	public void rollback() throws SQLException {
+		Log.d(TAG, "rollback  transaction = " + transaction);
+		transaction = false;
+		writeTableMap = null;
+		if (cacheMap != null) {
+			cacheMap.clear();
+		}
+	}
+
 	/**关闭连接，释放资源
 	 */
 	@Override
@@ -106,17 +284,147 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 		cacheMap = null;
 	}
 
+	protected ThreadModel threadModel;
+	@NotNull
+	@Override
+	public ThreadModel getThreadModel() {
+		if (threadModel == null) {
+			threadModel = ThreadModel.getDefault();
+		}
+		return threadModel;
+	}
+	@Override
+	public AbstractSQLExecutor setThreadModel(ThreadModel threadModel) {
+		this.threadModel = threadModel;
+		return this;
+	}
+
+	private CompletableFuture<?> lastFuture;//最后提交的异步任务，后面提交的要等它结束
+
+	/**异步执行SQL，同一个executor提交的按顺序一条条执行，连接和缓存不会被并发使用
+	 * @param config
+	 * @return
+	 */
+	@Override
+	public CompletionStage<JSONObject> executeAsync(@NotNull final SQLConfig config) {
+		return submit(new Callable<JSONObject>() {
+			@Override
+			public JSONObject call() throws Exception {
+				return execute(config);
+			}
+		});
+	}
+
+	/**等已提交的SQL都执行完后关闭连接，释放资源
+	 * @return
+	 */
+	@Override
+	public CompletionStage<Void> closeAsync() {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				close();
+				return null;
+			}
+		});
+	}
+
+	/**在上一个异步任务结束后执行，不论上一个是否出错
+	 * @param task
+	 * @return
+	 */
+	protected synchronized <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final ThreadModel model = getThreadModel();
+		CompletableFuture<T> future;
+		if (lastFuture == null || lastFuture.isDone()) {
+			future = model.submit(task);
+		} else {
+			future = lastFuture.handle(new BiFunction<Object, Throwable, Void>() {
+				@Override
+				public Void apply(Object result, Throwable e) {
+					return null;
+				}
+			}).thenCompose(new Function<Void, CompletionStage<T>>() {
+				@Override
+				public CompletionStage<T> apply(Void v) {
+					return model.submit(task);
+				}
+			});
+		}
+		lastFuture = future;
+		return future;
+	}
+
+	/**是否可以用 {@link ResultCache}，写事务内的查询要看到事务内的修改，不用共享缓存
+	 * @param config
+	 * @param tables
+	 * @return
+	 */
+	protected boolean isResultCacheable(@NotNull SQLConfig config, @NotNull String[] tables) {
+		return (transaction == false || readOnly) && ResultCache.isCacheable(tables);
+	}
+
+	/**表被增删改后向 {@link #getInvalidationBus()} 发布，清除各节点的缓存，在事务中则等提交后再发布
+	 * @param table
+	 * @param idList 为 null 则不确定，视为整个表
+	 */
+	protected void onWrite(@NotNull String table, List<Object> idList) {
+		if (transaction == false) {
+			getInvalidationBus().publish(table, idList);
+			return;
+		}
+
+		if (writeTableMap == null) {
+			writeTableMap = new LinkedHashMap<String, List<Object>>();
+		}
+		if (writeTableMap.containsKey(table) == false) {
+			writeTableMap.put(table, idList == null ? null : new ArrayList<Object>(idList));
+		} else {
+			List<Object> list = writeTableMap.get(table);
+			if (list != null && idList != null) {
+				list.addAll(idList);
+			} else {
+				writeTableMap.put(table, null);
+			}
+		}
+	}
+
+	/**获取被增删改的 id，来自 id 或 id{}
+	 * @param config
+	 * @return 没有则返回 null
+	 */
+	protected List<Object> getIdList(@NotNull SQLConfig config) {
+		if (config.getId() > 0) {
+			return Arrays.asList((Object) config.getId());
+		}
+		Object idIn = config.getWhere(JSONResponse.KEY_ID_IN, true);
+		return idIn instanceof Collection ? new ArrayList<Object>((Collection<?>) idIn) : null;
+	}
+
 	/**执行SQL
 	 * @param config
 	 * @return
 	 * @throws Exception
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public JSONObject execute(SQLConfig config) throws Exception {
 		if (config == null) {
 			Log.e(TAG, "select  config==null >> return null;");
 			return null;
 		}
+		List<SQLConfig> batchList = config.getBatchList();
+		if (batchList != null && RequestMethod.isQueryMethod(config.getMethod()) == false) {
+			return executeBatchUpdate(config, batchList);
+		}
+
+		//只在一个分片的直接路由过去，多个分片的下面分别执行后合并
+		List<Integer> shardList = config.getShard() >= 0 ? null : config.getShardList();
+		if (shardList != null && shardList.size() <= 1) {
+			config.setShard(shardList.isEmpty() ? -1 : shardList.get(0));
+			shardList = null;
+		}
+
 		boolean prepared = config.isPrepared();
 
 		final String sql = config.getSQL(false);
@@ -135,23 +443,80 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 				+ "\n sql = \n " + sql
 				+ "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n");
 
+		//跨请求共享的查询结果缓存，version 在查询前获取，查询期间表被修改过则不缓存
+		String[] cacheTables = RequestMethod.isQueryMethod(config.getMethod()) ? ResultCache.getTables(config) : null;
+		String cacheKey = cacheTables != null && isResultCacheable(config, cacheTables) ? ResultCache.getKey(config, sql) : null;
+		long cacheVersion = cacheKey == null ? 0 : ResultCache.getVersion();
+
 		ResultSet rs = null;
 		switch (config.getMethod()) {
 		case HEAD:
 		case HEADS:
-			rs = executeQuery(config);
+			Object cacheCount = cacheKey == null ? null : ResultCache.get(cacheKey);
+			if (cacheCount instanceof Long) {
+				result = AbstractParser.newSuccessResult();
+				result.put(JSONResponse.KEY_COUNT, cacheCount);
+				return result;
+			}
 
-			result = rs.next() ? AbstractParser.newSuccessResult()
-					: AbstractParser.newErrorResult(new SQLException("数据库错误, rs.next() 失败！"));
-			result.put(JSONResponse.KEY_COUNT, rs.getLong(1));
+			//@total:"approx" 有条件时和 "cache" 一样缓存 COUNT(*) 的结果
+			boolean cacheTotal = TOTAL_CACHE_TIME > 0 && (JSONRequest.TOTAL_CACHE.equals(config.getTotal())
+					|| JSONRequest.TOTAL_APPROX.equals(config.getTotal()));
+			Long total = cacheTotal ? getTotalCache(sql) : null;
+			if (total != null) {
+				result = AbstractParser.newSuccessResult();
+				result.put(JSONResponse.KEY_COUNT, total);
+				return result;
+			}
 
-			rs.close();
+			boolean next;
+			long count = 0;
+			if (shardList != null) { //各分片的数量相加
+				next = true;
+				Object value;
+				for (ColumnarResult r : executeShardQuery(config, shardList, null, false)) {
+					value = r.size() <= 0 ? null : r.getValue(1, 0);
+					next = next && value instanceof Number;
+					count += next ? ((Number) value).longValue() : 0;
+				}
+			} else {
+				rs = executeQuery(config);
+				next = rs.next();
+				count = next ? rs.getLong(1) : 0;
+				rs.close();
+			}
+
+			result = next ? AbstractParser.newSuccessResult()
+					: AbstractParser.newErrorResult(new SQLException("数据库错误, rs.next() 失败！"));
+			result.put(JSONResponse.KEY_COUNT, count);
+			if (next && cacheTotal) {
+				putTotalCache(sql, count);
+			}
+			if (next && cacheKey != null) {
+				ResultCache.put(cacheKey, cacheTables, count, cacheVersion);
+			}
 			return result;
 
 		case POST:
 		case PUT:
 		case DELETE:
-			long updateCount = executeUpdate(config);
+			long updateCount = 0;
+			try {
+				if (shardList != null) { //在每个分片依次执行，需要原子性则在事务内
+					try {
+						for (Integer s : shardList) {
+							config.setShard(s);
+							updateCount += executeUpdate(config);
+						}
+					} finally {
+						config.setShard(-1);
+					}
+				} else {
+					updateCount = executeUpdate(config);
+				}
+			} finally { //出错也可能已经改了一部分
+				onWrite(config.getTable(), getIdList(config));
+			}
 
 			result = AbstractParser.newResult(updateCount > 0 ? JSONResponse.CODE_SUCCESS : JSONResponse.CODE_NOT_FOUND
 					, updateCount > 0 ? JSONResponse.MSG_SUCCEED : "可能对象不存在！");
@@ -183,66 +548,331 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 			return result;
 		}
 
-		rs = executeQuery(config);
+		//LEFT JOIN 查询，每行结果为 { "0":主表, "1":副表1, "2":副表2 ... }，没关联到的副表为 null
+		final boolean join = config.getJoinList() != null && config.getJoinList().isEmpty() == false;
+
+		Map<Integer, JSONObject> resultMap;
+		Object cacheMap = cacheKey == null ? null : ResultCache.get(cacheKey);
+		if (cacheMap instanceof Map) {
+			resultMap = (Map<Integer, JSONObject>) cacheMap;
+		} else {
+			if (shardList != null) {
+				resultMap = executeShardGet(config, shardList, join);
+			} else {
+				//列读取计划按预编译的 SQL 模板缓存，非预编译的 SQL 包含值，不缓存
+				final String template = prepared ? config.getSQL(true) : null;
+				config.setPrepared(prepared);
+
+				rs = executeQuery(config);
+				resultMap = read(rs, template, join, config.getCount());
+				rs.close();
+			}
+
+			if (cacheKey != null) {
+				ResultCache.put(cacheKey, cacheTables, resultMap, cacheVersion);
+			}
+		}
 
-		//		final boolean cache = config.getCount() != 1;
-		Map<Integer, JSONObject> resultMap = new HashMap<Integer, JSONObject>();
-		//		Log.d(TAG, "select  cache = " + cache + "; resultMap" + (resultMap == null ? "=" : "!=") + "null");
+		putCache(sql, resultMap, config.isCacheStatic());
+		Log.i(TAG, ">>> select  putCache('" + sql + "', resultMap);  resultMap.size() = " + resultMap.size());
 
-		int index = -1;
+		long endTime = System.currentTimeMillis();
+		Log.d(TAG, "\n\n select  endTime = " + endTime + "; duration = " + (endTime - startTime)
+				+ "\n return resultMap.get(" + position + ");"  + "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n\n");
+		return resultMap.get(position);
+	}
 
-		ResultSetMetaData rsmd = rs.getMetaData();
-		final int length = rsmd.getColumnCount();
+	/**读取整个结果集
+	 * @param rs
+	 * @param template 预编译的 SQL 模板，用来缓存列读取计划，为 null 则不缓存
+	 * @param join
+	 * @param capacity 预计行数
+	 * @return
+	 * @throws SQLException
+	 */
+	protected ColumnarResult read(@NotNull ResultSet rs, String template, boolean join, int capacity) throws SQLException {
+		//每个结果集只读一次元数据，不在每个单元格里调用 getColumnName, getColumnLabel, isJSONType
+		ColumnPlan plan = ColumnPlan.get(template, rs.getMetaData(), this, join);
 
+		//按列存到基本类型数组，getCache 取到某一行时才生成 JSONObject；数据库查出来的null和empty值都有意义，都会保留
+		ColumnarResult result = new ColumnarResult(plan, join, capacity);
 		while (rs.next()){
-			index ++;
-			Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n select while (rs.next()){  index = " + index + "\n\n");
+			result.read(rs);
+		}
+		return result;
+	}
+
+	/**在多个分片上查询，每个分片的结果读成一个 ColumnarResult
+	 * 默认依次执行，子类可以重写为并行执行
+	 * @param config
+	 * @param shardList
+	 * @param template
+	 * @param join
+	 * @return 和 shardList 一一对应
+	 * @throws Exception
+	 */
+	protected List<ColumnarResult> executeShardQuery(@NotNull SQLConfig config, @NotNull List<Integer> shardList
+			, String template, boolean join) throws Exception {
+		List<ColumnarResult> list = new ArrayList<ColumnarResult>(shardList.size());
+		try {
+			ResultSet rs;
+			for (Integer s : shardList) {
+				config.setShard(s);
+				rs = executeQuery(config);
+				list.add(read(rs, template, join, config.getCount()));
+				rs.close();
+			}
+		} finally {
+			config.setShard(-1);
+		}
+		return list;
+	}
 
-			result = new JSONObject(true);
-			Object value;
+	/**在多个分片上查询一页，每个分片查 LIMIT (page + 1)*count，合并后按 @order 排序，再取出这一页
+	 * @param config
+	 * @param shardList
+	 * @param join
+	 * @return
+	 * @throws Exception
+	 */
+	protected Map<Integer, JSONObject> executeShardGet(@NotNull SQLConfig config, @NotNull List<Integer> shardList, boolean join) throws Exception {
+		final int count = config.getCount();
+		final int page = config.getPage();
+		final boolean prepared = config.isPrepared();
 
-			for (int i = 1; i <= length; i++) {
-				if (rsmd.getColumnName(i).startsWith("_")) {
-					Log.i(TAG, "select while (rs.next()){ ..."
-							+ " >>  rsmd.getColumnName(i).startsWith(_) >> continue;");
-					continue;
-				}
+		List<ColumnarResult> list;
+		try {
+			if (count > 0) {
+				config.setCount((page + 1)*count);
+				config.setPage(0);
+			}
+			String template = prepared ? config.getSQL(true) : null;
+			config.setPrepared(prepared);
+			list = executeShardQuery(config, shardList, template, join);
+		} finally {
+			config.setCount(count);
+			config.setPage(page);
+		}
 
-				value = rs.getObject(i);
-				//					Log.d(TAG, "name:" + rsmd.getColumnName(i));
-				//					Log.d(TAG, "lable:" + rsmd.getColumnLabel(i));
-				//					Log.d(TAG, "type:" + rsmd.getColumnType(i));
-				//					Log.d(TAG, "typeName:" + rsmd.getColumnTypeName(i));
+		List<JSONObject> rowList = new ArrayList<JSONObject>();
+		long total = 0;
+		for (ColumnarResult r : list) {
+			for (int i = 0; i < r.size(); i++) {
+				rowList.add(r.getRow(i));
+			}
+			//@total:"over" 时每个分片的 _total 只是这个分片的总数
+			JSONObject first = r.getRow(0);
+			Object t = first == null ? null : (join ? first.getJSONObject("0") : first).get(AbstractSQLConfig.KEY_TOTAL);
+			total += t instanceof Number ? ((Number) t).longValue() : 0;
+		}
 
-				//				Log.i(TAG, "select  while (rs.next()) { >> for (int i = 0; i < length; i++) {"
-				//						+ "\n  >>> value = " + value);
+		Comparator<JSONObject> comparator = newOrderComparator(config.getOrder(), join);
+		if (comparator != null) {
+			Collections.sort(rowList, comparator); //稳定排序，相等的按分片顺序
+		}
 
-				if (value != null) { //数据库查出来的null和empty值都有意义，去掉会导致 Moment:{ @column:"content" } 部分无结果及中断数组查询！
-					if (value instanceof Timestamp) {
-						value = ((Timestamp) value).toString();
-					}
-					else if (value instanceof String && isJSONType(rsmd, i)) { //json String
-						value = JSON.parse((String) value);
+		int start = count > 0 ? page*count : 0;
+		int end = count > 0 ? Math.min(start + count, rowList.size()) : rowList.size();
+		Map<Integer, JSONObject> resultMap = new LinkedHashMap<Integer, JSONObject>();
+		JSONObject row;
+		for (int i = start; i < end; i++) {
+			row = rowList.get(i);
+			JSONObject item = join ? row.getJSONObject("0") : row;
+			if (item != null && item.containsKey(AbstractSQLConfig.KEY_TOTAL)) {
+				item.put(AbstractSQLConfig.KEY_TOTAL, total);
+			}
+			resultMap.put(i - start, row);
+		}
+		return resultMap;
+	}
+
+	/**按 @order:"key0+,key1-" 比较两行，null 最小，字符串忽略大小写，和 MySQL 默认的排序规则一致
+	 * @param order
+	 * @param join 比较 LEFT JOIN 的主表
+	 * @return order 为空则返回 null
+	 */
+	protected Comparator<JSONObject> newOrderComparator(String order, final boolean join) {
+		String[] keys = StringUtil.split(StringUtil.getTrimedString(order));
+		if (keys == null || keys.length <= 0) {
+			return null;
+		}
+
+		final String[] names = new String[keys.length];
+		final boolean[] descs = new boolean[keys.length];
+		String key;
+		for (int i = 0; i < keys.length; i++) {
+			key = keys[i].trim();
+			descs[i] = key.endsWith("-") || key.endsWith(" DESC");
+			if (key.endsWith("+") || key.endsWith("-")) {
+				key = key.substring(0, key.length() - 1);
+			} else if (key.endsWith(" ASC") || key.endsWith(" DESC")) {
+				key = key.substring(0, key.lastIndexOf(' '));
+			}
+			key = key.trim();
+			if (StringUtil.isName(key) == false) {
+				throw new IllegalArgumentException("分片查询时 @order:value 中 value里面用 , 分割的每一项"
+						+ " column+ / column- 中 column必须是1个单词！");
+			}
+			names[i] = key;
+		}
+
+		return new Comparator<JSONObject>() {
+
+			@Override
+			public int compare(JSONObject o1, JSONObject o2) {
+				JSONObject a = join ? o1.getJSONObject("0") : o1;
+				JSONObject b = join ? o2.getJSONObject("0") : o2;
+				int c;
+				for (int i = 0; i < names.length; i++) {
+					c = compareValue(a == null ? null : a.get(names[i]), b == null ? null : b.get(names[i]));
+					if (c != 0) {
+						return descs[i] ? -c : c;
 					}
 				}
+				return 0;
+			}
+		};
+	}
 
-				result.put(rsmd.getColumnLabel(i), value);
+	/**比较两个值
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected int compareValue(Object a, Object b) {
+		if (a == null || b == null) {
+			return a == b ? 0 : (a == null ? -1 : 1);
+		}
+		if ((a instanceof Long || a instanceof Integer) && (b instanceof Long || b instanceof Integer)) { //double 会丢失大整数的精度
+			return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+		}
+		if (a instanceof Number && b instanceof Number) {
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		if (a instanceof String && b instanceof String) {
+			int c = ((String) a).compareToIgnoreCase((String) b);
+			return c != 0 ? c : ((String) a).compareTo((String) b);
+		}
+		if (a instanceof Comparable && a.getClass().isInstance(b)) {
+			return ((Comparable) a).compareTo(b);
+		}
+		return String.valueOf(a).compareTo(String.valueOf(b));
+	}
+
+
+	protected int fetchSize;//流式查询时每次从数据库取的行数，0 为数据库驱动默认
+	/**批量增、删、改，返回结果和 {@link #execute(SQLConfig)} 的一致，另外有每一项的修改记录数 count[]
+	 * @param config
+	 * @param batchList
+	 * @return
+	 * @throws Exception
+	 */
+	protected JSONObject executeBatchUpdate(@NotNull SQLConfig config, @NotNull List<SQLConfig> batchList) throws Exception {
+		long startTime = System.currentTimeMillis();
+		int[] counts;
+		try {
+			counts = executeBatch(batchList);
+		} finally {
+			List<Object> idList = new ArrayList<Object>(batchList.size());
+			for (SQLConfig bc : batchList) {
+				idList.add(bc.getId());
 			}
+			onWrite(config.getTable(), idList);
+		}
+		Log.d(TAG, "executeBatchUpdate  batchList.size() = " + batchList.size()
+				+ "; duration = " + (System.currentTimeMillis() - startTime));
+
+		long updateCount = 0;
+		JSONArray idList = new JSONArray(batchList.size());
+		for (int i = 0; i < counts.length; i++) {
+			updateCount += counts[i] == Statement.SUCCESS_NO_INFO ? 1 : Math.max(counts[i], 0); //rewriteBatchedStatements 时可能没有具体数量
+			idList.add(batchList.get(i).getId());
+		}
+
+		JSONObject result = AbstractParser.newResult(updateCount > 0 ? JSONResponse.CODE_SUCCESS : JSONResponse.CODE_NOT_FOUND
+				, updateCount > 0 ? JSONResponse.MSG_SUCCEED : "可能对象不存在！");
+		result.put(JSONResponse.KEY_ID + "[]", idList);
+		result.put(JSONResponse.KEY_COUNT, updateCount);
+		result.put(JSONResponse.KEY_COUNT + "[]", counts);
+		return result;
+	}
 
-			resultMap.put(index, result);
-			Log.d(TAG, "\n select  while (rs.next()) { resultMap.put( " + index + ", result); "
-					+ "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+	/**逐项执行，子类可以重写为 JDBC batch
+	 * 不在事务中时，用 {@link #begin(int)}, {@link #commit()}, {@link #rollback()} 包起来，出错则全部回滚
+	 * @param configList
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	public int[] executeBatch(@NotNull List<SQLConfig> configList) throws Exception {
+		int[] counts = new int[configList.size()];
+		if (counts.length <= 0) {
+			return counts;
 		}
 
-		rs.close();
+		boolean begin = transaction == false;
+		if (begin) {
+			begin(0);
+		}
+		try {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = executeUpdate(configList.get(i));
+			}
+			if (begin) {
+				commit();
+			}
+		} catch (Exception e) {
+			Log.e(TAG, "executeBatch  catch (Exception e) >> " + e.getMessage());
+			if (begin) {
+				rollback();
+			}
+			throw e;
+		}
+		return counts;
+	}
 
-		putCache(sql, resultMap, config.isCacheStatic());
-		Log.i(TAG, ">>> select  putCache('" + sql + "', resultMap);  resultMap.size() = " + resultMap.size());
+	/**流式查询，逐行读取并回调，不缓存结果，内存占用和行数无关
+	 * @param config
+	 * @param fetchSize
+	 * @param callback
+	 * @return 行数
+	 * @throws Exception
+	 */
+	@Override
+	public int execute(@NotNull SQLConfig config, int fetchSize, @NotNull RowCallback callback) throws Exception {
+		if (RequestMethod.isGetMethod(config.getMethod(), true) == false) {
+			throw new UnsupportedOperationException("流式查询只支持 GET, GETS 方法！");
+		}
+		boolean prepared = config.isPrepared();
+		final String template = prepared ? config.getSQL(true) : null;
+		config.setPrepared(prepared);
 
-		long endTime = System.currentTimeMillis();
-		Log.d(TAG, "\n\n select  endTime = " + endTime + "; duration = " + (endTime - startTime)
-				+ "\n return resultMap.get(" + position + ");"  + "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n\n");
-		return resultMap.get(position);
+		long startTime = System.currentTimeMillis();
+		Log.d(TAG, "execute  stream  fetchSize = " + fetchSize + "; sql = \n " + config.getSQL(false));
+		config.setPrepared(prepared);
+
+		ResultSet rs;
+		this.fetchSize = fetchSize;
+		try {
+			rs = executeQuery(config);
+		} finally {
+			this.fetchSize = 0;
+		}
+
+		int position = 0;
+		try {
+			ColumnPlan plan = ColumnPlan.get(template, rs.getMetaData(), this, false);
+			while (rs.next()) {
+				callback.onRow(position, plan, rs);
+				position ++;
+			}
+		} finally {
+			rs.close();
+		}
+
+		Log.d(TAG, "execute  stream  count = " + position + "; duration = " + (System.currentTimeMillis() - startTime));
+		return position;
 	}
 
 
@@ -0,0 +1,36 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import java.util.concurrent.CompletionStage;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**异步解析器，整个请求在 {@link ThreadModel} 的线程里解析和查询，不阻塞调用方（如 Tomcat 请求线程）
+ * @author Lemon
+ */
+public interface AsyncParser extends Parser {
+
+	@NotNull
+	ThreadModel getThreadModel();
+	AsyncParser setThreadModel(ThreadModel threadModel);
+
+	CompletionStage<String> parseAsync(String request);
+	CompletionStage<String> parseAsync(JSONObject request);
+
+	CompletionStage<JSONObject> parseResponseAsync(String request);
+	CompletionStage<JSONObject> parseResponseAsync(JSONObject request);
+
+}
@@ -0,0 +1,41 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import java.util.concurrent.CompletionStage;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**异步执行SQL的executor，SQL在 {@link ThreadModel} 的线程里执行，不阻塞调用方
+ * @author Lemon
+ */
+public interface AsyncSQLExecutor extends SQLExecutor {
+
+	@NotNull
+	ThreadModel getThreadModel();
+	AsyncSQLExecutor setThreadModel(ThreadModel threadModel);
+
+	/**异步执行SQL，同一个executor提交的按顺序一条条执行
+	 * @param config
+	 * @return {@link #execute(SQLConfig)} 的结果或异常
+	 */
+	CompletionStage<JSONObject> executeAsync(@NotNull SQLConfig config);
+
+	/**等已提交的SQL都执行完后关闭连接，释放资源
+	 * @return
+	 */
+	CompletionStage<Void> closeAsync();
+
+}
@@ -0,0 +1,56 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.util.List;
+
+/**缓存失效的消息总线，表被增删改后发布，各节点的订阅者清除本地的缓存，例如 {@link ResultCache}
+ * 多个节点部署时用 {@link UDPInvalidationBus} 等跨进程的实现，单节点用 {@link LocalInvalidationBus}
+ * @author Lemon
+ * @see AbstractSQLExecutor#setInvalidationBus(CacheInvalidationBus)
+ */
+public interface CacheInvalidationBus {
+
+	/**发布，所有节点包括当前节点的订阅者都会收到
+	 * @param table 被增删改的表
+	 * @param idList 被增删改的 id，为 null 则不确定，视为整个表
+	 */
+	void publish(@NotNull String table, List<Object> idList);
+
+	/**订阅，只收到订阅之后发布的
+	 * @param callback
+	 */
+	void subscribe(@NotNull Callback callback);
+
+	/**取消订阅
+	 * @param callback
+	 */
+	void unsubscribe(@NotNull Callback callback);
+
+	/**关闭，释放资源
+	 */
+	void close();
+
+
+	interface Callback {
+		/**表被增删改了，清除相关的缓存
+		 * @param table
+		 * @param idList 为 null 则不确定，视为整个表
+		 */
+		void onInvalidate(@NotNull String table, List<Object> idList);
+	}
+
+}
@@ -0,0 +1,239 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.alibaba.fastjson.JSON;
+
+/**ResultSet 的列读取计划，每个结果集只读一次元数据，之后逐行按列的类型直接读取
+ * 按预编译的 SQL 模板缓存，使用前用列名、列类型校验，同一模板在不同库中列类型可能不同
+ * @author Lemon
+ */
+public class ColumnPlan {
+
+	public static final int TYPE_SKIP = -1; //_ 开头的列，不返回
+	public static final int TYPE_OBJECT = 0;
+	public static final int TYPE_LONG = 1;
+	public static final int TYPE_INT = 2;
+	public static final int TYPE_STRING = 3;
+	public static final int TYPE_TIMESTAMP = 4;
+	public static final int TYPE_JSON = 5;
+	public static final int TYPE_JOIN = 6; //LEFT JOIN 副表的标记列
+
+
+	/**
+	 * 缓存的最大数量，<= 0 则不缓存
+	 */
+	public static int CACHE_SIZE = 1000;
+	private static final Map<String, ColumnPlan> CACHE;
+	static {
+		CACHE = new LinkedHashMap<String, ColumnPlan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ColumnPlan> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**获取列读取计划，缓存的和结果集的列不一致时重新生成
+	 * @param template 预编译的 SQL 模板，为 null 则不缓存
+	 * @param rsmd
+	 * @param executor 用来判断 JSON 类型
+	 * @param join 是否为 LEFT JOIN 查询
+	 * @return
+	 * @throws SQLException
+	 */
+	public static ColumnPlan get(String template, ResultSetMetaData rsmd, SQLExecutor executor, boolean join) throws SQLException {
+		ColumnPlan plan = null;
+		if (template != null && CACHE_SIZE > 0) {
+			synchronized (CACHE) {
+				plan = CACHE.get(template);
+			}
+		}
+		if (plan != null && plan.matches(rsmd)) {
+			return plan;
+		}
+
+		plan = new ColumnPlan(rsmd, executor, join);
+		if (template != null && CACHE_SIZE > 0) {
+			synchronized (CACHE) {
+				CACHE.put(template, plan);
+			}
+		}
+		return plan;
+	}
+
+
+
+	private final String[] labels;
+	private final int[] types;
+	private final int[] sqlTypes;
+	private final boolean[] signeds;
+
+	/**
+	 * @param rsmd
+	 * @param executor
+	 * @param join
+	 * @throws SQLException
+	 */
+	public ColumnPlan(ResultSetMetaData rsmd, SQLExecutor executor, boolean join) throws SQLException {
+		final int length = rsmd.getColumnCount();
+		labels = new String[length + 1]; //和 ResultSet 一样从 1 开始
+		types = new int[length + 1];
+		sqlTypes = new int[length + 1];
+		signeds = new boolean[length + 1];
+
+		for (int i = 1; i <= length; i++) {
+			labels[i] = rsmd.getColumnLabel(i).intern();
+			types[i] = getType(rsmd, i, executor, join);
+			sqlTypes[i] = rsmd.getColumnType(i);
+			signeds[i] = rsmd.isSigned(i);
+		}
+	}
+
+	/**获取列的读取类型，读出来的值必须和 rs.getObject 再转换 Timestamp, JSON 后的一致
+	 * @param rsmd
+	 * @param i
+	 * @param executor
+	 * @param join
+	 * @return
+	 * @throws SQLException
+	 */
+	protected int getType(ResultSetMetaData rsmd, int i, SQLExecutor executor, boolean join) throws SQLException {
+		if (join && rsmd.getColumnLabel(i).startsWith(AbstractSQLConfig.KEY_JOIN)) {
+			return TYPE_JOIN;
+		}
+		if (AbstractSQLConfig.KEY_TOTAL.equals(rsmd.getColumnLabel(i))) { //COUNT(*) OVER()，由 Parser 取出总数后去掉
+			return TYPE_LONG;
+		}
+		if (rsmd.getColumnName(i).startsWith("_")) {
+			return TYPE_SKIP;
+		}
+
+		switch (rsmd.getColumnType(i)) {
+		case Types.BIGINT:
+			return rsmd.isSigned(i) ? TYPE_LONG : TYPE_OBJECT; //BIGINT UNSIGNED 是 BigInteger
+		case Types.INTEGER:
+		case Types.SMALLINT:
+			return rsmd.isSigned(i) ? TYPE_INT : TYPE_OBJECT; //INT UNSIGNED 是 Long
+		case Types.TIMESTAMP:
+			return TYPE_TIMESTAMP;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+			return executor.isJSONType(rsmd, i) ? TYPE_JSON : TYPE_STRING;
+		default:
+			return executor.isJSONType(rsmd, i) ? TYPE_JSON : TYPE_OBJECT;
+		}
+	}
+
+	/**是否和结果集的列一致，列名、列类型、是否有符号都要相同
+	 * @param rsmd
+	 * @return
+	 * @throws SQLException
+	 */
+	public boolean matches(ResultSetMetaData rsmd) throws SQLException {
+		if (rsmd.getColumnCount() != labels.length - 1) {
+			return false;
+		}
+		for (int i = 1; i < labels.length; i++) {
+			if (labels[i].equals(rsmd.getColumnLabel(i)) == false
+					|| sqlTypes[i] != rsmd.getColumnType(i) || signeds[i] != rsmd.isSigned(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	public int getColumnCount() {
+		return labels.length - 1;
+	}
+	public String getLabel(int i) {
+		return labels[i];
+	}
+	public int getType(int i) {
+		return types[i];
+	}
+
+	/**读取当前行第 i 列的值
+	 * @param rs
+	 * @param i
+	 * @return
+	 * @throws SQLException
+	 */
+	public Object read(ResultSet rs, int i) throws SQLException {
+		switch (types[i]) {
+		case TYPE_LONG:
+			long l = rs.getLong(i);
+			return rs.wasNull() ? null : Long.valueOf(l);
+		case TYPE_INT:
+			int n = rs.getInt(i);
+			return rs.wasNull() ? null : Integer.valueOf(n);
+		case TYPE_STRING:
+			return rs.getString(i);
+		case TYPE_TIMESTAMP:
+			Timestamp t = rs.getTimestamp(i);
+			return t == null ? null : t.toString();
+		case TYPE_JSON:
+			Object o = rs.getObject(i);
+			return o instanceof String ? JSON.parse((String) o) : o;
+		default:
+			o = rs.getObject(i);
+			return o instanceof Timestamp ? ((Timestamp) o).toString() : o;
+		}
+	}
+
+	/**把当前行写成 JSON 对象，和 JSON.toJSONString 读出来的行一致，值为 null 的列不写
+	 * @param rs
+	 * @param writer
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public void write(ResultSet rs, Writer writer) throws SQLException, IOException {
+		writer.write('{');
+		boolean first = true;
+		Object value;
+		for (int i = 1; i < labels.length; i++) {
+			if (types[i] == TYPE_SKIP || types[i] == TYPE_JOIN) {
+				continue;
+			}
+			value = read(rs, i);
+			if (value == null) {
+				continue;
+			}
+			if (first == false) {
+				writer.write(',');
+			}
+			first = false;
+			writer.write(JSON.toJSONString(labels[i]));
+			writer.write(':');
+			writer.write(JSON.toJSONString(value));
+		}
+		writer.write('}');
+	}
+
+}
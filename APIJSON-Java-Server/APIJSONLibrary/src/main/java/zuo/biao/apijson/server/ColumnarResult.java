@@ -0,0 +1,281 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**按列存储的查询结果，每列一个数组，long, int 列用基本类型数组
+ * 只有通过 {@link #getRow(int)} 取某一行时才生成这一行的 JSONObject，并且只生成一次
+ * 实现了 Map<Integer, JSONObject>，可以直接放进 {@link SQLExecutor#putCache(String, java.util.Map, boolean)}
+ * @author Lemon
+ */
+public class ColumnarResult extends AbstractMap<Integer, JSONObject> {
+
+	private final ColumnPlan plan;
+	private final boolean join;
+	private final int length;
+
+	private int size;
+	private int capacity;
+	private final long[][] longs;
+	private final int[][] ints;
+	private final Object[][] objects;
+	private final boolean[][] nulls; //基本类型列的 null；LEFT JOIN 标记列为没关联到副表
+	private JSONObject[] rows; //已生成的行
+
+	/**
+	 * @param plan
+	 * @param join 是否为 LEFT JOIN 查询，每行为 { "0":主表, "1":副表1 ... }
+	 * @param capacity 预计行数
+	 */
+	public ColumnarResult(ColumnPlan plan, boolean join, int capacity) {
+		this.plan = plan;
+		this.join = join;
+		this.length = plan.getColumnCount();
+		this.capacity = capacity <= 0 ? 16 : capacity;
+
+		longs = new long[length + 1][];
+		ints = new int[length + 1][];
+		objects = new Object[length + 1][];
+		nulls = new boolean[length + 1][];
+		for (int i = 1; i <= length; i++) {
+			switch (plan.getType(i)) {
+			case ColumnPlan.TYPE_SKIP:
+				break;
+			case ColumnPlan.TYPE_LONG:
+				longs[i] = new long[this.capacity];
+				nulls[i] = new boolean[this.capacity];
+				break;
+			case ColumnPlan.TYPE_INT:
+				ints[i] = new int[this.capacity];
+				nulls[i] = new boolean[this.capacity];
+				break;
+			case ColumnPlan.TYPE_JOIN:
+				nulls[i] = new boolean[this.capacity];
+				break;
+			default:
+				objects[i] = new Object[this.capacity];
+				break;
+			}
+		}
+	}
+
+	/**复制，基本类型的列共用，对象列复制一份，其中的 JSONObject, JSONArray 深度复制
+	 * @param source
+	 */
+	private ColumnarResult(ColumnarResult source) {
+		this.plan = source.plan;
+		this.join = source.join;
+		this.length = source.length;
+		this.size = source.size;
+		this.capacity = source.capacity;
+
+		longs = source.longs.clone();
+		ints = source.ints.clone();
+		nulls = source.nulls.clone();
+		objects = new Object[length + 1][];
+		for (int i = 1; i <= length; i++) {
+			if (source.objects[i] != null) {
+				objects[i] = new Object[capacity];
+				for (int row = 0; row < size; row++) {
+					objects[i][row] = ResultCache.copy(source.objects[i][row]);
+				}
+			}
+		}
+	}
+
+	/**复制一份，两份的行互不影响，用于 {@link ResultCache}
+	 * @return
+	 */
+	public ColumnarResult copy() {
+		return new ColumnarResult(this);
+	}
+
+	/**读取 ResultSet 的当前行
+	 * @param rs
+	 * @throws SQLException
+	 */
+	public void read(ResultSet rs) throws SQLException {
+		if (size >= capacity) {
+			grow();
+		}
+
+		final int row = size;
+		for (int i = 1; i <= length; i++) {
+			switch (plan.getType(i)) {
+			case ColumnPlan.TYPE_SKIP:
+				break;
+			case ColumnPlan.TYPE_LONG:
+				longs[i][row] = rs.getLong(i);
+				nulls[i][row] = rs.wasNull();
+				break;
+			case ColumnPlan.TYPE_INT:
+				ints[i][row] = rs.getInt(i);
+				nulls[i][row] = rs.wasNull();
+				break;
+			case ColumnPlan.TYPE_JOIN:
+				nulls[i][row] = rs.getBoolean(i) == false;
+				break;
+			default:
+				objects[i][row] = plan.read(rs, i);
+				break;
+			}
+		}
+		size ++;
+	}
+
+	private void grow() {
+		capacity = capacity*2;
+		for (int i = 1; i <= length; i++) {
+			if (longs[i] != null) {
+				longs[i] = Arrays.copyOf(longs[i], capacity);
+			}
+			if (ints[i] != null) {
+				ints[i] = Arrays.copyOf(ints[i], capacity);
+			}
+			if (objects[i] != null) {
+				objects[i] = Arrays.copyOf(objects[i], capacity);
+			}
+			if (nulls[i] != null) {
+				nulls[i] = Arrays.copyOf(nulls[i], capacity);
+			}
+		}
+		if (rows != null) {
+			rows = Arrays.copyOf(rows, capacity);
+		}
+	}
+
+
+	/**获取第 position 行，第一次调用时才生成 JSONObject
+	 * @param position
+	 * @return 超出范围则返回 null
+	 */
+	public JSONObject getRow(int position) {
+		if (position < 0 || position >= size) {
+			return null;
+		}
+		if (rows == null) {
+			rows = new JSONObject[capacity];
+		}
+		JSONObject row = rows[position];
+		if (row == null) {
+			row = newRow(position);
+			rows[position] = row;
+		}
+		return row;
+	}
+
+	/**生成第 row 行的 JSONObject
+	 * @param row
+	 * @return
+	 */
+	protected JSONObject newRow(int row) {
+		JSONObject result = new JSONObject(true);
+		JSONObject item = result;
+		int joinIndex = 0;
+		if (join) {
+			item = new JSONObject(true);
+			result.put("" + joinIndex, item);
+		}
+
+		int type;
+		for (int i = 1; i <= length; i++) {
+			type = plan.getType(i);
+			if (type == ColumnPlan.TYPE_JOIN) {
+				joinIndex ++;
+				item = nulls[i][row] ? null : new JSONObject(true);
+				result.put("" + joinIndex, item);
+				continue;
+			}
+			if (item == null || type == ColumnPlan.TYPE_SKIP) { //没关联到的副表，或 _ 开头的列
+				continue;
+			}
+			item.put(plan.getLabel(i), getValue(i, row));
+		}
+		return result;
+	}
+
+	/**获取第 row 行第 i 列的值
+	 * @param i 从 1 开始
+	 * @param row 从 0 开始
+	 * @return
+	 */
+	public Object getValue(int i, int row) {
+		switch (plan.getType(i)) {
+		case ColumnPlan.TYPE_LONG:
+			return nulls[i][row] ? null : Long.valueOf(longs[i][row]);
+		case ColumnPlan.TYPE_INT:
+			return nulls[i][row] ? null : Integer.valueOf(ints[i][row]);
+		case ColumnPlan.TYPE_SKIP:
+		case ColumnPlan.TYPE_JOIN:
+			return null;
+		default:
+			return objects[i][row];
+		}
+	}
+
+
+	@Override
+	public int size() {
+		return size;
+	}
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof Integer && (Integer) key >= 0 && (Integer) key < size;
+	}
+	@Override
+	public JSONObject get(Object key) {
+		return key instanceof Integer ? getRow((Integer) key) : null;
+	}
+
+	@Override
+	public Set<Entry<Integer, JSONObject>> entrySet() {
+		return new AbstractSet<Entry<Integer, JSONObject>>() {
+			@Override
+			public int size() {
+				return size;
+			}
+			@Override
+			public Iterator<Entry<Integer, JSONObject>> iterator() {
+				return new Iterator<Entry<Integer, JSONObject>>() {
+					private int position;
+
+					@Override
+					public boolean hasNext() {
+						return position < size;
+					}
+					@Override
+					public Entry<Integer, JSONObject> next() {
+						if (position >= size) {
+							throw new NoSuchElementException();
+						}
+						int p = position ++;
+						return new SimpleImmutableEntry<Integer, JSONObject>(p, getRow(p));
+					}
+				};
+			}
+		};
+	}
+
+}
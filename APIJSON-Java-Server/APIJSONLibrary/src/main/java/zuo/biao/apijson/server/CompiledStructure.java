@@ -0,0 +1,533 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static zuo.biao.apijson.JSONObject.KEY_ID;
+import static zuo.biao.apijson.JSONObject.KEY_USER_ID;
+import static zuo.biao.apijson.server.Operation.ADD;
+import static zuo.biao.apijson.server.Operation.DISALLOW;
+import static zuo.biao.apijson.server.Operation.NECESSARY;
+import static zuo.biao.apijson.server.Operation.PUT;
+import static zuo.biao.apijson.server.Operation.REMOVE;
+import static zuo.biao.apijson.server.Operation.REPLACE;
+import static zuo.biao.apijson.server.Operation.TYPE;
+import static zuo.biao.apijson.server.Operation.UNIQUE;
+import static zuo.biao.apijson.server.Operation.VERIFY;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.activation.UnsupportedDataTypeException;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.RequestMethod;
+import zuo.biao.apijson.RequestRole;
+import zuo.biao.apijson.StringUtil;
+
+/**编译后的 Request 表校验规则，每个结构只编译一次，之后每次请求直接校验，不用复制和重新解析
+ * 逗号分隔的字段名已拆分，NECESSARY, DISALLOW 为 HashSet，VERIFY 的正则表达式已编译，TYPE 已转为类型码，ADD, PUT, REPLACE 已取出
+ * 编译后不可变，可以被多个请求同时使用；校验结果和 {@link Structure#parseRequest} 一致
+ * @author Lemon
+ */
+public final class CompiledStructure {
+
+	private static final Set<String> OPERATION_SET;
+	static {
+		OPERATION_SET = new HashSet<String>();
+		for (Operation o : Operation.values()) {
+			OPERATION_SET.add(o.name());
+		}
+	}
+
+	public static final int TYPE_BOOLEAN = 0;
+	public static final int TYPE_LONG = 1;
+	public static final int TYPE_DOUBLE = 2;
+	public static final int TYPE_STRING = 3;
+	public static final int TYPE_OBJECT = 4;
+	public static final int TYPE_ARRAY = 5;
+	private static final List<String> TYPE_NAME_LIST = Arrays.asList("Boolean", "Long", "Double", "String", "Object", "Array");
+
+	private static final int RULE_SQL = 0; //key$, key{}:"条件"，通过数据库校验
+	private static final int RULE_REGEX = 1; //key?
+	private static final int RULE_IN = 2; //key{}:[]
+	private static final int RULE_CONTAINS = 3; //key<>
+
+	/**VERIFY 中的一项
+	 */
+	private static final class Rule {
+		final int type;
+		final String tk;
+		final Object tv;
+		final Logic logic;
+		final String funChar; //RULE_SQL 用
+		final Pattern[] patterns; //RULE_REGEX 用
+		final Set<Object> valueSet; //RULE_IN 用
+		final Object[] values; //RULE_CONTAINS 用
+
+		Rule(int type, String tk, Object tv, Logic logic, String funChar, Pattern[] patterns, Set<Object> valueSet, Object[] values) {
+			this.type = type;
+			this.tk = tk;
+			this.tv = tv;
+			this.logic = logic;
+			this.funChar = funChar;
+			this.patterns = patterns;
+			this.valueSet = valueSet;
+			this.values = values;
+		}
+	}
+
+
+	private final String[] removes;
+	private final String necessary; //原始配置，用于提示
+	private final String[] necessarys;
+	private final Set<String> necessarySet;
+	private final boolean disallowAll; //DISALLOW:"!"
+	private final List<String> disallowList;
+	private final Set<String> disallowSet;
+	private final String[] keys; //除了操作外的 key
+	private final Object[] values; //对应 keys，JSONObject 已编译为 CompiledStructure
+	private final String[] typeKeys;
+	private final int[] types;
+	private final Rule[] rules;
+	private final Map<String, Object> addMap;
+	private final Map<String, Object> putMap;
+	private final Map<String, Object> replaceMap;
+	private final String[] uniques;
+
+	/**编译，配置不合法则抛异常，这时可以改用 {@link Structure#parseRequest} 在请求时报错
+	 * @param target
+	 * @return target == null 时返回 null
+	 * @throws Exception
+	 */
+	public static CompiledStructure compile(JSONObject target) throws Exception {
+		return target == null ? null : new CompiledStructure(target);
+	}
+
+	private CompiledStructure(@NotNull JSONObject target) throws Exception {
+		removes = split(target.getString(REMOVE.name()));
+
+		necessary = StringUtil.getNoBlankString(target.getString(NECESSARY.name()));
+		necessarys = split(necessary);
+		necessarySet = new HashSet<String>(Arrays.asList(necessarys));
+
+		String disallow = StringUtil.getNoBlankString(target.getString(DISALLOW.name()));
+		disallowAll = "!".equals(disallow);
+		disallowList = disallowAll ? Collections.<String>emptyList() : Collections.unmodifiableList(Arrays.asList(split(disallow)));
+		disallowSet = new HashSet<String>(disallowList);
+
+		List<String> keyList = new ArrayList<String>();
+		List<Object> valueList = new ArrayList<Object>();
+		for (Entry<String, Object> entry : target.entrySet()) {
+			String key = entry == null ? null : entry.getKey();
+			if (key == null || OPERATION_SET.contains(key)) {
+				continue;
+			}
+			Object value = entry.getValue();
+			keyList.add(key);
+			valueList.add(value instanceof JSONObject ? new CompiledStructure((JSONObject) value) : value);
+		}
+		keys = keyList.toArray(new String[]{});
+		values = valueList.toArray();
+
+		JSONObject type = target.getJSONObject(TYPE.name());
+		List<String> typeKeyList = new ArrayList<String>();
+		List<Integer> typeList = new ArrayList<Integer>();
+		if (type != null) {
+			for (Entry<String, Object> entry : type.entrySet()) {
+				if (entry == null || entry.getKey() == null || entry.getValue() == null) {
+					continue;
+				}
+				int t = entry.getValue() instanceof String ? TYPE_NAME_LIST.indexOf(entry.getValue()) : -1;
+				if (t < 0) {
+					throw new UnsupportedDataTypeException("服务器内部错误，TYPE:{ " + entry.getKey() + ":" + entry.getValue() + " } 不合法！");
+				}
+				typeKeyList.add(entry.getKey());
+				typeList.add(t);
+			}
+		}
+		typeKeys = typeKeyList.toArray(new String[]{});
+		types = new int[typeList.size()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = typeList.get(i);
+		}
+
+		JSONObject verify = target.getJSONObject(VERIFY.name());
+		List<Rule> ruleList = new ArrayList<Rule>();
+		if (verify != null) {
+			for (Entry<String, Object> entry : verify.entrySet()) {
+				if (entry == null || entry.getKey() == null) {
+					continue;
+				}
+				ruleList.add(compileRule(entry.getKey(), entry.getValue()));
+			}
+		}
+		rules = ruleList.toArray(new Rule[]{});
+
+		addMap = getMap(target.getJSONObject(ADD.name()));
+		putMap = getMap(target.getJSONObject(PUT.name()));
+		replaceMap = getMap(target.getJSONObject(REPLACE.name()));
+
+		uniques = split(target.getString(UNIQUE.name()));
+	}
+
+	private static String[] split(String s) {
+		String[] arr = StringUtil.split(StringUtil.getNoBlankString(s));
+		return arr == null ? new String[]{} : arr;
+	}
+
+	private static Map<String, Object> getMap(JSONObject obj) {
+		if (obj == null || obj.isEmpty()) {
+			return null;
+		}
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (Entry<String, Object> entry : obj.entrySet()) {
+			if (entry != null && entry.getKey() != null) {
+				map.put(entry.getKey(), ResultCache.copy(entry.getValue()));
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**编译 VERIFY 中的一项
+	 * @param tk
+	 * @param tv
+	 * @return
+	 * @throws Exception
+	 */
+	private static Rule compileRule(@NotNull String tk, Object tv) throws Exception {
+		if (tv == null) {
+			throw new IllegalArgumentException("operate  operate == VERIFY " + tk + ":" + tv + " ,  >> tv == null!!!");
+		}
+
+		if (tk.endsWith("$")) { //搜索
+			return new Rule(RULE_SQL, tk, tv, new Logic(tk.substring(0, tk.length() - 1)), "$", null, null, null);
+		}
+		if (tk.endsWith("?")) { //正则表达式
+			Logic logic = new Logic(tk.substring(0, tk.length() - 1));
+			JSONArray array = AbstractSQLConfig.newJSONArray(tv);
+			Pattern[] patterns = new Pattern[array.size()];
+			for (int i = 0; i < patterns.length; i++) {
+				Object r = array.get(i);
+				if (r instanceof String == false) {
+					throw new UnsupportedDataTypeException(logic.getKey() + ":value 中value只支持 String 或 [String] 类型！");
+				}
+				Pattern reg = AbstractObjectParser.COMPILE_MAP.get(r);
+				patterns[i] = reg != null ? reg : Pattern.compile((String) r);
+			}
+			return new Rule(RULE_REGEX, tk, tv, logic, null, patterns, null, null);
+		}
+		if (tk.endsWith("{}")) { //rv符合tv条件或在tv内
+			Logic logic = new Logic(tk.substring(0, tk.length() - 2));
+			if (tv instanceof String) {
+				return new Rule(RULE_SQL, tk, tv, logic, "{}", null, null, null);
+			}
+			if (tv instanceof JSONArray) {
+				return new Rule(RULE_IN, tk, tv, logic, null, null, new HashSet<Object>((JSONArray) tv), null);
+			}
+			throw new UnsupportedDataTypeException("服务器Request表verify配置错误！");
+		}
+		if (tk.endsWith("<>")) { //rv包含tv内的值
+			Logic logic = new Logic(tk.substring(0, tk.length() - 2));
+			return new Rule(RULE_CONTAINS, tk, tv, logic, null, null, null, AbstractSQLConfig.newJSONArray(tv).toArray());
+		}
+		throw new IllegalArgumentException("服务器Request表verify配置错误！");
+	}
+
+
+	/**从request提取target指定的内容，和 {@link Structure#parseRequest} 一致
+	 * @param method
+	 * @param name
+	 * @param request
+	 * @param creator
+	 * @return
+	 * @throws Exception
+	 */
+	public JSONObject parseRequest(@NotNull RequestMethod method, String name, JSONObject request, SQLCreator creator) throws Exception {
+		if (request == null) {
+			return null;
+		}
+		if (RequestRole.get(request.getString(JSONRequest.KEY_ROLE)) == RequestRole.ADMIN) {
+			throw new IllegalArgumentException("角色设置错误！不允许在写操作Request中传 " + name + 
+					":{ " + JSONRequest.KEY_ROLE + ":admin } ！");
+		}
+
+		return parse(method, name, request, creator);
+	}
+
+	/**
+	 * @param method
+	 * @param name
+	 * @param real
+	 * @param creator
+	 * @return
+	 * @throws Exception
+	 */
+	private JSONObject parse(@NotNull RequestMethod method, String name, @NotNull JSONObject real, SQLCreator creator) throws Exception {
+		//移除字段
+		for (String r : removes) {
+			real.remove(r);
+		}
+
+		//判断必要字段是否都有
+		for (String s : necessarys) {
+			if (real.get(s) == null) {
+				throw new IllegalArgumentException(name
+						+ " 里面不能缺少 " + s + " 等[" + necessary + "]内的任何字段！");
+			}
+		}
+
+		//解析内容
+		Set<String> objKeySet = new HashSet<String>();
+		String key;
+		Object tvalue;
+		Object rvalue;
+		for (int i = 0; i < keys.length; i++) {
+			key = keys[i];
+			tvalue = values[i];
+			rvalue = real.get(key);
+
+			if (tvalue instanceof CompiledStructure) {
+				JSONObject robj = (JSONObject) rvalue;
+				if (robj == null) { //不允许不传Target中指定的Table
+					throw new IllegalArgumentException(method.name() + "请求，请在 " + name + " 内传 " + key + ":{} ！");
+				}
+				if (zuo.biao.apijson.JSONObject.isTableKey(key)) {
+					if (method == RequestMethod.POST) {
+						if (robj.containsKey(KEY_ID)) {
+							throw new IllegalArgumentException("POST请求，" + name + "/" + key + " 不能传 " + KEY_ID + " ！");
+						}
+					} else if (RequestMethod.isQueryMethod(method) == false) {
+						Structure.verifyId(method.name(), name, key, robj, KEY_ID, true);
+						Structure.verifyId(method.name(), name, key, robj, KEY_USER_ID, false);
+					}
+				}
+
+				rvalue = ((CompiledStructure) tvalue).parseRequest(method, key, robj, creator);
+				objKeySet.add(key);
+			} else if (tvalue instanceof JSONArray) {
+				rvalue = (JSONArray) rvalue;
+			}
+
+			if (rvalue != null) {
+				real.put(key, rvalue);
+			}
+		}
+
+		//判断不允许传的key
+		for (String rk : real.keySet()) {
+			if (rk == null) {
+				continue;
+			}
+			if (disallowAll ? isDisallow(rk, objKeySet) : disallowSet.contains(rk)) { //不允许的字段
+				throw new IllegalArgumentException(name + " 里面不允许传 " + rk + " 等"
+						+ StringUtil.getString(disallowAll ? getDisallowList(real, objKeySet) : disallowList) + "内的任何字段！");
+			}
+
+			//不在target内的 key:{}
+			if (rk.startsWith("@") == false && objKeySet.contains(rk) == false && real.get(rk) instanceof JSONObject) {
+				throw new UnsupportedOperationException(name + " 里面不允许传 " + rk + ":{} ！");
+			}
+		}
+
+		//校验与修改Request，在上面校验后操作，避免 put/add 进去的Table 被当成原Request的内容
+		for (int i = 0; i < typeKeys.length; i++) {
+			type(typeKeys[i], types[i], real);
+		}
+		for (Rule rule : rules) {
+			verify(rule, real, creator);
+		}
+		if (addMap != null) {
+			for (Entry<String, Object> e : addMap.entrySet()) {
+				if (real.containsKey(e.getKey()) == false) {
+					real.put(e.getKey(), ResultCache.copy(e.getValue()));
+				}
+			}
+		}
+		if (putMap != null) {
+			for (Entry<String, Object> e : putMap.entrySet()) {
+				real.put(e.getKey(), ResultCache.copy(e.getValue()));
+			}
+		}
+		if (replaceMap != null) {
+			for (Entry<String, Object> e : replaceMap.entrySet()) {
+				if (real.containsKey(e.getKey())) {
+					real.put(e.getKey(), ResultCache.copy(e.getValue()));
+				}
+			}
+		}
+
+		//校验重复
+		if (uniques.length > 0) {
+			long exceptId = real.getLongValue(KEY_ID);
+			for (String u : uniques) {
+				Structure.verifyRepeat(name, u, real.get(u), exceptId);
+			}
+		}
+
+		return real;
+	}
+
+	/**DISALLOW:"!" 时，除了 @key, NECESSARY 和 key:{} 都不允许
+	 * @param key
+	 * @param objKeySet
+	 * @return
+	 */
+	private boolean isDisallow(@NotNull String key, @NotNull Set<String> objKeySet) {
+		return key.startsWith("@") == false && necessarySet.contains(key) == false && objKeySet.contains(key) == false;
+	}
+	private List<String> getDisallowList(@NotNull JSONObject real, @NotNull Set<String> objKeySet) {
+		List<String> list = new ArrayList<String>();
+		for (String key : real.keySet()) {
+			if (key != null && isDisallow(key, objKeySet)) {
+				list.add(key);
+			}
+		}
+		return list;
+	}
+
+
+	/**验证值类型
+	 * @param tk
+	 * @param type
+	 * @param real
+	 * @throws Exception
+	 */
+	private static void type(@NotNull String tk, int type, @NotNull JSONObject real) throws Exception {
+		Object rv = real.get(tk);
+		if (rv == null) {
+			return;
+		}
+
+		switch (type) {
+		case TYPE_BOOLEAN:
+			if (rv instanceof Boolean == false) {
+				throw new UnsupportedDataTypeException(tk + ":value 的value不合法！类型必须是 Boolean !");
+			}
+			break;
+		case TYPE_LONG:
+			try {
+				Long.parseLong(real.getString(tk));
+			} catch (Exception e) {
+				throw new UnsupportedDataTypeException(tk + ":value 的value不合法！类型必须是 Long !");
+			}
+			break;
+		case TYPE_DOUBLE:
+			try {
+				Double.parseDouble(rv.toString());
+			} catch (Exception e) {
+				throw new UnsupportedDataTypeException(tk + ":value 的value不合法！类型必须是 Double !");
+			}
+			break;
+		case TYPE_STRING:
+			if (rv instanceof String == false) {
+				throw new UnsupportedDataTypeException(tk + ":value 的value不合法！类型必须是 String !");
+			}
+			break;
+		case TYPE_OBJECT:
+			if (rv instanceof Map == false) {
+				throw new UnsupportedDataTypeException(tk + ":value 的value不合法！类型必须是 {Object} !");
+			}
+			break;
+		default: //TYPE_ARRAY
+			if (rv instanceof Collection == false) {
+				throw new UnsupportedDataTypeException(tk + ":value 的value不合法！类型必须是 [Array] !");
+			}
+			break;
+		}
+	}
+
+	/**验证值
+	 * @param rule
+	 * @param real
+	 * @param creator
+	 * @throws Exception
+	 */
+	private static void verify(@NotNull Rule rule, @NotNull JSONObject real, SQLCreator creator) throws Exception {
+		if (rule.type == RULE_SQL) {
+			Structure.sqlVerify(rule.funChar, real, rule.logic, rule.tv, creator);
+			return;
+		}
+
+		Logic logic = rule.logic;
+		String rk = logic.getKey();
+		Object rv = real.get(rk);
+		if (rv == null) {
+			return;
+		}
+
+		switch (rule.type) {
+		case RULE_IN:
+			if (rule.valueSet.contains(rv) == logic.isNot()) {
+				throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+			}
+			return;
+		case RULE_REGEX:
+			String s = "" + rv;
+			boolean isOr = false;
+			for (Pattern reg : rule.patterns) {
+				if (reg.matcher(s).matches()) {
+					if (logic.isNot()) {
+						throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+					}
+					if (logic.isOr()) {
+						isOr = true;
+						break;
+					}
+				} else if (logic.isAnd()) {
+					throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+				}
+			}
+			if (isOr == false && logic.isOr()) {
+				throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+			}
+			return;
+		default: //RULE_CONTAINS
+			if (rv instanceof JSONArray == false) {
+				throw new UnsupportedDataTypeException("服务器Request表verify配置错误！");
+			}
+			isOr = false;
+			for (Object o : rule.values) {
+				if (((JSONArray) rv).contains(o)) {
+					if (logic.isNot()) {
+						throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+					}
+					if (logic.isOr()) {
+						isOr = true;
+						break;
+					}
+				} else if (logic.isAnd()) {
+					throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+				}
+			}
+			if (isOr == false && logic.isOr()) {
+				throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + rule.tk + ":" + rule.tv + " !");
+			}
+			return;
+		}
+	}
+
+}
@@ -0,0 +1,222 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.alibaba.fastjson.JSONArray;
+
+import zuo.biao.apijson.StringUtil;
+
+/**在内存里计算 Request 表 VERIFY 中 key{}:"condition" 和 key$:"pattern" 的条件，不用执行 SQL
+ * <br > 只支持和 MySQL 结果完全一致的部分，其它的返回 null，由 {@link Structure} 执行 SQL 校验：
+ * <br > key{}:">=1,<=100000" 的每个条件都是 比较运算符 + 数字，值也是数字，和 MySQL 一样转为 double 比较
+ * <br > key$:"a%" 的值和 pattern 都是可见的 ASCII 字符，且不含 \ 和 '，% 匹配任意个，_ 匹配一个
+ * @author Lemon
+ */
+public class ConditionEvaluator {
+
+	/**
+	 * LIKE 是否忽略大小写，MySQL 默认的 *_ci 排序规则忽略，*_bin, *_cs 不忽略
+	 */
+	public static boolean LIKE_IGNORE_CASE = true;
+
+	private static final Pattern PATTERN_NUMBER; //MySQL 字符串转数字时能完整解析的
+	private static final Pattern PATTERN_COMPARE;
+	static {
+		PATTERN_NUMBER = Pattern.compile("^-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?$");
+		PATTERN_COMPARE = Pattern.compile("^ *(<=|>=|<>|!=|=|<|>) *(-?[0-9]+(\\.[0-9]+)?) *$");
+	}
+
+
+	/**计算条件
+	 * @param funChar "{}" 或 "$"
+	 * @param logic 去掉 funChar 后的 key
+	 * @param rv 不能为 null
+	 * @param tv
+	 * @param prepared SQL 是否预编译，预编译时 condition 有更严格的限制
+	 * @return 是否符合条件，不支持则返回 null
+	 */
+	public static Boolean evaluate(@NotNull String funChar, @NotNull Logic logic, @NotNull Object rv, Object tv, boolean prepared) {
+		if ("{}".equals(funChar)) {
+			return tv instanceof String ? evaluateRange(logic, rv, (String) tv, prepared) : null;
+		}
+		if ("$".equals(funChar)) {
+			return evaluateSearch(logic, rv, tv);
+		}
+		return null;
+	}
+
+	/**计算 'rv' condition0 AND|OR 'rv' condition1 ...
+	 * @param logic
+	 * @param rv
+	 * @param range
+	 * @param prepared
+	 * @return 不支持则返回 null
+	 * @see AbstractSQLConfig#getRangeString(String, Object)
+	 */
+	public static Boolean evaluateRange(@NotNull Logic logic, @NotNull Object rv, @NotNull String range, boolean prepared) {
+		if (prepared && AbstractSQLConfig.PATTERN_RANGE.matcher(range).matches() == false) {
+			return null; //SQL 会报错
+		}
+		String[] conditions = StringUtil.split(range);
+		if (conditions == null || conditions.length <= 0) {
+			return null;
+		}
+		String s = String.valueOf(rv);
+		if (PATTERN_NUMBER.matcher(s).matches() == false) {
+			return null;
+		}
+		double v = Double.parseDouble(s);
+
+		boolean[] results = new boolean[conditions.length];
+		Matcher m;
+		for (int i = 0; i < conditions.length; i++) {
+			m = conditions[i] == null ? null : PATTERN_COMPARE.matcher(conditions[i]);
+			if (m == null || m.matches() == false) { //函数等条件
+				return null;
+			}
+			results[i] = compare(v, m.group(1), Double.parseDouble(m.group(2)));
+		}
+
+		return combine(logic, results);
+	}
+
+	/**计算 'rv' LIKE 'value0' AND|OR 'rv' LIKE 'value1' ...
+	 * @param logic
+	 * @param rv
+	 * @param value String 或 [String]
+	 * @return 不支持则返回 null
+	 * @see AbstractSQLConfig#getSearchString(String, Object)
+	 */
+	public static Boolean evaluateSearch(@NotNull Logic logic, @NotNull Object rv, Object value) {
+		if (value == null) {
+			return null;
+		}
+		JSONArray arr = AbstractSQLConfig.newJSONArray(value);
+		if (arr.isEmpty()) {
+			return null;
+		}
+		String s = String.valueOf(rv);
+		if (isLikeSafe(s) == false) {
+			return null;
+		}
+
+		boolean[] results = new boolean[arr.size()];
+		for (int i = 0; i < results.length; i++) {
+			Object p = arr.get(i);
+			if (p instanceof String == false || isLikeSafe((String) p) == false) { //SQL 会报错或和 MySQL 转义、排序规则有关
+				return null;
+			}
+			results[i] = like(s, (String) p);
+		}
+
+		return combine(logic, results);
+	}
+
+
+	/**
+	 * @param v
+	 * @param operator
+	 * @param target
+	 * @return v operator target
+	 */
+	private static boolean compare(double v, @NotNull String operator, double target) {
+		switch (operator) {
+		case "<=":
+			return v <= target;
+		case ">=":
+			return v >= target;
+		case "<":
+			return v < target;
+		case ">":
+			return v > target;
+		case "=":
+			return v == target;
+		default: //<>, !=
+			return v != target;
+		}
+	}
+
+	/**和 SQL 一样用 & 或 | 连接，! 为 NOT( | )
+	 * @param logic
+	 * @param results
+	 * @return
+	 */
+	private static boolean combine(@NotNull Logic logic, @NotNull boolean[] results) {
+		boolean and = logic.isAnd();
+		boolean result = and;
+		for (boolean r : results) {
+			if (r != and) {
+				result = r;
+				break;
+			}
+		}
+		return logic.isNot() ? ! result : result;
+	}
+
+	/**是否为可见的 ASCII 字符且不含 \ 和 '，这些字符在 SQL 字符串和 LIKE 里没有转义，各种排序规则下除了大小写都不相等
+	 * @param s
+	 * @return
+	 */
+	private static boolean isLikeSafe(@NotNull String s) {
+		char c;
+		for (int i = 0; i < s.length(); i++) {
+			c = s.charAt(i);
+			if (c < ' ' || c > '~' || c == '\\' || c == '\'') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**s LIKE pattern，% 匹配任意个字符，_ 匹配一个字符
+	 * @param s
+	 * @param pattern
+	 * @return
+	 */
+	public static boolean like(@NotNull String s, @NotNull String pattern) {
+		int si = 0, pi = 0;
+		int starPi = -1, starSi = 0; //上一个 % 的位置，不匹配时从这里回溯
+		while (si < s.length()) {
+			if (pi < pattern.length() && pattern.charAt(pi) == '%') {
+				starPi = pi++;
+				starSi = si;
+			}
+			else if (pi < pattern.length() && (pattern.charAt(pi) == '_' || equals(pattern.charAt(pi), s.charAt(si)))) {
+				pi++;
+				si++;
+			}
+			else if (starPi >= 0) {
+				pi = starPi + 1;
+				si = ++starSi;
+			}
+			else {
+				return false;
+			}
+		}
+		while (pi < pattern.length() && pattern.charAt(pi) == '%') {
+			pi++;
+		}
+		return pi == pattern.length();
+	}
+
+	private static boolean equals(char a, char b) {
+		return a == b || (LIKE_IGNORE_CASE && Character.toLowerCase(a) == Character.toLowerCase(b));
+	}
+
+}
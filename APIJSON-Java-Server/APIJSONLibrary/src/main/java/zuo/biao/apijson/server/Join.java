@@ -0,0 +1,77 @@
+/*Copyright ©2015 TommyLemon(https://github.com/TommyLemon)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+/**LEFT JOIN 的副表，副表通过 key@ 等值引用数组内主表的字段
+ * 例如 []:{ Moment:{}, User:{ "id@":"/Moment/userId" } } 中的 User
+ * @author Lemon
+ */
+public class Join {
+
+	private String name; //副表在请求里的key，例如 User
+	private String key; //副表被引用赋值的key，例如 id
+	private String targetKey; //主表被引用的key，例如 userId
+	private SQLConfig joinConfig; //副表去掉 key@ 后的SQLConfig，已经过权限校验
+
+	public Join() {
+		//default
+	}
+	public Join(String name, String key, String targetKey, SQLConfig joinConfig) {
+		this.name = name;
+		this.key = key;
+		this.targetKey = targetKey;
+		this.joinConfig = joinConfig;
+	}
+
+
+	public String getName() {
+		return name;
+	}
+	public Join setName(String name) {
+		this.name = name;
+		return this;
+	}
+	public String getKey() {
+		return key;
+	}
+	public Join setKey(String key) {
+		this.key = key;
+		return this;
+	}
+	public String getTargetKey() {
+		return targetKey;
+	}
+	public Join setTargetKey(String targetKey) {
+		this.targetKey = targetKey;
+		return this;
+	}
+	public SQLConfig getJoinConfig() {
+		return joinConfig;
+	}
+	public Join setJoinConfig(SQLConfig joinConfig) {
+		this.joinConfig = joinConfig;
+		return this;
+	}
+
+
+	/**获取 JOIN 查询里表的别名，主表为 t0，副表依次为 t1, t2 ...
+	 * @param index
+	 * @return
+	 */
+	public static String getAlias(int index) {
+		return "t" + index;
+	}
+
+}
@@ -0,0 +1,67 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import zuo.biao.apijson.Log;
+
+/**进程内的缓存失效消息总线，发布后直接在当前线程通知订阅者
+ * @author Lemon
+ */
+public class LocalInvalidationBus implements CacheInvalidationBus {
+	private static final String TAG = "LocalInvalidationBus";
+
+	private final List<Callback> callbackList = new CopyOnWriteArrayList<Callback>();
+
+	@Override
+	public void publish(@NotNull String table, List<Object> idList) {
+		dispatch(table, idList);
+	}
+
+	/**通知当前节点的订阅者，某个订阅者出错不影响其它的
+	 * @param table
+	 * @param idList
+	 */
+	protected void dispatch(@NotNull String table, List<Object> idList) {
+		for (Callback callback : callbackList) {
+			try {
+				callback.onInvalidate(table, idList);
+			} catch (Exception e) {
+				Log.e(TAG, "dispatch  callback.onInvalidate(table, idList) >> catch (Exception e) >> table = " + table + "; " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void subscribe(@NotNull Callback callback) {
+		if (callbackList.contains(callback) == false) {
+			callbackList.add(callback);
+		}
+	}
+
+	@Override
+	public void unsubscribe(@NotNull Callback callback) {
+		callbackList.remove(callback);
+	}
+
+	@Override
+	public void close() {
+		callbackList.clear();
+	}
+
+}
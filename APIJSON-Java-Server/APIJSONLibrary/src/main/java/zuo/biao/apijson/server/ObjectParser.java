@@ -80,7 +80,6 @@ public interface ObjectParser {
 	 */
 	Object onFunctionParse(JSONObject json, String function) throws Exception;
 	
-	//TODO 改用 MySQL json_add,json_remove,json_contains 等函数！ 
 	/**PUT key:[]
 	 * @param key
 	 * @param array
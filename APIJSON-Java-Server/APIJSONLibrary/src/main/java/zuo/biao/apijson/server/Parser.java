@@ -14,6 +14,8 @@ limitations under the License.*/
 
 package zuo.biao.apijson.server;
 
+import java.util.Map;
+
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
@@ -71,6 +73,8 @@ public interface Parser {
 	
 	JSONObject parseCorrectRequest(JSONObject target) throws Exception;
 
+	JSONObject parseCorrectRequest(CompiledStructure compiled) throws Exception;
+
 	JSONObject parseCorrectResponse(String table, JSONObject response) throws Exception;
 
 	JSONObject getStructure(String table, String key, String value, int version) throws Exception;
@@ -81,6 +85,21 @@ public interface Parser {
 
 	JSONArray onArrayParse(JSONObject request, String parentPath, String name) throws Exception;
 
+	/**批量查询数组内被引用的子对象
+	 * @param parser 子对象的ObjectParser
+	 * @param key 被引用赋值的key
+	 * @param targetPath 引用路径
+	 * @throws Exception
+	 */
+	void onReferenceBatchParse(ObjectParser parser, String key, String targetPath) throws Exception;
+
+	/**并行解析最外层互相独立的对象和数组
+	 * @param request 最外层的请求
+	 * @return key - 解析结果，出错的为 Exception，没有并行解析则返回 null
+	 * @throws Exception
+	 */
+	Map<String, Object> onParallelParse(JSONObject request) throws Exception;
+
 	ObjectParser createObjectParser(JSONObject request, String parentPath, String name, SQLConfig arrayConfig) throws Exception;
 
 	void putQueryResult(String path, Object result);
@@ -0,0 +1,162 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**读写分离时选择从库，以及每个访问者写后读的时间窗口
+ * 查询按 {@link #STRATEGY} 在 {@link SQLConfig#getDBReplicaUriList()} 中选一个从库，
+ * 写操作、写事务内的查询、访问者写后 {@link #READ_YOUR_WRITES_TIME} 内的查询都在主库执行
+ * @author Lemon
+ */
+public class ReplicaRouter {
+
+	public static final int STRATEGY_ROUND_ROBIN = 0; //轮询
+	public static final int STRATEGY_LEAST_LATENCY = 1; //最近查询耗时最短的
+
+	/**
+	 * 选择从库的策略
+	 */
+	public static int STRATEGY = STRATEGY_ROUND_ROBIN;
+	/**
+	 * 访问者写后这段时间内的查询都在主库执行，避免从库复制延迟导致读不到刚写的数据，单位为毫秒，<= 0 则不限制
+	 */
+	public static long READ_YOUR_WRITES_TIME = 3*1000;
+	/**
+	 * 记录写时间的访问者最大数量，超过则淘汰最久没写的
+	 */
+	public static int READ_YOUR_WRITES_SIZE = 10000;
+	/**
+	 * 查询耗时的平滑系数，越大越偏向最近的耗时
+	 */
+	public static double LATENCY_WEIGHT = 0.2;
+
+
+	private static final Map<String, AtomicInteger> INDEX_MAP = new ConcurrentHashMap<String, AtomicInteger>();
+	private static final Map<String, Double> LATENCY_MAP = new ConcurrentHashMap<String, Double>();
+
+	/**选择一个从库
+	 * @param primaryUri 主库地址
+	 * @param replicaUriList 从库地址列表
+	 * @return 没有从库则返回 null
+	 */
+	public static String select(String primaryUri, List<String> replicaUriList) {
+		int size = replicaUriList == null ? 0 : replicaUriList.size();
+		if (size <= 0) {
+			return null;
+		}
+		if (size == 1) {
+			return replicaUriList.get(0);
+		}
+
+		if (STRATEGY == STRATEGY_LEAST_LATENCY) {
+			String uri = null;
+			double min = Double.MAX_VALUE;
+			Double latency;
+			for (String u : replicaUriList) {
+				latency = LATENCY_MAP.get(u);
+				if (latency == null) { //还没查询过，先试一下
+					return u;
+				}
+				if (latency < min) {
+					min = latency;
+					uri = u;
+				}
+			}
+			return uri;
+		}
+
+		String key = String.valueOf(primaryUri);
+		AtomicInteger index = INDEX_MAP.get(key);
+		if (index == null) {
+			INDEX_MAP.putIfAbsent(key, new AtomicInteger());
+			index = INDEX_MAP.get(key);
+		}
+		return replicaUriList.get((index.getAndIncrement() & Integer.MAX_VALUE) % size);
+	}
+
+	/**记录从库查询耗时，用于 {@link #STRATEGY_LEAST_LATENCY}
+	 * @param uri
+	 * @param nanos
+	 */
+	public static void onLatency(String uri, long nanos) {
+		if (uri == null) {
+			return;
+		}
+		Double last = LATENCY_MAP.get(uri);
+		LATENCY_MAP.put(uri, last == null ? nanos : (1 - LATENCY_WEIGHT)*last + LATENCY_WEIGHT*nanos);
+	}
+	/**获取从库平滑后的查询耗时
+	 * @param uri
+	 * @return 单位为纳秒，还没查询过则返回 null
+	 */
+	public static Double getLatency(String uri) {
+		return uri == null ? null : LATENCY_MAP.get(uri);
+	}
+
+
+	/**
+	 * 访问者 id - 写后读的截止时间
+	 */
+	private static final Map<Object, Long> WRITE_MAP;
+	static {
+		WRITE_MAP = new LinkedHashMap<Object, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+				return size() > READ_YOUR_WRITES_SIZE;
+			}
+		};
+	}
+
+	/**访问者写了数据
+	 * @param visitorId
+	 */
+	public static void onWrite(Object visitorId) {
+		if (visitorId == null || READ_YOUR_WRITES_TIME <= 0) {
+			return;
+		}
+		synchronized (WRITE_MAP) {
+			WRITE_MAP.put(visitorId, System.currentTimeMillis() + READ_YOUR_WRITES_TIME);
+		}
+	}
+	/**访问者是否在写后读的时间窗口内，是则查询要在主库执行
+	 * @param visitorId
+	 * @return
+	 */
+	public static boolean isReadYourWrites(Object visitorId) {
+		if (visitorId == null) {
+			return false;
+		}
+		synchronized (WRITE_MAP) {
+			Long time = WRITE_MAP.get(visitorId);
+			if (time == null) {
+				return false;
+			}
+			if (time < System.currentTimeMillis()) {
+				WRITE_MAP.remove(visitorId);
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,311 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.CacheTime;
+import zuo.biao.apijson.Log;
+
+/**跨请求共享的 GET, HEAD 查询结果缓存，key 为角色 + 带值的 SQL
+ * 只缓存在 {@link #TIME_MAP} 中声明了缓存时间的表，表被增删改后清除包含这个表的缓存
+ * 存入和取出时都会复制，请求内修改结果不会影响缓存
+ * @author Lemon
+ */
+public class ResultCache {
+	private static final String TAG = "ResultCache";
+
+	/**
+	 * 缓存的最大数量，超出则淘汰最久没访问的，<= 0 则不缓存
+	 */
+	public static int SIZE = 10000;
+
+	/**
+	 * 表名 - { 查到结果时的缓存时间, 没查到结果时的缓存时间 }，单位为毫秒，没有则不缓存
+	 */
+	public static final Map<String, long[]> TIME_MAP;
+	static {
+		TIME_MAP = new HashMap<String, long[]>();
+	}
+
+	/**获取缓存时间
+	 * @param cacheTime
+	 * @return { cacheTime.value(), cacheTime.notFound() }，cacheTime == null 时返回 null
+	 */
+	public static long[] getTime(CacheTime cacheTime) {
+		return cacheTime == null ? null : new long[]{cacheTime.value(), cacheTime.notFound()};
+	}
+
+
+	private static class Item {
+		final Object value;
+		final String[] tables;
+		final long expireTime;
+
+		Item(Object value, String[] tables, long expireTime) {
+			this.value = value;
+			this.tables = tables;
+			this.expireTime = expireTime;
+		}
+	}
+
+	private static final Map<String, Item> CACHE;
+	private static final Map<String, Set<String>> TABLE_KEY_MAP; //表名 - 包含这个表的缓存 key
+	private static final Map<String, Long> TABLE_VERSION_MAP; //表名 - 最后一次清除时的版本
+	private static long version; //每次清除都加 1
+	static {
+		TABLE_KEY_MAP = new HashMap<String, Set<String>>();
+		TABLE_VERSION_MAP = new HashMap<String, Long>();
+		CACHE = new LinkedHashMap<String, Item>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Item> eldest) {
+				if (size() <= SIZE) {
+					return false;
+				}
+				unindex(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+
+	/**获取缓存的 key
+	 * @param config
+	 * @param sql 带值的 SQL
+	 * @return
+	 */
+	public static String getKey(@NotNull SQLConfig config, @NotNull String sql) {
+		return config.getRole() + "/" + sql;
+	}
+
+	/**获取查询涉及的表，第一个为主表
+	 * @param config
+	 * @return
+	 */
+	public static String[] getTables(@NotNull SQLConfig config) {
+		List<Join> joinList = config.getJoinList();
+		String[] tables = new String[1 + (joinList == null ? 0 : joinList.size())];
+		tables[0] = config.getTable();
+		for (int i = 1; i < tables.length; i++) {
+			Join join = joinList.get(i - 1);
+			tables[i] = join.getJoinConfig() == null ? join.getName() : join.getJoinConfig().getTable();
+		}
+		return tables;
+	}
+
+	/**获取缓存时间，取涉及的表中最短的
+	 * @param tables
+	 * @param notFound 是否没查到结果
+	 * @return 主表没有声明缓存时间则返回 0
+	 */
+	public static long getTime(@NotNull String[] tables, boolean notFound) {
+		long time = 0;
+		long[] times;
+		for (int i = 0; i < tables.length; i++) {
+			times = TIME_MAP.get(tables[i]);
+			if (times == null) {
+				if (i <= 0) {
+					return 0;
+				}
+				continue;
+			}
+			long t = notFound ? times[1] : times[0];
+			time = i <= 0 ? t : Math.min(time, t);
+		}
+		return time;
+	}
+
+	/**是否可以缓存
+	 * @param tables
+	 * @return
+	 */
+	public static boolean isCacheable(@NotNull String[] tables) {
+		return SIZE > 0 && (getTime(tables, false) > 0 || getTime(tables, true) > 0);
+	}
+
+
+	/**获取当前版本，在查询前获取，存入时用来判断查询期间表是否被修改过
+	 * @return
+	 */
+	public static long getVersion() {
+		synchronized (CACHE) {
+			return version;
+		}
+	}
+
+	/**获取缓存
+	 * @param key
+	 * @return 复制的 Map<Integer, JSONObject> 或 Long，没有或已过期则返回 null
+	 */
+	public static Object get(@NotNull String key) {
+		Item item;
+		synchronized (CACHE) {
+			item = CACHE.get(key);
+			if (item != null && item.expireTime < System.currentTimeMillis()) {
+				remove(key);
+				item = null;
+			}
+		}
+		return item == null ? null : copy(item.value);
+	}
+
+	/**保存缓存，查询期间涉及的表被修改过则不保存
+	 * @param key
+	 * @param tables
+	 * @param value Map<Integer, JSONObject> 或 Long，空 Map 和 0 视为没查到结果
+	 * @param version 查询前的 {@link #getVersion()}
+	 */
+	public static void put(@NotNull String key, @NotNull String[] tables, @NotNull Object value, long version) {
+		boolean notFound = value instanceof Map ? ((Map<?, ?>) value).isEmpty() : Long.valueOf(0).equals(value);
+		long time = SIZE <= 0 ? 0 : getTime(tables, notFound);
+		if (time <= 0) {
+			return;
+		}
+
+		Item item = new Item(copy(value), tables, System.currentTimeMillis() + time);
+		synchronized (CACHE) {
+			Long v;
+			for (String table : tables) {
+				v = TABLE_VERSION_MAP.get(table);
+				if (v != null && v > version) {
+					Log.d(TAG, "put  v != null && v > version >> return; table = " + table);
+					return;
+				}
+			}
+
+			remove(key);
+			CACHE.put(key, item);
+			Set<String> keySet;
+			for (String table : tables) {
+				keySet = TABLE_KEY_MAP.get(table);
+				if (keySet == null) {
+					keySet = new HashSet<String>();
+					TABLE_KEY_MAP.put(table, keySet);
+				}
+				keySet.add(key);
+			}
+		}
+	}
+
+	/**清除包含这个表的缓存，表被增删改后调用
+	 * @param table
+	 */
+	public static void invalidate(String table) {
+		if (table == null) {
+			return;
+		}
+		synchronized (CACHE) {
+			version ++;
+			TABLE_VERSION_MAP.put(table, version);
+
+			Set<String> keySet = TABLE_KEY_MAP.remove(table);
+			if (keySet != null) {
+				for (String key : keySet) {
+					remove(key);
+				}
+			}
+		}
+	}
+
+	/**清空缓存
+	 */
+	public static void clear() {
+		synchronized (CACHE) {
+			version ++;
+			for (String table : TABLE_KEY_MAP.keySet()) {
+				TABLE_VERSION_MAP.put(table, version);
+			}
+			CACHE.clear();
+			TABLE_KEY_MAP.clear();
+		}
+	}
+
+
+	/**移除缓存，需要在 synchronized (CACHE) 内调用
+	 * @param key
+	 */
+	private static void remove(String key) {
+		Item item = CACHE.remove(key);
+		if (item != null) {
+			unindex(key, item);
+		}
+	}
+	/**从 TABLE_KEY_MAP 中移除，需要在 synchronized (CACHE) 内调用
+	 * @param key
+	 * @param item
+	 */
+	private static void unindex(String key, Item item) {
+		Set<String> keySet;
+		for (String table : item.tables) {
+			keySet = TABLE_KEY_MAP.get(table);
+			if (keySet != null) {
+				keySet.remove(key);
+				if (keySet.isEmpty()) {
+					TABLE_KEY_MAP.remove(table);
+				}
+			}
+		}
+	}
+
+
+	/**深度复制，JSONObject, JSONArray 和 Map<Integer, JSONObject> 复制，其它的值不可变，直接返回
+	 * @param value
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static Object copy(Object value) {
+		if (value instanceof ColumnarResult) {
+			return ((ColumnarResult) value).copy();
+		}
+		if (value instanceof JSONObject) {
+			JSONObject obj = (JSONObject) value;
+			JSONObject copy = new JSONObject(true);
+			for (Entry<String, Object> entry : obj.entrySet()) {
+				copy.put(entry.getKey(), copy(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value instanceof JSONArray) {
+			JSONArray arr = (JSONArray) value;
+			JSONArray copy = new JSONArray(arr.size());
+			for (Object item : arr) {
+				copy.add(copy(item));
+			}
+			return copy;
+		}
+		if (value instanceof Map) {
+			Map<Integer, JSONObject> map = (Map<Integer, JSONObject>) value;
+			Map<Integer, JSONObject> copy = new LinkedHashMap<Integer, JSONObject>(map.size());
+			for (Entry<Integer, JSONObject> entry : map.entrySet()) {
+				copy.put(entry.getKey(), (JSONObject) copy(entry.getValue()));
+			}
+			return copy;
+		}
+		return value;
+	}
+
+}
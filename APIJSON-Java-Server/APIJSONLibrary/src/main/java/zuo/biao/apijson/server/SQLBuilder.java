@@ -0,0 +1,184 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import static zuo.biao.apijson.SQL.AND;
+import static zuo.biao.apijson.SQL.NOT;
+import static zuo.biao.apijson.SQL.OR;
+
+import java.util.ArrayDeque;
+
+/**拼接SQL，代替循环里的 String += ，避免长 IN 列表、多行 VALUES 等的平方级复制
+ * 每个线程复用几个 StringBuilder，嵌套使用时各自独立
+ * <pre>
+ * SQLBuilder b = SQLBuilder.obtain();
+ * b.append(key).in(not).open();
+ * ...
+ * return b.release();
+ * </pre>
+ * @author Lemon
+ */
+public class SQLBuilder {
+
+	private static final int MAX_POOL_SIZE = 8;
+	private static final int MAX_KEEP_CAPACITY = 64*1024; //太大的不复用，避免长期占用内存
+
+	private static final ThreadLocal<ArrayDeque<SQLBuilder>> POOL = new ThreadLocal<ArrayDeque<SQLBuilder>>() {
+		@Override
+		protected ArrayDeque<SQLBuilder> initialValue() {
+			return new ArrayDeque<SQLBuilder>(MAX_POOL_SIZE);
+		}
+	};
+
+	/**从当前线程的池里取出一个空的 SQLBuilder，用完必须调用 {@link #release()}
+	 * @return
+	 */
+	public static SQLBuilder obtain() {
+		SQLBuilder builder = POOL.get().poll();
+		return builder != null ? builder : new SQLBuilder();
+	}
+
+
+	private final StringBuilder sb;
+
+	private SQLBuilder() {
+		sb = new StringBuilder(256);
+	}
+
+	/**获取拼接结果并放回池里，之后不能再使用
+	 * @return
+	 */
+	public String release() {
+		String s = sb.toString();
+		sb.setLength(0);
+		if (sb.capacity() <= MAX_KEEP_CAPACITY) {
+			ArrayDeque<SQLBuilder> pool = POOL.get();
+			if (pool.size() < MAX_POOL_SIZE) {
+				pool.push(this);
+			}
+		}
+		return s;
+	}
+
+	public int length() {
+		return sb.length();
+	}
+	public boolean isEmpty() {
+		return sb.length() <= 0;
+	}
+
+
+	public SQLBuilder append(String s) {
+		sb.append(s);
+		return this;
+	}
+	public SQLBuilder append(Object o) {
+		sb.append(o);
+		return this;
+	}
+	public SQLBuilder append(char c) {
+		sb.append(c);
+		return this;
+	}
+	public SQLBuilder append(long l) {
+		sb.append(l);
+		return this;
+	}
+
+	/**字段名，可以带表的别名
+	 * @param alias 为 null 则不加
+	 * @param key
+	 * @return `alias`.key
+	 */
+	public SQLBuilder key(String alias, String key) {
+		if (alias != null) {
+			sb.append('`').append(alias).append("`.");
+		}
+		sb.append(key);
+		return this;
+	}
+
+	/**预编译的占位符
+	 * @return ?
+	 */
+	public SQLBuilder placeholder() {
+		sb.append('?');
+		return this;
+	}
+	/**预编译的占位符
+	 * @param count
+	 * @return ?,?,?
+	 */
+	public SQLBuilder placeholders(int count) {
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('?');
+		}
+		return this;
+	}
+
+	/**非第一项时拼接逗号
+	 * @param first
+	 * @return
+	 */
+	public SQLBuilder comma(boolean first) {
+		if (first == false) {
+			sb.append(',');
+		}
+		return this;
+	}
+	/**非第一项时拼接逻辑运算符
+	 * @param first
+	 * @param and
+	 * @return AND 或 OR
+	 */
+	public SQLBuilder logic(boolean first, boolean and) {
+		if (first == false) {
+			sb.append(and ? AND : OR);
+		}
+		return this;
+	}
+	public SQLBuilder and() {
+		sb.append(AND);
+		return this;
+	}
+	public SQLBuilder or() {
+		sb.append(OR);
+		return this;
+	}
+	public SQLBuilder not(boolean not) {
+		if (not) {
+			sb.append(NOT);
+		}
+		return this;
+	}
+
+	public SQLBuilder open() {
+		sb.append('(');
+		return this;
+	}
+	public SQLBuilder close() {
+		sb.append(')');
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return sb.toString();
+	}
+
+}
@@ -17,6 +17,9 @@ package zuo.biao.apijson.server;
 import java.util.List;
 import java.util.Map;
 
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONRequest;
 import zuo.biao.apijson.RequestMethod;
 import zuo.biao.apijson.RequestRole;
 
@@ -48,6 +51,16 @@ public interface SQLConfig {
 	 */
 	String getDBPassword();
 
+	/**获取从库地址列表，账号密码和主库相同，查询按 {@link ReplicaRouter} 路由到从库
+	 * @return 没有从库则返回 null
+	 */
+	List<String> getDBReplicaUriList();
+
+	/**获取分片的数据库地址列表，账号密码和主库相同，第 i 个为第 i 个分片
+	 * @return 不分片则返回 null
+	 */
+	List<String> getDBShardUriList();
+
 	/**获取SQL语句
 	 * @return
 	 * @throws Exception
@@ -75,6 +88,13 @@ public interface SQLConfig {
 	int getQuery();
 	SQLConfig setQuery(int query);
 
+	/**total 的获取方式
+	 * @return null - 单独 HEAD 查询 COUNT(*)
+	 * @see {@link JSONRequest#TOTAL_OVER}
+	 */
+	String getTotal();
+	SQLConfig setTotal(String total);
+
 	int getPosition();
 	SQLConfig setPosition(int position);
 
@@ -108,6 +128,18 @@ public interface SQLConfig {
 	
 	SQLConfig setTable(String table);
 
+	/**JOIN 查询里表的别名
+	 * @return
+	 */
+	String getAlias();
+	SQLConfig setAlias(String alias);
+
+	/**LEFT JOIN 的副表
+	 * @return
+	 */
+	List<Join> getJoinList();
+	SQLConfig setJoinList(List<Join> joinList);
+
 	String getGroup();
 	SQLConfig setGroup(String group);
 
@@ -117,12 +149,40 @@ public interface SQLConfig {
 	String getOrder();
 	SQLConfig setOrder(String order);
 
+	/**游标分页，上一页最后一条的 @order 字段值，按 @order 的顺序，最后可能还有 id
+	 * @return null - 不是游标分页；[] - 游标分页的第一页
+	 */
+	List<Object> getCursor();
+	SQLConfig setCursor(List<Object> cursor);
+	/**生成下一页的游标
+	 * @param row 当前页的最后一条
+	 * @return
+	 */
+	String newCursor(JSONObject row);
+
 	String getColumn();
 	SQLConfig setColumn(String column);
 
 	String getValues();
 	SQLConfig setValues(String values);
 
+	/**批量写，每一项是一行，由 {@link SQLExecutor#executeBatch(List)} 执行
+	 * @return null - 不是批量写
+	 */
+	List<SQLConfig> getBatchList();
+
+	/**获取在哪个分片执行
+	 * @return 没有指定则返回 -1
+	 */
+	int getShard();
+	SQLConfig setShard(int shard);
+
+	/**获取要执行的分片，条件里有分片字段的只在对应的分片执行，没有的在所有分片执行
+	 * @return 不分片则返回 null
+	 */
+	List<Integer> getShardList();
+	SQLConfig setBatchList(List<SQLConfig> batchList);
+
 	Map<String, Object> getContent();
 	SQLConfig setContent(Map<String, Object> content);
 
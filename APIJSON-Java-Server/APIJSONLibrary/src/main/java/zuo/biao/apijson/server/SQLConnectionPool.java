@@ -0,0 +1,681 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zuo.biao.apijson.Log;
+
+/**数据库连接池
+ * 空闲连接放在无锁队列里，用信号量限制连接总数；借出时校验连接，超过最大存活时间的连接会被关闭；
+ * 同一线程内嵌套的 Parser 复用同一个连接，全部 close 后才归还；
+ * 每个连接按 SQL 模板缓存 PreparedStatement，超出数量时关闭最久没用的
+ * @author Lemon
+ */
+public class SQLConnectionPool {
+	private static final String TAG = "SQLConnectionPool";
+
+	/**创建物理连接
+	 */
+	public interface Callback {
+		/**创建物理连接
+		 * @return
+		 * @throws SQLException
+		 */
+		Connection newConnection() throws SQLException;
+	}
+
+
+	private static final Map<String, SQLConnectionPool> POOL_MAP = new ConcurrentHashMap<String, SQLConnectionPool>();
+	/**获取 key 对应的连接池，不存在则用 callback 新建一个
+	 * @param key 一般为 uri + account
+	 * @param callback
+	 * @return
+	 */
+	public static SQLConnectionPool getInstance(@NotNull String key, @NotNull Callback callback) {
+		SQLConnectionPool pool = POOL_MAP.get(key);
+		if (pool == null) {
+			synchronized (POOL_MAP) {
+				pool = POOL_MAP.get(key);
+				if (pool == null) {
+					pool = new SQLConnectionPool(callback);
+					POOL_MAP.put(key, pool);
+				}
+			}
+		}
+		return pool;
+	}
+
+	/**关闭并移除 key 对应的连接池
+	 * @param key
+	 */
+	public static void shutdown(String key) {
+		SQLConnectionPool pool = key == null ? null : POOL_MAP.remove(key);
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+
+	private static ScheduledExecutorService leakDetector;
+	/**泄漏检测的守护线程，所有连接池共用
+	 * @return
+	 */
+	private static synchronized ScheduledExecutorService getLeakDetector() {
+		if (leakDetector == null) {
+			leakDetector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, TAG + "-leak-detector");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return leakDetector;
+	}
+
+
+	/**池内的连接
+	 */
+	protected static class PooledConnection {
+		final Connection connection;
+		final long createTime;
+		long lastUseTime;
+		long borrowTime;
+		Throwable borrowTrace; //借出时的调用栈，泄漏检测用
+		boolean leaked;
+		int refCount; //同一线程内借出的次数
+		volatile Thread owner; //借出的线程，异步执行时可能在别的线程归还
+		final Map<String, PreparedStatement> statementMap; //SQL模板-PreparedStatement，LRU
+
+		PooledConnection(Connection connection, Map<String, PreparedStatement> statementMap) {
+			this.connection = connection;
+			this.createTime = System.currentTimeMillis();
+			this.lastUseTime = createTime;
+			this.statementMap = statementMap;
+		}
+	}
+
+
+	private final Callback callback;
+	private final ConcurrentLinkedDeque<PooledConnection> idleDeque = new ConcurrentLinkedDeque<PooledConnection>();
+	private final Map<Connection, PooledConnection> borrowedMap = new ConcurrentHashMap<Connection, PooledConnection>();
+	private final ThreadLocal<PooledConnection> localConnection = new ThreadLocal<PooledConnection>();
+	private volatile Semaphore semaphore;
+	private volatile boolean closed;
+
+	private final AtomicInteger totalCount = new AtomicInteger();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong reuseCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong statementHitCount = new AtomicLong();
+	private final AtomicLong statementMissCount = new AtomicLong();
+	private final AtomicLong statementEvictCount = new AtomicLong();
+
+	public SQLConnectionPool(@NotNull Callback callback) {
+		this.callback = callback;
+		this.semaphore = new Semaphore(maxSize, true);
+	}
+
+
+	private int maxSize = 20;
+	private long timeout = 30*1000;
+	private long maxLifetime = 30*60*1000;
+	private long validationInterval = 500;
+	private int validationTimeout = 3;
+	private long leakDetectionThreshold = 0;
+	private ScheduledFuture<?> leakDetection; //关闭或不再检测时取消
+	private int statementCacheSize = 100;
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+	/**最大连接数，只能在借出连接前设置
+	 * @param maxSize
+	 * @return
+	 */
+	public synchronized SQLConnectionPool setMaxSize(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize 必须 > 0 ！");
+		}
+		if (borrowedMap.isEmpty() == false) {
+			throw new IllegalStateException("连接已借出，不能再修改 maxSize ！");
+		}
+		this.maxSize = maxSize;
+		this.semaphore = new Semaphore(maxSize, true);
+		return this;
+	}
+	public long getTimeout() {
+		return timeout;
+	}
+	/**借出连接的最长等待时间，单位毫秒
+	 * @param timeout
+	 * @return
+	 */
+	public SQLConnectionPool setTimeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+	/**连接的最大存活时间，超过后在借出或归还时关闭，单位毫秒，<= 0 则不限制
+	 * @param maxLifetime
+	 * @return
+	 */
+	public SQLConnectionPool setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+		return this;
+	}
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+	/**空闲超过这个时间的连接在借出时用 Connection.isValid 校验，单位毫秒
+	 * @param validationInterval
+	 * @return
+	 */
+	public SQLConnectionPool setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+		return this;
+	}
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+	/**Connection.isValid 的超时时间，单位秒
+	 * @param validationTimeout
+	 * @return
+	 */
+	public SQLConnectionPool setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+		return this;
+	}
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+	/**借出超过这个时间还没归还的连接会打印借出时的调用栈，单位毫秒，<= 0 则不检测
+	 * @param leakDetectionThreshold
+	 * @return
+	 */
+	public synchronized SQLConnectionPool setLeakDetectionThreshold(long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+		if (leakDetectionThreshold <= 0 || closed) {
+			cancelLeakDetection();
+		} else if (leakDetection == null) {
+			long period = Math.max(1000, leakDetectionThreshold/2);
+			leakDetection = getLeakDetector().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					detectLeak();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+	private synchronized void cancelLeakDetection() {
+		if (leakDetection != null) {
+			leakDetection.cancel(false);
+			leakDetection = null;
+		}
+	}
+
+
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	/**每个连接缓存的 PreparedStatement 数量，<= 0 则不缓存
+	 * @param statementCacheSize
+	 * @return
+	 */
+	public SQLConnectionPool setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+		return this;
+	}
+
+
+
+	/**借出连接，同一线程内已借出过则直接复用
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection borrow() throws SQLException {
+		return borrow(true);
+	}
+	/**借出连接
+	 * @param reuse true - 同一线程内已借出过则直接复用，之后同一线程的 borrow() 也复用这个连接；
+	 * false - 借出一个独立的连接，不复用也不被复用，例如分片并行查询时每个任务各用一个连接
+	 * @return
+	 * @throws SQLException
+	 */
+	public Connection borrow(boolean reuse) throws SQLException {
+		if (closed) {
+			throw new SQLException("连接池已关闭！");
+		}
+
+		PooledConnection pc = reuse ? localConnection.get() : null;
+		if (pc != null) {
+			synchronized (pc) {
+				//在别的线程归还后可能已被其它线程借出
+				if (pc.owner == Thread.currentThread() && borrowedMap.get(pc.connection) == pc) {
+					pc.refCount ++;
+					reuseCount.incrementAndGet();
+					return pc.connection;
+				}
+			}
+			localConnection.remove();
+		}
+
+		long startTime = System.nanoTime();
+		Semaphore s = semaphore;
+		boolean acquired;
+		try {
+			acquired = s.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("等待数据库连接时被中断！", e);
+		}
+		long waitTime = System.nanoTime() - startTime;
+		totalWaitTime.addAndGet(waitTime);
+		long max;
+		while ((max = maxWaitTime.get()) < waitTime && maxWaitTime.compareAndSet(max, waitTime) == false) {
+			//CAS更新最大等待时间
+		}
+		if (acquired == false) {
+			timeoutCount.incrementAndGet();
+			throw new SQLException("获取数据库连接超时！timeout = " + timeout + "ms, " + this);
+		}
+
+		try {
+			pc = pollIdle();
+			if (pc == null) {
+				pc = new PooledConnection(callback.newConnection(), newStatementMap());
+				totalCount.incrementAndGet();
+			}
+		} catch (SQLException e) {
+			s.release();
+			throw e;
+		} catch (RuntimeException e) {
+			s.release();
+			throw e;
+		}
+
+		long now = System.currentTimeMillis();
+		pc.refCount = 1;
+		pc.owner = Thread.currentThread();
+		pc.borrowTime = now;
+		pc.lastUseTime = now;
+		pc.leaked = false;
+		pc.borrowTrace = leakDetectionThreshold > 0 ? new Exception("连接借出位置") : null;
+		borrowedMap.put(pc.connection, pc);
+		if (reuse) {
+			localConnection.set(pc);
+		}
+		borrowCount.incrementAndGet();
+		return pc.connection;
+	}
+
+	/**取出一个有效的空闲连接，优先用最近归还的
+	 * @return
+	 */
+	private PooledConnection pollIdle() {
+		PooledConnection pc;
+		while ((pc = idleDeque.pollFirst()) != null) {
+			idleCount.decrementAndGet();
+			if (isExpired(pc) == false && isValid(pc)) {
+				return pc;
+			}
+			discard(pc);
+		}
+		return null;
+	}
+
+	/**归还连接，同一线程内借出几次就要归还几次
+	 * @param connection
+	 */
+	public void release(Connection connection) {
+		PooledConnection pc = connection == null ? null : borrowedMap.get(connection);
+		if (pc == null) {
+			Log.w(TAG, "release  pc == null >> 不是从本连接池借出的或已归还，直接关闭");
+			closeQuietly(connection);
+			return;
+		}
+
+		synchronized (pc) {
+			if (-- pc.refCount > 0) {
+				return;
+			}
+			borrowedMap.remove(connection);
+			pc.owner = null;
+		}
+		if (localConnection.get() == pc) {
+			localConnection.remove();
+		}
+
+		pc.lastUseTime = System.currentTimeMillis();
+		pc.borrowTrace = null;
+		try {
+			if (closed || isExpired(pc) || reset(pc) == false) {
+				discard(pc);
+			} else {
+				idleDeque.offerFirst(pc);
+				idleCount.incrementAndGet();
+			}
+		} finally {
+			semaphore.release();
+		}
+	}
+
+	/**当前线程是否已借出连接且还没归还，是则 {@link #borrow()} 会复用这个连接
+	 * @return
+	 */
+	public boolean isBorrowed() {
+		PooledConnection pc = localConnection.get();
+		return pc != null && pc.owner == Thread.currentThread() && borrowedMap.get(pc.connection) == pc;
+	}
+
+	/**新建 PreparedStatement 的 LRU 缓存，被淘汰的 PreparedStatement 会被关闭
+	 * @return
+	 */
+	protected Map<String, PreparedStatement> newStatementMap() {
+		return new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= statementCacheSize) {
+					return false;
+				}
+				statementEvictCount.incrementAndGet();
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**获取 connection 上 sql 对应的 PreparedStatement，优先用缓存的
+	 * @param connection 必须是从本连接池借出的，否则不缓存
+	 * @param sql 预编译的 SQL 模板，不能包含值，否则缓存无效
+	 * @return 缓存的 PreparedStatement 已清空参数，使用后不要关闭，只关闭 ResultSet
+	 * @throws SQLException
+	 * @see {@link #isCached(Connection, PreparedStatement)}
+	 */
+	public PreparedStatement prepareStatement(@NotNull Connection connection, @NotNull String sql) throws SQLException {
+		PooledConnection pc = statementCacheSize <= 0 ? null : borrowedMap.get(connection);
+		if (pc == null) {
+			return connection.prepareStatement(sql);
+		}
+
+		synchronized (pc) {
+			PreparedStatement statement = pc.statementMap.get(sql);
+			if (statement != null) {
+				if (statement.isClosed() == false) {
+					statementHitCount.incrementAndGet();
+					statement.clearParameters();
+					return statement;
+				}
+				pc.statementMap.remove(sql);
+			}
+
+			statementMissCount.incrementAndGet();
+			statement = connection.prepareStatement(sql);
+			pc.statementMap.put(sql, statement);
+			return statement;
+		}
+	}
+
+	/**statement 是否被缓存了，缓存的 PreparedStatement 由连接池关闭
+	 * @param connection
+	 * @param statement
+	 * @return
+	 */
+	public boolean isCached(Connection connection, PreparedStatement statement) {
+		PooledConnection pc = connection == null || statement == null ? null : borrowedMap.get(connection);
+		if (pc == null) {
+			return false;
+		}
+		synchronized (pc) {
+			return pc.statementMap.containsValue(statement);
+		}
+	}
+
+	/**还原连接状态，避免影响下一个使用者
+	 * @param pc
+	 * @return 连接是否还能继续使用
+	 */
+	protected boolean reset(PooledConnection pc) {
+		try {
+			Connection c = pc.connection;
+			if (c.isClosed()) {
+				return false;
+			}
+			if (c.getAutoCommit() == false) {
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+			if (c.isReadOnly()) {
+				c.setReadOnly(false);
+			}
+			c.clearWarnings();
+			return true;
+		} catch (SQLException e) {
+			Log.e(TAG, "reset  catch (SQLException e) >> " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**是否超过最大存活时间
+	 * @param pc
+	 * @return
+	 */
+	protected boolean isExpired(PooledConnection pc) {
+		return maxLifetime > 0 && System.currentTimeMillis() - pc.createTime > maxLifetime;
+	}
+
+	/**校验连接，空闲时间短的直接认为有效
+	 * @param pc
+	 * @return
+	 */
+	protected boolean isValid(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc.lastUseTime < validationInterval) {
+			return true;
+		}
+		try {
+			return pc.connection.isValid(validationTimeout);
+		} catch (SQLException e) {
+			Log.e(TAG, "isValid  catch (SQLException e) >> " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**关闭并丢弃连接
+	 * @param pc
+	 */
+	private void discard(PooledConnection pc) {
+		totalCount.decrementAndGet();
+		synchronized (pc) {
+			for (PreparedStatement statement : pc.statementMap.values()) {
+				closeQuietly(statement);
+			}
+			pc.statementMap.clear();
+		}
+		closeQuietly(pc.connection);
+	}
+
+	private static void closeQuietly(PreparedStatement statement) {
+		try {
+			if (statement != null && statement.isClosed() == false) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "closeQuietly  catch (SQLException e) >> " + e.getMessage());
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			if (connection != null && connection.isClosed() == false) {
+				connection.close();
+			}
+		} catch (SQLException e) {
+			Log.e(TAG, "closeQuietly  catch (SQLException e) >> " + e.getMessage());
+		}
+	}
+
+	/**检测借出太久没归还的连接，每个连接只报一次
+	 */
+	protected void detectLeak() {
+		long threshold = leakDetectionThreshold;
+		if (threshold <= 0 || borrowedMap.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (PooledConnection pc : borrowedMap.values()) {
+			if (pc.leaked == false && now - pc.borrowTime > threshold) {
+				pc.leaked = true;
+				leakCount.incrementAndGet();
+				Log.w(TAG, "detectLeak  连接借出 " + (now - pc.borrowTime) + "ms 还没归还，可能泄漏了！");
+				if (pc.borrowTrace != null) {
+					pc.borrowTrace.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**关闭连接池，关闭所有空闲连接，借出的连接在归还时关闭
+	 */
+	public void close() {
+		closed = true;
+		cancelLeakDetection();
+		PooledConnection pc;
+		while ((pc = idleDeque.pollFirst()) != null) {
+			idleCount.decrementAndGet();
+			discard(pc);
+		}
+	}
+
+
+
+	//监控 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+	/**借出中的连接数
+	 * @return
+	 */
+	public int getActiveCount() {
+		return borrowedMap.size();
+	}
+	/**空闲连接数
+	 * @return
+	 */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+	/**物理连接总数
+	 * @return
+	 */
+	public int getTotalCount() {
+		return totalCount.get();
+	}
+	/**等待借出连接的线程数
+	 * @return
+	 */
+	public int getWaitingCount() {
+		return semaphore.getQueueLength();
+	}
+	/**从池里借出的次数，不包括同一线程内的复用
+	 * @return
+	 */
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+	/**同一线程内复用连接的次数
+	 * @return
+	 */
+	public long getReuseCount() {
+		return reuseCount.get();
+	}
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+	/**借出连接的总等待时间，单位毫秒
+	 * @return
+	 */
+	public long getTotalWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get());
+	}
+	/**借出连接的最长等待时间，单位毫秒
+	 * @return
+	 */
+	public long getMaxWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+	}
+	/**借出连接的平均等待时间，单位毫秒
+	 * @return
+	 */
+	public double getAverageWaitTime() {
+		long count = borrowCount.get() + timeoutCount.get();
+		return count <= 0 ? 0 : totalWaitTime.get()/1000000d/count;
+	}
+	/**PreparedStatement 缓存命中次数
+	 * @return
+	 */
+	public long getStatementHitCount() {
+		return statementHitCount.get();
+	}
+	/**PreparedStatement 缓存未命中次数
+	 * @return
+	 */
+	public long getStatementMissCount() {
+		return statementMissCount.get();
+	}
+	/**PreparedStatement 缓存淘汰次数
+	 * @return
+	 */
+	public long getStatementEvictCount() {
+		return statementEvictCount.get();
+	}
+	//监控 >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+	@Override
+	public String toString() {
+		return TAG + "{active=" + getActiveCount() + ", idle=" + getIdleCount() + ", total=" + getTotalCount()
+		+ ", max=" + maxSize + ", waiting=" + getWaitingCount() + ", borrow=" + getBorrowCount()
+		+ ", reuse=" + getReuseCount() + ", timeout=" + getTimeoutCount() + ", leak=" + getLeakCount()
+		+ ", averageWait=" + getAverageWaitTime() + "ms, maxWait=" + getMaxWaitTime() + "ms"
+		+ ", statementHit=" + getStatementHitCount() + ", statementMiss=" + getStatementMissCount()
+		+ ", statementEvict=" + getStatementEvictCount() + "}";
+	}
+
+}
@@ -17,6 +17,7 @@ package zuo.biao.apijson.server;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 import com.alibaba.fastjson.JSONObject;
@@ -53,6 +54,65 @@ public interface SQLExecutor {
 	 */
 	JSONObject execute(SQLConfig config) throws Exception;
 	
+	/**流式查询的逐行回调
+	 */
+	interface RowCallback {
+		/**
+		 * @param position 第几行，从 0 开始
+		 * @param plan 列读取计划
+		 * @param rs 已移到当前行
+		 * @throws Exception
+		 */
+		void onRow(int position, ColumnPlan plan, ResultSet rs) throws Exception;
+	}
+
+	/**流式查询，逐行读取并回调，不缓存结果，内存占用和行数无关
+	 * @param config
+	 * @param fetchSize 每次从数据库取的行数，需要数据库驱动支持游标，如 MySQL 的 useCursorFetch=true
+	 * @param callback
+	 * @return 行数
+	 * @throws Exception
+	 */
+	int execute(@NotNull SQLConfig config, int fetchSize, @NotNull RowCallback callback) throws Exception;
+
+	/**批量执行增、删、改，SQL 相同的连续几项用同一个 PreparedStatement 的 addBatch/executeBatch，
+	 * 不在事务中时，所有项在同一个事务内执行，出错则全部回滚
+	 * @param configList
+	 * @return 每一项的修改记录数，和 configList 一一对应，可能为 {@link java.sql.Statement#SUCCESS_NO_INFO}
+	 * @throws Exception
+	 */
+	int[] executeBatch(@NotNull List<SQLConfig> configList) throws Exception;
+
+	/**是否只用主库，不把查询路由到从库
+	 * @return
+	 */
+	boolean isPrimary();
+	/**之后的查询也在主库执行，用于写后读等不能容忍复制延迟的场景
+	 * @param primary
+	 * @return
+	 */
+	SQLExecutor setPrimary(boolean primary);
+
+	/**开启事务，之后在这个 executor 上执行的 SQL 都在同一个连接的同一个事务内，直到 commit 或 rollback
+	 * @param transactionIsolation 隔离级别，见 {@link java.sql.Connection#TRANSACTION_READ_COMMITTED} 等，<= 0 则用数据库默认的
+	 * @throws SQLException
+	 */
+	void begin(int transactionIsolation) throws SQLException;
+	/**开启事务
+	 * @param transactionIsolation
+	 * @param readOnly 只读事务，数据库不用分配事务 id，可重复读的隔离级别下所有查询都在同一个一致性快照上
+	 * @throws SQLException
+	 */
+	void begin(int transactionIsolation, boolean readOnly) throws SQLException;
+	/**提交事务
+	 * @throws SQLException
+	 */
+	void commit() throws SQLException;
+	/**回滚事务
+	 * @throws SQLException
+	 */
+	void rollback() throws SQLException;
+
 	//executeQuery和executeUpdate这两个函数因为返回类型不同，所以不好合并
 	/**执行查询
 	 * @param sql
@@ -127,7 +127,7 @@ public class Structure {
 	 * @param idKey
 	 * @param atLeastOne 至少有一个不为null
 	 */
-	private static void verifyId(@NotNull String method, @NotNull String name, @NotNull String key
+	static void verifyId(@NotNull String method, @NotNull String name, @NotNull String key
 			, @NotNull JSONObject robj, @NotNull String idKey, boolean atLeastOne) {
 		//单个修改或删除
 		Object id = null;
@@ -629,7 +629,18 @@ public class Structure {
 	private static void sqlVerify(@NotNull String funChar, @NotNull JSONObject real, @NotNull String tk, @NotNull Object tv
 			, @NotNull SQLCreator creator) throws Exception {
 		//不能用Parser, 0 这种不符合 StringUtil.isName !
-		Logic logic = new Logic(tk.substring(0, tk.length() - funChar.length()));
+		sqlVerify(funChar, real, new Logic(tk.substring(0, tk.length() - funChar.length())), tv, creator);
+	}
+	/**通过数据库执行SQL语句来验证条件
+	 * @param funChar
+	 * @param real
+	 * @param logic 去掉 funChar 后的 key
+	 * @param tv
+	 * @param creator
+	 * @throws Exception
+	 */
+	static void sqlVerify(@NotNull String funChar, @NotNull JSONObject real, @NotNull Logic logic, @NotNull Object tv
+			, @NotNull SQLCreator creator) throws Exception {
 		String rk = logic.getKey();
 		Object rv = real.get(rk);
 		if (rv == null) {
@@ -637,20 +648,26 @@ public class Structure {
 		}
 
 		SQLConfig config = creator.createSQLConfig().setMethod(RequestMethod.HEAD).setCount(1).setPage(0);
-		config.setTable(Test.class.getSimpleName());
-		config.setTest(true);
-		config.putWhere("'" + rv + "'" + logic.getChar() + funChar, tv);
 
-		SQLExecutor executor = creator.createSQLExecutor();
-		JSONObject result = null;
-		try {
-			result = executor.execute(config);
-		} catch (Exception e) {
-			throw e;
-		} finally {
-			executor.close();
+		//数字范围和 LIKE 在内存里计算，只有函数等条件才访问数据库
+		Boolean match = ConditionEvaluator.evaluate(funChar, logic, rv, tv, config.isPrepared());
+		if (match == null) {
+			config.setTable(Test.class.getSimpleName());
+			config.setTest(true);
+			config.putWhere("'" + rv + "'" + logic.getChar() + funChar, tv);
+
+			SQLExecutor executor = creator.createSQLExecutor();
+			JSONObject result = null;
+			try {
+				result = executor.execute(config);
+			} catch (Exception e) {
+				throw e;
+			} finally {
+				executor.close();
+			}
+			match = result == null || JSONResponse.isExist(result.getIntValue(JSONResponse.KEY_COUNT));
 		}
-		if (result != null && JSONResponse.isExist(result.getIntValue(JSONResponse.KEY_COUNT)) == false) {
+		if (match == false) {
 			throw new IllegalArgumentException(rk + ":" + rv + "中value不合法！必须匹配 " + logic.getChar() + tv + " ！");
 		}		
 	}
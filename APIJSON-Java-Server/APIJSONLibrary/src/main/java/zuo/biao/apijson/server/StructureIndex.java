@@ -0,0 +1,317 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static zuo.biao.apijson.RequestMethod.GET;
+
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONRequest;
+import zuo.biao.apijson.Log;
+import zuo.biao.apijson.RequestMethod;
+
+/**Request, Response 表的内存索引，启动时一次性加载整个表，之后查结构不再访问数据库
+ * <br > 按 method + tag(model) 索引，每个下面是 version - structure 的 TreeMap，查找为 O(log n)
+ * <br > 刷新时先加载出新的索引再整体替换，查找时不会看到加载到一半的
+ * <br > Request 表的结构在加载时编译为 {@link CompiledStructure}，请求时直接校验
+ * @author Lemon
+ */
+public class StructureIndex {
+	private static final String TAG = "StructureIndex";
+
+	public static final StructureIndex REQUEST = new StructureIndex("Request", JSONRequest.KEY_TAG);
+	public static final StructureIndex RESPONSE = new StructureIndex("Response", "model");
+
+	/**获取表对应的索引
+	 * @param table
+	 * @return 不是 Request, Response 则返回 null
+	 */
+	public static StructureIndex get(String table) {
+		if (REQUEST.table.equals(table)) {
+			return REQUEST;
+		}
+		if (RESPONSE.table.equals(table)) {
+			return RESPONSE;
+		}
+		return null;
+	}
+
+	/**表被增删改后刷新，由 {@link AbstractSQLExecutor#getInvalidationBus()} 通知
+	 * @param table
+	 */
+	public static void onInvalidate(String table) {
+		StructureIndex index = get(table);
+		if (index != null) {
+			index.invalidate();
+		}
+	}
+
+
+	private final String table;
+	private final String key;
+	/**索引项，compiled 为 null 则不能编译，需要用 {@link Structure} 解释
+	 */
+	private static final class Item {
+		final JSONObject structure;
+		final CompiledStructure compiled;
+
+		Item(JSONObject structure, CompiledStructure compiled) {
+			this.structure = structure;
+			this.compiled = compiled;
+		}
+	}
+
+	private volatile Map<String, TreeMap<Integer, Item>> indexMap; //method/value - { version: item }，null 为还没加载
+	private volatile Parser loader; //用来创建 SQLConfig 和 SQLExecutor
+	private final AtomicBoolean dirty = new AtomicBoolean(); //有还没刷新的修改
+	private final AtomicBoolean running = new AtomicBoolean(); //已经提交了刷新任务
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param table
+	 * @param key 除了 method, version 外索引的字段
+	 */
+	public StructureIndex(@NotNull String table, @NotNull String key) {
+		this.table = table;
+		this.key = key;
+	}
+
+	public String getTable() {
+		return table;
+	}
+	public String getKey() {
+		return key;
+	}
+	public boolean isLoaded() {
+		return indexMap != null;
+	}
+
+
+	/**获取结构
+	 * @param method
+	 * @param value key 对应的值
+	 * @param version <= 0 则取最新版，否则取 >= version 的最低版
+	 * @return 复制的结构，没有则返回 null
+	 * @throws IllegalStateException 还没加载
+	 */
+	public JSONObject get(@NotNull RequestMethod method, String value, int version) {
+		Item item = getItem(method, value, version);
+		return item == null ? null : (JSONObject) ResultCache.copy(item.structure);
+	}
+
+	/**获取编译后的结构，不用复制
+	 * @param method
+	 * @param value key 对应的值
+	 * @param version <= 0 则取最新版，否则取 >= version 的最低版
+	 * @return 没有或不能编译则返回 null，这时用 {@link #get(RequestMethod, String, int)} 取出来解释
+	 * @throws IllegalStateException 还没加载
+	 */
+	public CompiledStructure getCompiled(@NotNull RequestMethod method, String value, int version) {
+		Item item = getItem(method, value, version);
+		return item == null ? null : item.compiled;
+	}
+
+	private Item getItem(@NotNull RequestMethod method, String value, int version) {
+		Map<String, TreeMap<Integer, Item>> map = indexMap;
+		if (map == null) {
+			throw new IllegalStateException(TAG + ".get  " + table + " 还没加载！请先调用 refresh ！");
+		}
+
+		TreeMap<Integer, Item> versionMap = map.get(method.name() + "/" + value);
+		Map.Entry<Integer, Item> entry = versionMap == null ? null
+				: (version > 0 ? versionMap.ceilingEntry(version) : versionMap.lastEntry());
+		return entry == null ? null : entry.getValue();
+	}
+
+
+	/**还没加载则加载，已加载则不处理
+	 * @param parser
+	 * @throws Exception
+	 * @see #refresh(Parser)
+	 */
+	public synchronized void init(@NotNull Parser parser) throws Exception {
+		if (indexMap == null) {
+			refresh(parser);
+		}
+	}
+
+	/**从数据库加载整个表，加载完后替换原来的索引
+	 * @param parser 只用来 createSQLConfig 和 createSQLExecutor，之后的自动刷新也用它
+	 * @throws Exception
+	 */
+	public synchronized void refresh(@NotNull Parser parser) throws Exception {
+		loader = parser;
+
+		SQLConfig config = parser.createSQLConfig().setMethod(GET).setTable(table);
+		config.setPrepared(false);
+		config.setWhere(new HashMap<String, Object>());
+		config.setCount(0);
+
+		final Map<String, TreeMap<Integer, Item>> map = new HashMap<String, TreeMap<Integer, Item>>();
+		SQLExecutor executor = parser.createSQLExecutor();
+		try {
+			executor.execute(config, 0, new SQLExecutor.RowCallback() {
+				int methodIndex, keyIndex, versionIndex, structureIndex;
+
+				@Override
+				public void onRow(int position, ColumnPlan plan, ResultSet rs) throws Exception {
+					if (position <= 0) {
+						for (int i = 1; i <= plan.getColumnCount(); i++) {
+							String label = plan.getLabel(i);
+							if ("method".equals(label)) {
+								methodIndex = i;
+							} else if (key.equals(label)) {
+								keyIndex = i;
+							} else if (JSONRequest.KEY_VERSION.equals(label)) {
+								versionIndex = i;
+							} else if ("structure".equals(label)) {
+								structureIndex = i;
+							}
+						}
+						if (methodIndex <= 0 || keyIndex <= 0 || structureIndex <= 0) {
+							throw new IllegalStateException(table + " 表必须有 method, " + key + ", structure 字段！");
+						}
+					}
+
+					Object structure = plan.read(rs, structureIndex);
+					if (structure instanceof String) {
+						structure = JSON.parse((String) structure);
+					}
+					if (structure instanceof JSONObject == false) {
+						Log.e(TAG, "refresh  structure instanceof JSONObject == false >> continue; table = " + table + "; position = " + position);
+						return;
+					}
+					Object version = versionIndex <= 0 ? null : plan.read(rs, versionIndex);
+
+					Object value = plan.read(rs, keyIndex);
+					String k = plan.read(rs, methodIndex) + "/" + value;
+					TreeMap<Integer, Item> versionMap = map.get(k);
+					if (versionMap == null) {
+						versionMap = new TreeMap<Integer, Item>();
+						map.put(k, versionMap);
+					}
+					Integer v = version instanceof Number ? ((Number) version).intValue() : 0;
+					if (versionMap.containsKey(v) == false) {
+						versionMap.put(v, new Item((JSONObject) structure, compile(value, (JSONObject) structure)));
+					}
+				}
+			});
+		} finally {
+			executor.close();
+		}
+
+		indexMap = Collections.unmodifiableMap(map);
+		Log.d(TAG, "refresh  table = " + table + "; indexMap.size() = " + map.size());
+	}
+
+	/**编译 Request 表的结构，和 {@link AbstractParser#getCorrectRequest} 一样在 tag 为表名时包一层
+	 * @param value tag
+	 * @param structure
+	 * @return 不是 Request 表或不能编译则返回 null
+	 */
+	private CompiledStructure compile(Object value, @NotNull JSONObject structure) {
+		if (this != REQUEST) {
+			return null;
+		}
+		String tag = value == null ? null : value.toString();
+		JSONObject target = structure;
+		if (zuo.biao.apijson.JSONObject.isTableKey(tag) && structure.containsKey(tag) == false) {
+			target = new JSONObject(true);
+			target.put(tag, structure);
+		}
+		try {
+			return CompiledStructure.compile(target);
+		} catch (Exception e) { //请求时再用 Structure 解释，报错给客户端
+			Log.e(TAG, "compile  CompiledStructure.compile(target) >> catch (Exception e) >> tag = " + tag + "; " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**定时刷新，数据库被直接修改时也能更新
+	 * @param parser
+	 * @param period 间隔，单位为毫秒
+	 */
+	public synchronized void schedule(@NotNull final Parser parser, long period) {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, TAG + "-" + table);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh(parser);
+				} catch (Exception e) { //保留原来的索引
+					Log.e(TAG, "schedule  refresh(parser) >> catch (Exception e) >> table = " + table + "; " + e.getMessage());
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**表被修改了，在后台刷新，刷新完之前仍用原来的索引；没加载过则不处理
+	 * 同时最多只有一个刷新任务，刷新期间再被修改则完成后合并刷新一次，连续修改或收到大量失效消息也不会堆积
+	 */
+	public void invalidate() {
+		if (loader == null) {
+			return;
+		}
+		dirty.set(true);
+		if (running.compareAndSet(false, true) == false) {
+			return;
+		}
+
+		CompletableFuture<Void> future = ThreadModel.getDefault().submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				do {
+					while (dirty.getAndSet(false)) { //先清除再刷新，刷新期间的修改会再刷新一次
+						try {
+							refresh(loader);
+						} catch (Exception e) { //保留原来的索引，下次修改或定时刷新时再试
+							Log.e(TAG, "invalidate  refresh(loader) >> catch (Exception e) >> table = " + table + "; " + e.getMessage());
+						}
+					}
+					running.set(false);
+				} while (dirty.get() && running.compareAndSet(false, true)); //结束前又被修改且没有新任务接手
+				return null;
+			}
+		});
+		if (future.isCompletedExceptionally()) { //被拒绝，下次修改或定时刷新时再试
+			running.set(false);
+		}
+	}
+
+}
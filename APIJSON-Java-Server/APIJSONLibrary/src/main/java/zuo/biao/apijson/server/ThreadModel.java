@@ -0,0 +1,173 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import zuo.biao.apijson.Log;
+
+/**异步执行的线程模型，JDBC 是阻塞的，异步解析和执行 SQL 都是交给这里的线程去阻塞，释放调用方（如 Tomcat 请求线程）
+ * <br > 默认为有界的线程池 {@link #newPool(String, int, int)}，
+ * <br > JDK 21+ 可以用 {@link #newVirtual()} 每次执行一个虚拟线程，
+ * <br > 也可以传入任意 ExecutorService
+ * @author Lemon
+ */
+public class ThreadModel {
+	private static final String TAG = "ThreadModel";
+
+	/**
+	 * 默认线程池的线程数
+	 */
+	public static int POOL_THREAD_COUNT = 200;
+	/**
+	 * 默认线程池排队的最大任务数，超出则拒绝，返回的 CompletableFuture 异常结束
+	 */
+	public static int POOL_QUEUE_SIZE = 1000;
+
+	private static ThreadModel defaultModel;
+	/**获取默认的线程模型，没有设置过则创建有界线程池
+	 * @return
+	 */
+	public static synchronized ThreadModel getDefault() {
+		if (defaultModel == null) {
+			defaultModel = newPool("APIJSON-async", POOL_THREAD_COUNT, POOL_QUEUE_SIZE);
+		}
+		return defaultModel;
+	}
+	/**设置默认的线程模型，原来的不会被关闭
+	 * @param model
+	 */
+	public static synchronized void setDefault(ThreadModel model) {
+		defaultModel = model;
+	}
+
+
+	/**有界的平台线程池
+	 * @param name 线程名前缀
+	 * @param threadCount 线程数
+	 * @param queueSize 排队的最大任务数
+	 * @return
+	 */
+	public static ThreadModel newPool(final String name, int threadCount, int queueSize) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount
+				, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return new ThreadModel(executor);
+	}
+
+	private static Method newVirtualMethod;
+	private static boolean virtualChecked;
+	/**是否支持虚拟线程
+	 * @return
+	 */
+	public static synchronized boolean isVirtualSupported() {
+		if (virtualChecked == false) {
+			virtualChecked = true;
+			try {
+				newVirtualMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			} catch (Exception e) {
+				Log.i(TAG, "isVirtualSupported  Executors.newVirtualThreadPerTaskExecutor not found >> " + e.getMessage());
+				newVirtualMethod = null;
+			}
+		}
+		return newVirtualMethod != null;
+	}
+
+	/**每次执行一个虚拟线程，JDBC 阻塞时不占用平台线程，并发由连接池控制
+	 * @return
+	 * @throws UnsupportedOperationException 当前 JDK 不支持虚拟线程
+	 */
+	public static ThreadModel newVirtual() {
+		if (isVirtualSupported() == false) {
+			throw new UnsupportedOperationException("当前 JDK " + System.getProperty("java.version") + " 不支持虚拟线程！");
+		}
+		try {
+			return new ThreadModel((ExecutorService) newVirtualMethod.invoke(null));
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("创建虚拟线程的 ExecutorService 失败！" + e.getMessage(), e);
+		}
+	}
+
+	/**支持虚拟线程则用虚拟线程，否则用有界线程池
+	 * @return
+	 */
+	public static ThreadModel newVirtualOrPool() {
+		return isVirtualSupported() ? newVirtual() : newPool("APIJSON-async", POOL_THREAD_COUNT, POOL_QUEUE_SIZE);
+	}
+
+
+
+	private final ExecutorService executor;
+	public ThreadModel(@NotNull ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException(TAG + ".ThreadModel  executor == null!!!");
+		}
+		this.executor = executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**异步执行
+	 * @param task
+	 * @return task 的返回值或抛出的异常，被拒绝时异常结束
+	 */
+	public <T> CompletableFuture<T> submit(@NotNull final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(task.call());
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			Log.e(TAG, "submit  catch (RejectedExecutionException e) >> " + e.getMessage());
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**关闭，已提交的仍会执行完
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
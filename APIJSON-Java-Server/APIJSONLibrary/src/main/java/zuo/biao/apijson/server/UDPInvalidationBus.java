@@ -0,0 +1,330 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
+
+import zuo.biao.apijson.Log;
+import zuo.biao.apijson.StringUtil;
+
+/**用 UDP 广播的缓存失效消息总线，发布时先通知当前节点的订阅者，再发给其它节点
+ * <br > 组播 {@link #UDPInvalidationBus(InetAddress, int, String)}，同一网段的节点加入同一个组，必须配置共享密钥
+ * <br > 单播 {@link #UDPInvalidationBus(int, List)}，逐个发给配置的节点，例如同一台机器上 127.0.0.1 的不同端口，只接收这些节点发来的消息
+ * <br > 配置了共享密钥则每条消息都带 HMAC-SHA256 签名，签名不对或过期的消息直接丢弃
+ * <br > UDP 不保证送达，丢失的消息只能等缓存过期，所以缓存时间不要太长
+ * @author Lemon
+ */
+public class UDPInvalidationBus extends LocalInvalidationBus {
+	private static final String TAG = "UDPInvalidationBus";
+
+	/**
+	 * 消息的最大字节数，超出则不带 id，视为整个表
+	 */
+	public static int MAX_PACKET_SIZE = 8192;
+	/**
+	 * 接收出错后等待多久再重试，连续出错则每次翻倍，直到 {@link #MAX_RETRY_INTERVAL}，单位为毫秒
+	 */
+	public static long MIN_RETRY_INTERVAL = 10;
+	/**
+	 * 接收出错后重试的最长间隔，单位为毫秒
+	 */
+	public static long MAX_RETRY_INTERVAL = 5*1000;
+	/**
+	 * 带签名的消息最多允许多久前发出，超出则视为重放，单位为毫秒
+	 */
+	public static long MAX_MESSAGE_AGE = 60*1000;
+
+	public static final String KEY_NODE = "node";
+	public static final String KEY_TABLE = "table";
+	public static final String KEY_ID_LIST = "idList";
+	public static final String KEY_TIME = "time";
+
+	private static final String HMAC = "HmacSHA256";
+	private static final int SIGN_LENGTH = 64; //HMAC-SHA256 的十六进制长度
+
+	private final String node = UUID.randomUUID().toString(); //区分自己发出的消息
+	private final DatagramSocket socket;
+	private final List<? extends SocketAddress> targetList;
+	private final List<? extends SocketAddress> sourceList;
+	private final SecretKeySpec secret;
+	private volatile boolean closed;
+
+	/**组播，发出的消息自己也会收到，通过 node 忽略
+	 * 组里任何机器都能发消息，所以必须用共享密钥签名
+	 * @param group 组播地址，例如 230.0.0.1
+	 * @param port
+	 * @param secret 所有节点相同的共享密钥，不能为空
+	 * @throws IOException
+	 */
+	public UDPInvalidationBus(@NotNull InetAddress group, int port, @NotNull String secret) throws IOException {
+		this(newMulticastSocket(group, port), Arrays.asList(new InetSocketAddress(group, port)), null, secret);
+	}
+	/**单播，逐个发给 targetList 里的节点，也只接收这些节点发来的消息
+	 * @param port 当前节点接收消息的端口
+	 * @param targetList 其它节点接收消息的地址，也是它们发出消息的地址
+	 * @throws IOException
+	 */
+	public UDPInvalidationBus(int port, @NotNull List<? extends SocketAddress> targetList) throws IOException {
+		this(new DatagramSocket(port), targetList);
+	}
+	/**单播，并用共享密钥签名，防止伪造来源地址
+	 * @param port
+	 * @param targetList
+	 * @param secret 所有节点相同的共享密钥
+	 * @throws IOException
+	 */
+	public UDPInvalidationBus(int port, @NotNull List<? extends SocketAddress> targetList, String secret) throws IOException {
+		this(new DatagramSocket(port), targetList, targetList, secret);
+	}
+	/**
+	 * @param socket 已绑定端口
+	 * @param targetList 同时作为允许的来源
+	 */
+	public UDPInvalidationBus(@NotNull DatagramSocket socket, @NotNull List<? extends SocketAddress> targetList) {
+		this(socket, targetList, targetList, null);
+	}
+	/**
+	 * @param socket 已绑定端口
+	 * @param targetList 发给哪些地址
+	 * @param sourceList 只接收这些地址发来的消息，为 null 则不限来源，此时 secret 不能为空
+	 * @param secret 共享密钥，不为空则发出的消息带签名，收到的消息必须有正确的签名
+	 */
+	public UDPInvalidationBus(@NotNull DatagramSocket socket, @NotNull List<? extends SocketAddress> targetList
+			, List<? extends SocketAddress> sourceList, String secret) {
+		if (sourceList == null && StringUtil.isEmpty(secret, false)) {
+			socket.close();
+			throw new IllegalArgumentException(TAG + ": 不限来源时 secret 不能为空！");
+		}
+		this.socket = socket;
+		this.targetList = targetList;
+		this.sourceList = sourceList;
+		this.secret = StringUtil.isEmpty(secret, false) ? null : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC);
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				receive();
+			}
+		}, TAG + "-" + socket.getLocalPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static MulticastSocket newMulticastSocket(@NotNull InetAddress group, int port) throws IOException {
+		MulticastSocket socket = new MulticastSocket(port);
+		socket.setLoopbackMode(false); //false 为开启回环，同一台机器上的节点也能收到
+		socket.joinGroup(group);
+		return socket;
+	}
+
+
+	@Override
+	public void publish(@NotNull String table, List<Object> idList) {
+		super.publish(table, idList);
+
+		byte[] data = encode(table, idList);
+		if (data.length > MAX_PACKET_SIZE && idList != null) {
+			data = encode(table, null);
+		}
+
+		for (SocketAddress target : targetList) {
+			try {
+				socket.send(new DatagramPacket(data, data.length, target));
+			} catch (IOException e) {
+				Log.e(TAG, "publish  socket.send >> catch (IOException e) >> target = " + target + "; " + e.getMessage());
+			}
+		}
+	}
+
+	/**在后台线程接收其它节点的消息，关闭 socket 后结束
+	 * 接收出错时等待后重试，连续出错则等待时间翻倍，避免一直出错时空转占满 CPU
+	 */
+	protected void receive() {
+		byte[] buffer = new byte[MAX_PACKET_SIZE];
+		long interval = 0;
+		while (closed == false) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				socket.receive(packet);
+			} catch (IOException e) {
+				if (closed || socket.isClosed()) {
+					break;
+				}
+				interval = interval <= 0 ? MIN_RETRY_INTERVAL : Math.min(2*interval, MAX_RETRY_INTERVAL);
+				Log.e(TAG, "receive  socket.receive >> catch (IOException e) >> interval = " + interval + "; " + e.getMessage());
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e2) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				continue;
+			}
+			interval = 0;
+
+			if (sourceList != null && sourceList.contains(packet.getSocketAddress()) == false) {
+				Log.e(TAG, "receive  sourceList.contains(packet.getSocketAddress()) == false >> 丢弃未配置节点发来的消息 " + packet.getSocketAddress());
+				continue;
+			}
+
+			JSONObject message = decode(packet.getData(), packet.getOffset(), packet.getLength());
+			if (message == null || node.equals(message.getString(KEY_NODE))) {
+				continue;
+			}
+			dispatch(message.getString(KEY_TABLE), message.getJSONArray(KEY_ID_LIST));
+		}
+	}
+
+	/**编码为 { node, table, idList, time }，有共享密钥则在前面加上签名
+	 * @param table
+	 * @param idList
+	 * @return
+	 */
+	protected byte[] encode(@NotNull String table, List<Object> idList) {
+		JSONObject message = new JSONObject(true);
+		message.put(KEY_NODE, node);
+		message.put(KEY_TABLE, table);
+		message.put(KEY_ID_LIST, idList);
+		message.put(KEY_TIME, System.currentTimeMillis());
+		byte[] body = message.toJSONString().getBytes(StandardCharsets.UTF_8);
+		if (secret == null) {
+			return body;
+		}
+
+		byte[] sign = sign(body, 0, body.length).getBytes(StandardCharsets.UTF_8);
+		byte[] data = new byte[sign.length + body.length];
+		System.arraycopy(sign, 0, data, 0, sign.length);
+		System.arraycopy(body, 0, data, sign.length, body.length);
+		return data;
+	}
+
+	/**解码 {@link #encode(String, List)} 的结果，签名不对、过期或格式不对都返回 null
+	 * 只读取需要的字段，并关闭 @type 等特殊 key，避免按消息内容实例化任意类
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	protected JSONObject decode(byte[] data, int offset, int length) {
+		if (secret != null) {
+			if (length <= SIGN_LENGTH) {
+				Log.e(TAG, "decode  length <= SIGN_LENGTH >> 丢弃没有签名的消息");
+				return null;
+			}
+			byte[] sign = sign(data, offset + SIGN_LENGTH, length - SIGN_LENGTH).getBytes(StandardCharsets.UTF_8);
+			if (MessageDigest.isEqual(sign, Arrays.copyOfRange(data, offset, offset + SIGN_LENGTH)) == false) {
+				Log.e(TAG, "decode  MessageDigest.isEqual(sign, ...) == false >> 丢弃签名不对的消息");
+				return null;
+			}
+			offset += SIGN_LENGTH;
+			length -= SIGN_LENGTH;
+		}
+
+		JSONObject message;
+		try {
+			message = JSON.parseObject(new String(data, offset, length, StandardCharsets.UTF_8), Feature.DisableSpecialKeyDetect);
+		} catch (Exception e) {
+			Log.e(TAG, "decode  JSON.parseObject >> catch (Exception e) >> " + e.getMessage());
+			return null;
+		}
+		if (message == null) {
+			return null;
+		}
+
+		Object node = message.get(KEY_NODE);
+		Object table = message.get(KEY_TABLE);
+		if (node instanceof String == false || table instanceof String == false || StringUtil.isName((String) table) == false) {
+			return null;
+		}
+		Object idList = message.get(KEY_ID_LIST);
+		if (idList != null) {
+			if (idList instanceof JSONArray == false) {
+				return null;
+			}
+			for (Object id : (JSONArray) idList) {
+				if (id instanceof Number == false && id instanceof String == false) {
+					return null;
+				}
+			}
+		}
+		if (secret != null) {
+			Object time = message.get(KEY_TIME);
+			if (time instanceof Number == false
+					|| Math.abs(System.currentTimeMillis() - ((Number) time).longValue()) > MAX_MESSAGE_AGE) {
+				Log.e(TAG, "decode  Math.abs(System.currentTimeMillis() - time) > MAX_MESSAGE_AGE >> 丢弃过期的消息");
+				return null;
+			}
+		}
+
+		JSONObject result = new JSONObject(true);
+		result.put(KEY_NODE, node);
+		result.put(KEY_TABLE, table);
+		result.put(KEY_ID_LIST, idList);
+		return result;
+	}
+
+	/**用共享密钥计算 HMAC-SHA256，返回十六进制小写字符串
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	protected String sign(byte[] data, int offset, int length) {
+		byte[] hash;
+		try {
+			Mac mac = Mac.getInstance(HMAC); //Mac 不是线程安全的，发送和接收在不同线程
+			mac.init(secret);
+			mac.update(data, offset, length);
+			hash = mac.doFinal();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder sb = new StringBuilder(2*hash.length);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		socket.close();
+		super.close();
+	}
+
+}
@@ -0,0 +1,199 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**POST 带 id{} 且数量 >= {@link AbstractSQLConfig#BATCH_MIN_COUNT} 时用 {@link SQLExecutor#executeBatch(List)} 批量写入
+ * @author Lemon
+ */
+public class BatchPostTest {
+
+	private static final String URI = "jdbc:h2:mem:batchpost";
+
+	/**统计 executeBatch 的调用次数
+	 */
+	private static class BatchParser extends H2Parser {
+		final AtomicInteger count = new AtomicInteger();
+
+		BatchParser() {
+			super(RequestMethod.POST, true);
+		}
+
+		@Override
+		public SQLExecutor createSQLExecutor() {
+			return new H2SQLExecutor() {
+				@Override
+				public int[] executeBatch(List<SQLConfig> configList) throws Exception {
+					count.incrementAndGet();
+					return super.executeBatch(configList);
+				}
+			};
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+				, "DELETE FROM sys.Moment");
+		H2SQLConfig.DB_URI = URI;
+	}
+
+	@After
+	public void tearDown() {
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static long count() throws Exception {
+		return H2SQLExecutor.queryLong(URI, "SELECT count(*) FROM sys.Moment");
+	}
+
+	private static List<Long> idList(int size) {
+		List<Long> list = new ArrayList<Long>();
+		for (long i = 1; i <= size; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+
+	private static String request(List<Long> idList, String extra) {
+		return "{\"Moment\":{\"id{}\":" + JSONArray.toJSONString(idList) + ",\"userId\":1,\"content\":\"a\"}" + extra + "}";
+	}
+
+
+	@Test
+	public void testPostIdInUsesBatch() throws Exception {
+		int size = AbstractSQLConfig.BATCH_MIN_COUNT + 2;
+		BatchParser parser = new BatchParser();
+		JSONObject result = parser.parseResponse(request(idList(size), ""));
+
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals(1, parser.count.get());
+		JSONObject moment = result.getJSONObject("Moment");
+		assertEquals(size, moment.getIntValue(JSONResponse.KEY_COUNT));
+		int[] counts = new int[size];
+		Arrays.fill(counts, 1);
+		assertArrayEquals("count[] 和 id[] 一一对应", counts, moment.getObject(JSONResponse.KEY_COUNT + "[]", int[].class));
+		assertEquals(JSONArray.toJSON(idList(size)), moment.getJSONArray(JSONResponse.KEY_ID + "[]"));
+		assertEquals(size, count());
+	}
+
+	@Test
+	public void testFewIdsUseOneStatement() throws Exception {
+		int size = AbstractSQLConfig.BATCH_MIN_COUNT - 1;
+		BatchParser parser = new BatchParser();
+		JSONObject result = parser.parseResponse(request(idList(size), ""));
+
+		assertEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("数量少时拼接为一条 VALUES (...),(...)", 0, parser.count.get());
+		assertFalse(result.getJSONObject("Moment").containsKey(JSONResponse.KEY_COUNT + "[]"));
+		assertEquals(size, count());
+	}
+
+	@Test
+	public void testBatchRollsBackWithoutTransaction() throws Exception {
+		H2SQLExecutor.update(URI, "INSERT INTO sys.Moment (id, userId, content) VALUES (5, 2, 'b')");
+
+		JSONObject result = new BatchParser().parseResponse(request(idList(AbstractSQLConfig.BATCH_MIN_COUNT + 2), ",\"@transaction\":false"));
+
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("id 重复时已写入的也要回滚", 1, count());
+	}
+
+	@Test
+	public void testDefaultExecuteBatchUsesTransaction() throws Exception {
+		final List<String> callList = new ArrayList<String>();
+		AbstractSQLExecutor executor = new AbstractSQLExecutor() {
+
+			@Override
+			public void begin(int transactionIsolation, boolean readOnly) throws SQLException {
+				callList.add("begin");
+				super.begin(transactionIsolation, readOnly);
+			}
+			@Override
+			public void commit() throws SQLException {
+				callList.add("commit");
+				super.commit();
+			}
+			@Override
+			public void rollback() throws SQLException {
+				callList.add("rollback");
+				super.rollback();
+			}
+
+			@Override
+			public int executeUpdate(SQLConfig config) throws Exception {
+				if (config.getId() < 0) {
+					throw new SQLException("失败");
+				}
+				callList.add("update");
+				return 1;
+			}
+			@Override
+			public ResultSet executeQuery(SQLConfig config) throws Exception {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			public boolean isJSONType(ResultSetMetaData rsmd, int position) {
+				return false;
+			}
+		};
+
+		List<SQLConfig> configList = new ArrayList<SQLConfig>();
+		configList.add(new H2SQLConfig(RequestMethod.POST, "Moment").setId(1));
+		configList.add(new H2SQLConfig(RequestMethod.POST, "Moment").setId(2));
+		assertArrayEquals(new int[]{1, 1}, executor.executeBatch(configList));
+		assertEquals(Arrays.asList("begin", "update", "update", "commit"), callList);
+
+		callList.clear();
+		configList.add(new H2SQLConfig(RequestMethod.POST, "Moment").setId(-1));
+		try {
+			executor.executeBatch(configList);
+			fail("有一项失败要抛出异常");
+		} catch (SQLException e) {
+			assertEquals(Arrays.asList("begin", "update", "update", "rollback"), callList);
+		}
+
+		callList.clear();
+		executor.begin(0);
+		executor.executeBatch(configList.subList(0, 2));
+		assertEquals("已经在事务中则由外层提交", Arrays.asList("begin", "update", "update"), callList);
+		executor.close();
+	}
+
+}
@@ -0,0 +1,93 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**同一个 SQL 模板在不同库中的列类型可能不同，缓存的 {@link ColumnPlan} 不能复用
+ * @author Lemon
+ */
+public class ColumnPlanTest {
+
+	private static final String URI_A = "jdbc:h2:mem:columnplan_a";
+	private static final String URI_B = "jdbc:h2:mem:columnplan_b";
+	private static final String TEMPLATE = "SELECT * FROM sys.Moment";
+
+	private final SQLExecutor executor = new H2SQLExecutor();
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI_A, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, content VARCHAR(100))"
+				, "MERGE INTO sys.Moment (id, content) VALUES (1, 'a')");
+		H2SQLExecutor.update(URI_B, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id VARCHAR(20) PRIMARY KEY, content VARCHAR(100))"
+				, "MERGE INTO sys.Moment (id, content) VALUES ('1', 'b')");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		H2SQLExecutor.update(URI_A, "DROP TABLE sys.Moment");
+		H2SQLExecutor.update(URI_B, "DROP TABLE sys.Moment");
+	}
+
+	/**用缓存的列读取计划读取第一行的 id
+	 * @param uri
+	 * @param plans 存放用到的列读取计划
+	 * @param index
+	 * @return
+	 * @throws SQLException
+	 */
+	private Object readId(String uri, ColumnPlan[] plans, int index) throws SQLException {
+		Connection connection = DriverManager.getConnection(uri + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1", "sa", "");
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(TEMPLATE);
+			rs.next();
+			plans[index] = ColumnPlan.get(TEMPLATE, rs.getMetaData(), executor, false);
+			Object id = plans[index].read(rs, 1);
+			rs.close();
+			statement.close();
+			return id;
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testSameTemplateDifferentColumnType() throws Exception {
+		ColumnPlan[] plans = new ColumnPlan[3];
+
+		assertEquals(Long.valueOf(1), readId(URI_A, plans, 0));
+		assertEquals("列名相同但类型不同，要重新生成", "1", readId(URI_B, plans, 1));
+		assertNotSame(plans[0], plans[1]);
+
+		readId(URI_B, plans, 2);
+		assertSame("列类型一致则复用", plans[1], plans[2]);
+	}
+
+}
@@ -0,0 +1,169 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**{@link ConditionEvaluator} 的结果必须和 MySQL 执行 SQL 的结果一致，不一致或不确定的返回 null 交给 SQL 校验
+ * <br > 每行为 { key, 值, 条件, 期望的结果 }，期望的结果为 MySQL 5.7 默认 utf8mb4_general_ci 下 SELECT 的结果，null 表示不在内存里计算
+ * @author Lemon
+ */
+public class ConditionEvaluatorTest {
+
+	@After
+	public void tearDown() {
+		ConditionEvaluator.LIKE_IGNORE_CASE = true;
+	}
+
+	/**
+	 * key{}:"condition"，非预编译
+	 */
+	private static final Object[][] RANGE_CASES = {
+			//SELECT 5 > 1 OR 5 < 0
+			{"id", 5, ">1,<0", true},
+			{"id", 5, ">10,<0", false},
+			//SELECT 5 > 1 AND 5 < 3
+			{"id&", 5, ">1,<3", false},
+			{"id&", 2, ">1,<3", true},
+			{"id&", 1, ">1,<3", false},
+			//SELECT NOT (5 > 1 OR 5 < 0)
+			{"id!", 5, ">1,<0", false},
+			{"id!", -1, ">1,<-5", true},
+			{"id", 3, "=3", true},
+			{"id", 3, "<>3", false},
+			{"id", 3, "!=4", true},
+			{"id", 3, ">=3", true},
+			{"id", 3, "<=2", false},
+			{"id", 3, " > 2 ", true},
+			{"id", 1.5, ">1", true},
+			{"id", 1, "=1.0", true},
+			{"id", "10", ">9", true}, //SELECT '10' > 9 按数字比较
+			{"id", "1e3", ">999", true}, //SELECT '1e3' > 999
+			{"id", -7, "<-6.5", true},
+			//MySQL 能转为数字但有 warning 或结果和类型有关的，不在内存里计算
+			{"id", "abc", ">0", null},
+			{"id", "5abc", ">4", null},
+			{"id", " 5", ">4", null},
+			{"id", "", ">0", null},
+			//函数等条件
+			{"id", 5, "length(id)>1", null},
+			{"id", 5, ">1,in(1,2)", null},
+			{"id", 5, ">a", null},
+			{"id", 5, "", null},
+	};
+
+	/**
+	 * key$:"pattern"
+	 */
+	private static final Object[][] SEARCH_CASES = {
+			//SELECT 'apijson' LIKE 'api%'
+			{"name", "apijson", "api%", true},
+			{"name", "apijson", "%json", true},
+			{"name", "apijson", "%pij%", true},
+			{"name", "apijson", "json%", false},
+			{"name", "apijson", "api_son", true},
+			{"name", "apijson", "api_json", false},
+			{"name", "apijson", "apijson", true},
+			{"name", "apijson", "apijso", false},
+			{"name", "", "%", true},
+			{"name", "", "_", false},
+			{"name", "a", "%%_%", true},
+			{"name", "aXbXc", "a%b%c", true},
+			{"name", "aXbXd", "a%b%c", false},
+			{"name", "abcabc", "%abc", true}, //需要回溯
+			{"name", "a ", "a", false}, //LIKE 不忽略末尾的空格
+			{"name", 123, "1%", true}, //SELECT 123 LIKE '1%'
+			//默认的 *_ci 排序规则忽略大小写
+			{"name", "APIJSON", "api%", true},
+			{"name", "apijson", "%JSON", true},
+			//多个 pattern，默认 OR
+			{"name", "apijson", new String[]{"x%", "%json"}, true},
+			{"name&", "apijson", new String[]{"api%", "%json"}, true},
+			{"name&", "apijson", new String[]{"api%", "%xml"}, false},
+			{"name!", "apijson", new String[]{"x%", "y%"}, true},
+			{"name!", "apijson", new String[]{"x%", "api%"}, false},
+			//转义、排序规则有关或 SQL 会报错的，不在内存里计算
+			{"name", "a\\b", "a%", null},
+			{"name", "ab", "a\\%", null},
+			{"name", "it's", "it%", null},
+			{"name", "ab", "a'%", null},
+			{"name", "é", "%", null},
+			{"name", "ab", "a%é", null},
+			{"name", "a\tb", "a%", null},
+			{"name", "ab", 1, null},
+			{"name", "ab", new String[]{}, null},
+			{"name", "ab", null, null},
+	};
+
+
+	@Test
+	public void testRange() {
+		for (Object[] c : RANGE_CASES) {
+			assertEquals(Arrays.toString(c), c[3], ConditionEvaluator.evaluate("{}", new Logic((String) c[0]), c[1], c[2], false));
+		}
+	}
+
+	@Test
+	public void testRangePrepared() {
+		//预编译时 condition 必须符合 ^[0-9%!=<>,]+$ ，否则 SQL 会报错，不在内存里计算
+		Object[][] cases = {
+				{"id", 5, ">1,<0", true},
+				{"id&", 5, ">1,<3", false},
+				{"id", 5, " >1", null},
+				{"id", 5, ">-1", null},
+				{"id", 5, ">1.5", null},
+		};
+		for (Object[] c : cases) {
+			assertEquals(Arrays.toString(c), c[3], ConditionEvaluator.evaluate("{}", new Logic((String) c[0]), c[1], c[2], true));
+		}
+	}
+
+	@Test
+	public void testSearch() {
+		for (Object[] c : SEARCH_CASES) {
+			Object value = c[2] instanceof String[] ? Arrays.asList((String[]) c[2]) : c[2];
+			assertEquals(Arrays.toString(c), c[3], ConditionEvaluator.evaluate("$", new Logic((String) c[0]), c[1], value, false));
+		}
+	}
+
+	@Test
+	public void testSearchCaseSensitive() {
+		//*_bin, *_cs 排序规则区分大小写
+		ConditionEvaluator.LIKE_IGNORE_CASE = false;
+		Object[][] cases = {
+				{"name", "APIJSON", "api%", false},
+				{"name", "APIJSON", "API%", true},
+				{"name", "apijson", "%JSON", false},
+				{"name", "apiJSON", "api_SON", true},
+		};
+		for (Object[] c : cases) {
+			assertEquals(Arrays.toString(c), c[3], ConditionEvaluator.evaluate("$", new Logic((String) c[0]), c[1], c[2], false));
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		assertEquals("range 不是字符串", null, ConditionEvaluator.evaluate("{}", new Logic("id"), 5, 1, false));
+		assertEquals("其它功能符", null, ConditionEvaluator.evaluate("()", new Logic("id"), 5, ">1", false));
+		assertEquals(null, ConditionEvaluator.evaluate("~", new Logic("id"), 5, ">1", false));
+	}
+
+}
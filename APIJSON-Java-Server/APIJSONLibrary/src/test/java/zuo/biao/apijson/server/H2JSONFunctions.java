@@ -0,0 +1,66 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+
+/**用 H2 的 CREATE ALIAS 模拟 MySQL 的 JSON 函数，只实现测试用到的部分
+ * @author Lemon
+ */
+public class H2JSONFunctions {
+
+	/**注册到数据库
+	 * @param uri
+	 * @throws Exception
+	 */
+	public static void register(String uri) throws Exception {
+		String name = H2JSONFunctions.class.getName();
+		H2SQLExecutor.update(uri, "CREATE ALIAS IF NOT EXISTS JSON_ARRAY_APPEND FOR \"" + name + ".jsonArrayAppend\""
+				, "CREATE ALIAS IF NOT EXISTS JSON_CONTAINS FOR \"" + name + ".jsonContains\"");
+	}
+
+	/**JSON_ARRAY_APPEND(array, '$', value, '$', value ...)
+	 * @param array
+	 * @param pathValues
+	 * @return
+	 */
+	public static String jsonArrayAppend(String array, String... pathValues) {
+		JSONArray arr = array == null ? new JSONArray() : JSON.parseArray(array);
+		Object value;
+		for (int i = 1; i < pathValues.length; i += 2) {
+			value = JSON.parse(pathValues[i]);
+			//H2 的 CAST('1' AS JSON) 得到字符串 "1"，MySQL 则解析为 1
+			arr.add(value instanceof String ? JSON.parse((String) value) : value);
+		}
+		return arr.toJSONString();
+	}
+
+	/**JSON_CONTAINS(target, candidate)，candidate 为数组时要全部包含
+	 * @param target
+	 * @param candidate
+	 * @return
+	 */
+	public static int jsonContains(String target, String candidate) {
+		JSONArray arr = target == null ? new JSONArray() : JSON.parseArray(target);
+		Object c = JSON.parse(candidate);
+		if (c instanceof JSONArray) {
+			return arr.containsAll((JSONArray) c) ? 1 : 0;
+		}
+		return arr.contains(c) ? 1 : 0;
+	}
+
+}
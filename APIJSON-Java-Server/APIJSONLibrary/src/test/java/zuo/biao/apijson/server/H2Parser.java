@@ -0,0 +1,104 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.RequestMethod;
+
+/**测试用的请求解析器，SQL 在 {@link H2SQLConfig#DB_URI} 的 H2 数据库执行
+ * @author Lemon
+ */
+public class H2Parser extends AbstractParser implements SQLCreator {
+
+	public H2Parser() {
+		super();
+	}
+	public H2Parser(RequestMethod method) {
+		super(method);
+	}
+	public H2Parser(RequestMethod method, boolean noVerify) {
+		super(method, noVerify);
+	}
+
+
+	@Override
+	public Verifier createVerifier() {
+		return new AbstractVerifier() {
+
+			@Override
+			public Parser createParser() {
+				H2Parser parser = new H2Parser();
+				parser.setVisitor(visitor);
+				return parser;
+			}
+
+			@Override
+			public String getVisitorKey() {
+				return "User";
+			}
+
+			@Override
+			public String getVisitorIdKey() {
+				return "userId";
+			}
+
+			@Override
+			public String getVisitorIdKey(String table) {
+				return "User".equals(table) ? "id" : getVisitorIdKey();
+			}
+		};
+	}
+	@Override
+	public SQLConfig createSQLConfig() {
+		return new H2SQLConfig(RequestMethod.GET, null);
+	}
+	@Override
+	public SQLExecutor createSQLExecutor() {
+		return new H2SQLExecutor();
+	}
+
+	@Override
+	public ObjectParser createObjectParser(JSONObject request, String parentPath, String name, SQLConfig arrayConfig) throws Exception {
+		return new AbstractObjectParser(request, parentPath, name, arrayConfig) {
+
+			@Override
+			public SQLConfig newSQLConfig() throws Exception {
+				return H2SQLConfig.newSQLConfig(method, table, sqlRequest);
+			}
+
+			@Override
+			public JSONObject parseResponse(JSONRequest request) throws Exception {
+				H2Parser parser = new H2Parser(RequestMethod.GET);
+				parser.setVisitor(H2Parser.this.getVisitor());
+				parser.setNoVerifyLogin(noVerifyLogin);
+				parser.setNoVerifyRole(noVerifyRole);
+				return parser.parseResponse(request);
+			}
+
+			@Override
+			public Object onFunctionParse(JSONObject json, String function) throws Exception {
+				throw new UnsupportedOperationException("测试中不支持远程函数 " + function);
+			}
+		}.setMethod(requestMethod).setParser(this);
+	}
+
+	@Override
+	public JSONObject parseCorrectRequest(JSONObject target) throws Exception {
+		return Structure.parseRequest(requestMethod, "", target, requestObject, this);
+	}
+
+}
@@ -0,0 +1,84 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.util.List;
+
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.RequestMethod;
+
+/**测试用的 SQL 配置，连接内嵌的 H2 数据库，主库、从库和分片地址由测试设置
+ * @author Lemon
+ */
+public class H2SQLConfig extends AbstractSQLConfig {
+
+	public static String DB_URI = "jdbc:h2:mem:apijson";
+	public static List<String> DB_REPLICA_URI_LIST;
+	public static List<String> DB_SHARD_URI_LIST;
+
+	@Override
+	public String getDBUri() {
+		return DB_URI;
+	}
+	@Override
+	public String getDBAccount() {
+		return "sa";
+	}
+	@Override
+	public String getDBPassword() {
+		return "";
+	}
+	@Override
+	public List<String> getDBReplicaUriList() {
+		return DB_REPLICA_URI_LIST;
+	}
+	@Override
+	public List<String> getDBShardUriList() {
+		return DB_SHARD_URI_LIST;
+	}
+	@Override
+	public String getSchema() {
+		String s = super.getSchema();
+		return s == null || s.isEmpty() ? "sys" : s;
+	}
+
+	/**H2 不支持无参数的 JSON_ARRAY()，换成空数组的字符串，JSON 函数见 {@link H2JSONFunctions}
+	 */
+	@Override
+	public String getSQL(boolean prepared) throws Exception {
+		String sql = super.getSQL(prepared);
+		return sql == null ? null : sql.replace("JSON_ARRAY()", "'[]'");
+	}
+
+	public H2SQLConfig(RequestMethod method, String table) {
+		super(method, table);
+	}
+
+	public static AbstractSQLConfig newSQLConfig(RequestMethod method, String table, String request) throws Exception {
+		return newSQLConfig(method, table, JSONObject.parseObject(request));
+	}
+	public static AbstractSQLConfig newSQLConfig(RequestMethod method, String table, JSONObject request) throws Exception {
+		return newSQLConfig(method, table, request, new Callback() {
+
+			@Override
+			public AbstractSQLConfig getSQLConfig(RequestMethod method, String table) {
+				return new H2SQLConfig(method, table);
+			}
+		});
+	}
+
+}
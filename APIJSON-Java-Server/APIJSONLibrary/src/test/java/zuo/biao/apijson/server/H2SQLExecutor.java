@@ -0,0 +1,91 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**测试用的 executor，每个 uri 一个 H2 内存数据库的连接池
+ * @author Lemon
+ */
+public class H2SQLExecutor extends AbstractPoolSQLExecutor {
+
+	@Override
+	protected SQLConnectionPool getPool(SQLConfig config) {
+		return getPool(config.getDBUri());
+	}
+
+	@Override
+	protected SQLConnectionPool getPool(SQLConfig config, String uri) {
+		return getPool(uri);
+	}
+
+	/**获取连接池，H2 用 MySQL 模式，关闭所有连接后也保留数据
+	 * @param uri
+	 * @return
+	 */
+	public static SQLConnectionPool getPool(final String uri) {
+		return SQLConnectionPool.getInstance(uri, new SQLConnectionPool.Callback() {
+
+			@Override
+			public Connection newConnection() throws SQLException {
+				return DriverManager.getConnection(uri + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1", "sa", "");
+			}
+		});
+	}
+
+	/**在 uri 对应的数据库直接执行 SQL，不经过连接池，用来建表和准备数据
+	 * @param uri
+	 * @param sqls
+	 * @throws SQLException
+	 */
+	public static void update(String uri, String... sqls) throws SQLException {
+		Connection connection = DriverManager.getConnection(uri + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1", "sa", "");
+		try {
+			Statement statement = connection.createStatement();
+			for (String sql : sqls) {
+				statement.executeUpdate(sql);
+			}
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**在 uri 对应的数据库直接查询一个数字
+	 * @param uri
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	public static long queryLong(String uri, String sql) throws SQLException {
+		Connection connection = DriverManager.getConnection(uri + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1", "sa", "");
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet rs = statement.executeQuery(sql);
+			rs.next();
+			long value = rs.getLong(1);
+			statement.close();
+			return value;
+		} finally {
+			connection.close();
+		}
+	}
+
+}
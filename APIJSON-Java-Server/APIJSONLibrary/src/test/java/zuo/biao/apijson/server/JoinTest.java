@@ -0,0 +1,165 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+import zuo.biao.apijson.RequestRole;
+
+/**数组内被引用的子对象 LEFT JOIN 到主表查询，结果必须和逐条查询完全一样
+ * @author Lemon
+ */
+public class JoinTest {
+
+	private static final String URI = "jdbc:h2:mem:join";
+	private static final String[] TABLES = new String[]{"Moment", "User", "Comment"};
+
+	/**统计执行的查询次数
+	 */
+	private static class CountParser extends H2Parser {
+		final AtomicInteger count = new AtomicInteger();
+
+		CountParser(Visitor visitor) {
+			super(RequestMethod.GET, visitor == null);
+			if (visitor != null) {
+				setVisitor(visitor);
+			}
+		}
+
+		@Override
+		public SQLExecutor createSQLExecutor() {
+			return new H2SQLExecutor() {
+				@Override
+				public ResultSet executeQuery(SQLConfig config) throws Exception {
+					count.incrementAndGet();
+					return super.executeQuery(config);
+				}
+			};
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+				, "CREATE TABLE IF NOT EXISTS sys.User (id BIGINT PRIMARY KEY, name VARCHAR(100))"
+				, "CREATE TABLE IF NOT EXISTS sys.Comment (id BIGINT PRIMARY KEY, momentId BIGINT, content VARCHAR(100))"
+				, "DELETE FROM sys.Moment"
+				, "DELETE FROM sys.User"
+				, "DELETE FROM sys.Comment"
+				//userId 10 被多条共用，99 不存在
+				, "INSERT INTO sys.Moment (id, userId, content) VALUES (1, 10, 'm1'), (2, 20, 'm2'), (3, 10, 'm3'), (4, 99, 'm4'), (5, 30, 'm5')"
+				, "INSERT INTO sys.User (id, name) VALUES (10, 'a'), (20, 'b'), (30, 'c')"
+				, "INSERT INTO sys.Comment (id, momentId, content) VALUES (1, 1, 'c1'), (2, 1, 'c2'), (3, 2, 'c3')");
+		H2SQLConfig.DB_URI = URI;
+
+		Map<RequestMethod, RequestRole[]> access = new HashMap<RequestMethod, RequestRole[]>();
+		for (RequestMethod method : RequestMethod.values()) {
+			access.put(method, RequestRole.values());
+		}
+		for (String table : TABLES) {
+			AbstractVerifier.ACCESS_MAP.put(table, access);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (String table : TABLES) {
+			AbstractVerifier.ACCESS_MAP.remove(table);
+		}
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static Visitor newVisitor(final long id, final Long... contacts) {
+		return new Visitor() {
+
+			@Override
+			public Long getId() {
+				return id;
+			}
+
+			@Override
+			public List<Long> getContactIdList() {
+				return Arrays.asList(contacts);
+			}
+		};
+	}
+
+	/**分别 LEFT JOIN 和逐条查询，断言结果一样
+	 * @param visitor 为 null 则不校验
+	 * @param request
+	 * @return { JOIN 的查询次数, 逐条的查询次数 }
+	 */
+	private static int[] assertSame(Visitor visitor, String request) {
+		CountParser join = new CountParser(visitor);
+		JSONObject joinResult = join.setJoin(true).setBatch(false).parseResponse(request);
+		CountParser single = new CountParser(visitor);
+		JSONObject singleResult = single.setJoin(false).setBatch(false).parseResponse(request);
+
+		assertEquals(JSON.toJSONString(singleResult), JSON.toJSONString(joinResult));
+		return new int[]{join.count.get(), single.count.get()};
+	}
+
+
+	@Test
+	public void testSplitJoinedRows() {
+		String request = "{\"[]\":{\"Moment\":{\"@order\":\"id+\"},\"User\":{\"id@\":\"[]/Moment/userId\"}}}";
+		int[] counts = assertSame(null, request);
+		assertEquals("整页只查 1 次，counts = " + Arrays.toString(counts), 1, counts[0]);
+
+		JSONObject result = new CountParser(null).setJoin(true).parseResponse(request);
+		assertEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		JSONObject item = result.getJSONArray("[]").getJSONObject(2);
+		assertEquals("主表和副表的字段按 _joinN 拆开", "m3", item.getJSONObject("Moment").getString("content"));
+		assertEquals("不能混入 _join1 和副表的字段", 3, item.getJSONObject("Moment").size());
+		assertEquals("a", item.getJSONObject("User").getString("name"));
+		assertNull("没关联到的副表为 null", result.getJSONArray("[]").getJSONObject(3).get("User"));
+	}
+
+	@Test
+	public void testJoinedColumn() {
+		assertEquals(1, assertSame(null, "{\"[]\":{\"Moment\":{\"@column\":\"id,content\",\"@order\":\"id-\"}"
+				+ ",\"User\":{\"id@\":\"[]/Moment/userId\",\"@column\":\"name\"}}}")[0]);
+		assertSame(null, "{\"[]\":{\"Moment\":{\"@column\":\"id,userId:uid\"},\"User\":{\"id@\":\"[]/Moment/uid\",\"@column\":\"id,name:nickname\"}}}");
+	}
+
+	@Test
+	public void testRoleInOn() {
+		Visitor visitor = newVisitor(10, 20L);
+		assertSame(visitor, "{\"[]\":{\"Moment\":{\"userId{}\":[10,20],\"@order\":\"id+\"}"
+				+ ",\"User\":{\"id@\":\"[]/Moment/userId\",\"@role\":\"CIRCLE\"}}}");
+		assertSame(visitor, "{\"[]\":{\"Moment\":{\"@order\":\"id+\"},\"User\":{\"id@\":\"[]/Moment/userId\",\"@role\":\"OWNER\"}}}");
+		assertSame(visitor, "{\"[]\":{\"Moment\":{\"@order\":\"id+\"},\"User\":{\"id@\":\"[]/Moment/userId\",\"@role\":\"LOGIN\"}}}");
+	}
+
+}
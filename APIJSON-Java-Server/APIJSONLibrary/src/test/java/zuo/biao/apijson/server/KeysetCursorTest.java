@@ -0,0 +1,180 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**@cursor 游标分页，逐页取完和 OFFSET 分页的结果一致，且不重复、不遗漏
+ * @author Lemon
+ */
+public class KeysetCursorTest {
+
+	private static final String URI = "jdbc:h2:mem:cursor";
+	private static final int ROW_COUNT = 23;
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, score INT)"
+				, "DELETE FROM sys.Moment");
+		for (int i = 1; i <= ROW_COUNT; i++) { //score 有重复，必须靠 id 区分
+			H2SQLExecutor.update(URI, "INSERT INTO sys.Moment (id, userId, score) VALUES (" + i + ", " + (i % 2) + ", " + (i % 5) + ")");
+		}
+		H2SQLConfig.DB_URI = URI;
+	}
+
+	@After
+	public void tearDown() {
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static JSONObject get(String request) {
+		return new H2Parser(RequestMethod.GET, true).parseResponse(request);
+	}
+
+	/**用 @cursor 逐页取完
+	 * @param moment Moment 内除 @cursor 外的内容
+	 * @param count 每页数量
+	 * @return 所有 id
+	 */
+	private static List<Long> walk(String moment, int count) {
+		List<Long> list = new ArrayList<Long>();
+		String cursor = "";
+		for (int i = 0; i < ROW_COUNT; i++) {
+			JSONObject result = get("{\"[]\":{\"count\":" + count + ",\"Moment\":{" + moment + ",\"@cursor\":\"" + cursor + "\"}}"
+					+ ",\"cursor@\":\"/[]/cursor\"}");
+			assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+
+			JSONArray arr = result.getJSONArray("[]");
+			if (arr == null || arr.isEmpty()) {
+				return list;
+			}
+			for (int j = 0; j < arr.size(); j++) {
+				list.add(arr.getJSONObject(j).getJSONObject("Moment").getLong("id"));
+			}
+			cursor = result.getString(JSONResponse.KEY_CURSOR);
+			assertNotNull("有数据时必须返回下一页的游标", cursor);
+		}
+		throw new AssertionError("游标分页没有结束");
+	}
+
+	/**用 OFFSET 分页一次取完，作为期望的顺序
+	 * @param moment
+	 * @return
+	 */
+	private static List<Long> all(String moment) {
+		JSONObject result = get("{\"[]\":{\"count\":100,\"Moment\":{" + moment + "}}}");
+		JSONArray arr = result.getJSONArray("[]");
+		List<Long> list = new ArrayList<Long>();
+		for (int j = 0; j < arr.size(); j++) {
+			list.add(arr.getJSONObject(j).getJSONObject("Moment").getLong("id"));
+		}
+		return list;
+	}
+
+
+	@Test
+	public void testDescWithDuplicates() {
+		List<Long> expected = all("\"@order\":\"score-,id-\"");
+		assertEquals(ROW_COUNT, expected.size());
+		assertEquals(expected, walk("\"@order\":\"score-\"", 4));
+	}
+
+	@Test
+	public void testAscById() {
+		List<Long> ids = walk("\"@order\":\"id+\"", 5);
+		assertEquals(ROW_COUNT, ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(i + 1, ids.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testMixedDirections() {
+		List<Long> expected = all("\"@order\":\"score-,id+\"");
+		assertEquals(expected, walk("\"@order\":\"score-,id+\"", 3));
+	}
+
+	@Test
+	public void testCursorWithCondition() {
+		List<Long> expected = all("\"userId\":1,\"@order\":\"score+,id+\"");
+		assertEquals(12, expected.size());
+		assertEquals(expected, walk("\"userId\":1,\"@order\":\"score+\"", 5));
+	}
+
+	@Test
+	public void testRawArrayCursor() {
+		//score = 3 的有 3, 8, 13, 18, 23，从 (3, 13) 之后开始
+		JSONObject result = get("{\"[]\":{\"count\":3,\"Moment\":{\"@order\":\"score-,id-\",\"@cursor\":[3,13]}}}");
+		JSONArray arr = result.getJSONArray("[]");
+		List<Long> ids = new ArrayList<Long>();
+		for (int j = 0; j < arr.size(); j++) {
+			ids.add(arr.getJSONObject(j).getJSONObject("Moment").getLong("id"));
+		}
+		assertEquals(Arrays.asList(8L, 3L, 22L), ids);
+	}
+
+	@Test
+	public void testPageIsIgnored() {
+		JSONObject result = get("{\"[]\":{\"count\":3,\"page\":5,\"Moment\":{\"@order\":\"id+\",\"@cursor\":[20]}}}");
+		JSONArray arr = result.getJSONArray("[]");
+		assertEquals("游标分页不能再跳过 page*count 条", 3, arr.size());
+		assertEquals(21, arr.getJSONObject(0).getJSONObject("Moment").getIntValue("id"));
+	}
+
+	@Test
+	public void testInvalidCursor() {
+		JSONObject result = get("{\"[]\":{\"count\":3,\"Moment\":{\"@order\":\"score-\",\"@cursor\":[3]}}}");
+		assertNotEquals("游标值的数量必须和排序字段一致", JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+
+		result = get("{\"[]\":{\"count\":3,\"Moment\":{\"@order\":\"id+\",\"@cursor\":\"!!not-base64\"}}}");
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+	}
+
+	@Test
+	public void testCursorEncoding() {
+		AbstractSQLConfig config = new H2SQLConfig(RequestMethod.GET, "Moment");
+		config.setOrder("score-");
+		config.setCursor(new ArrayList<Object>());
+
+		JSONObject row = JSON.parseObject("{\"id\":13,\"score\":3,\"userId\":1}");
+		String cursor = config.newCursor(row);
+		assertTrue("游标必须可以直接放到 URL 里", cursor.matches("[A-Za-z0-9_-]+"));
+		assertEquals(Arrays.<Object>asList(3, 13), AbstractSQLConfig.parseCursor(cursor));
+
+		assertNull("缺少排序字段时无法生成游标", config.newCursor(JSON.parseObject("{\"id\":13}")));
+	}
+
+}
@@ -0,0 +1,112 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**PUT key+:[], key-:[] 在一条 UPDATE 里修改数组，没有修改任何记录时区分冲突和对象不存在
+ * @author Lemon
+ */
+public class PutArrayTest {
+
+	private static final String URI = "jdbc:h2:mem:putarray";
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, praiseUserIdList VARCHAR(1000))"
+				, "DELETE FROM sys.Moment"
+				, "INSERT INTO sys.Moment (id, userId, praiseUserIdList) VALUES (1, 10, '[82001]')");
+		H2JSONFunctions.register(URI);
+		H2SQLConfig.DB_URI = URI;
+	}
+
+	@After
+	public void tearDown() {
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static JSONObject put(String request) {
+		return new H2Parser(RequestMethod.PUT, true).parseResponse(request);
+	}
+
+	private static String praiseUserIdList(long id) throws Exception {
+		SQLConnectionPool pool = H2SQLExecutor.getPool(URI);
+		Connection connection = pool.borrow();
+		try {
+			ResultSet rs = connection.createStatement().executeQuery("SELECT praiseUserIdList FROM sys.Moment WHERE id = " + id);
+			return rs.next() ? rs.getString(1) : null;
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+
+	@Test
+	public void testAdd() throws Exception {
+		JSONObject result = put("{\"Moment\":{\"id\":1,\"praiseUserIdList+\":[82002,82003]}}");
+		assertEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals(1, result.getJSONObject("Moment").getIntValue(JSONResponse.KEY_COUNT));
+		assertEquals("[82001,82002,82003]", praiseUserIdList(1));
+	}
+
+	@Test
+	public void testAddExistingIsConflict() throws Exception {
+		JSONObject result = put("{\"Moment\":{\"id\":1,\"praiseUserIdList+\":[82002,82001]}}");
+		assertEquals("对象存在但已包含要加的值", JSONResponse.CODE_CONFLICT, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("[82001]", praiseUserIdList(1));
+	}
+
+	@Test
+	public void testAddDuplicateInRequestIsConflict() throws Exception {
+		JSONObject result = put("{\"Moment\":{\"id\":1,\"praiseUserIdList+\":[82002,82002]}}");
+		assertEquals(JSONResponse.CODE_CONFLICT, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("[82001]", praiseUserIdList(1));
+	}
+
+	@Test
+	public void testAddToMissingRowIsNotFound() throws Exception {
+		JSONObject result = put("{\"Moment\":{\"id\":99,\"praiseUserIdList+\":[82002]}}");
+		assertNotEquals("对象不存在不能当成冲突", JSONResponse.CODE_CONFLICT, result.getIntValue(JSONResponse.KEY_CODE));
+
+		JSONObject moment = result.getJSONObject("Moment");
+		assertEquals("和普通 PUT 对象不存在时一致", JSONResponse.CODE_NOT_FOUND, moment.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals(0, moment.getIntValue(JSONResponse.KEY_COUNT));
+		assertEquals(null, praiseUserIdList(99));
+	}
+
+	@Test
+	public void testAddToNullArray() throws Exception {
+		H2SQLExecutor.update(URI, "INSERT INTO sys.Moment (id, userId) VALUES (2, 10)");
+		JSONObject result = put("{\"Moment\":{\"id\":2,\"praiseUserIdList+\":[82002]}}");
+		assertEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("[82002]", praiseUserIdList(2));
+	}
+
+}
@@ -0,0 +1,174 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**读写分离，主库和从库是两个内嵌的 H2 数据库，同一行的 content 不同，由此判断查询在哪个库执行
+ * @author Lemon
+ */
+public class ReplicaRouterTest {
+
+	private static final String PRIMARY_URI = "jdbc:h2:mem:primary";
+	private static final String REPLICA_URI = "jdbc:h2:mem:replica";
+	/**
+	 * 连不上的从库
+	 */
+	private static final String DOWN_URI = "jdbc:h2:tcp://127.0.0.1:1/mem:down";
+
+	private long readYourWritesTime;
+
+	@Before
+	public void setUp() throws Exception {
+		for (String uri : Arrays.asList(PRIMARY_URI, REPLICA_URI)) {
+			H2SQLExecutor.update(uri, "CREATE SCHEMA IF NOT EXISTS sys"
+					, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+					, "DELETE FROM sys.Moment"
+					, "INSERT INTO sys.Moment (id, userId, content) VALUES (1, 10, '" + (PRIMARY_URI.equals(uri) ? "primary" : "replica") + "')");
+		}
+		H2SQLConfig.DB_URI = PRIMARY_URI;
+		H2SQLConfig.DB_REPLICA_URI_LIST = Arrays.asList(REPLICA_URI);
+		readYourWritesTime = ReplicaRouter.READ_YOUR_WRITES_TIME;
+	}
+
+	@After
+	public void tearDown() {
+		H2SQLConfig.DB_REPLICA_URI_LIST = null;
+		ReplicaRouter.READ_YOUR_WRITES_TIME = readYourWritesTime;
+		SQLConnectionPool.shutdown(PRIMARY_URI);
+		SQLConnectionPool.shutdown(REPLICA_URI);
+		SQLConnectionPool.shutdown(DOWN_URI);
+	}
+
+	private static H2Parser parser(RequestMethod method, final long visitorId) {
+		H2Parser parser = new H2Parser(method, true);
+		parser.setVisitor(new Visitor() {
+
+			@Override
+			public Long getId() {
+				return visitorId;
+			}
+
+			@Override
+			public List<Long> getContactIdList() {
+				return null;
+			}
+		});
+		return parser;
+	}
+
+	private static String getContent(long visitorId) {
+		JSONObject result = parser(RequestMethod.GET, visitorId).parseResponse("{\"Moment\":{\"id\":1}}");
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		return result.getJSONObject("Moment").getString("content");
+	}
+
+	private static void putContent(long visitorId, String content) {
+		JSONObject result = parser(RequestMethod.PUT, visitorId).parseResponse("{\"Moment\":{\"id\":1,\"content\":\"" + content + "\"}}");
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+	}
+
+	private static String queryContent(String uri) throws Exception {
+		SQLConnectionPool pool = H2SQLExecutor.getPool(uri);
+		Connection connection = pool.borrow();
+		try {
+			ResultSet rs = connection.createStatement().executeQuery("SELECT content FROM sys.Moment WHERE id = 1");
+			rs.next();
+			return rs.getString(1);
+		} finally {
+			pool.release(connection);
+		}
+	}
+
+
+	@Test
+	public void testReadGoesToReplica() throws Exception {
+		assertEquals("replica", getContent(1001));
+		assertEquals("replica", getContent(1001));
+	}
+
+	@Test
+	public void testWriteGoesToPrimary() throws Exception {
+		putContent(1002, "written");
+		assertEquals("written", queryContent(PRIMARY_URI));
+		assertEquals("写操作不能在从库执行", "replica", queryContent(REPLICA_URI));
+	}
+
+	@Test
+	public void testReadYourWrites() throws Exception {
+		putContent(1003, "written");
+		assertEquals("写后一段时间内同一个访问者的查询在主库执行", "written", getContent(1003));
+		assertEquals("其它访问者仍然查从库", "replica", getContent(1004));
+	}
+
+	@Test
+	public void testReadYourWritesExpires() throws Exception {
+		ReplicaRouter.READ_YOUR_WRITES_TIME = 50;
+		putContent(1005, "written");
+		assertEquals("written", getContent(1005));
+
+		Thread.sleep(100);
+		assertEquals("过了写后读的时间窗口后回到从库", "replica", getContent(1005));
+	}
+
+	@Test
+	public void testQueryInWriteTransactionGoesToPrimary() throws Exception {
+		H2SQLExecutor executor = new H2SQLExecutor();
+		try {
+			executor.begin(0);
+			JSONObject moment = executor.execute(H2SQLConfig.newSQLConfig(RequestMethod.GET, "Moment", "{\"id\":1}"));
+			assertEquals("写事务内的查询在主库执行", "primary", moment.getString("content"));
+			executor.commit();
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testNestedQueryFollowsBorrowedPrimary() throws Exception {
+		H2SQLExecutor outer = new H2SQLExecutor();
+		H2SQLExecutor inner = new H2SQLExecutor();
+		try {
+			outer.execute(H2SQLConfig.newSQLConfig(RequestMethod.PUT, "Moment", "{\"id\":1,\"content\":\"written\"}"));
+			JSONObject moment = inner.execute(H2SQLConfig.newSQLConfig(RequestMethod.GET, "Moment", "{\"id\":1}"));
+			assertEquals("当前线程已借出主库连接时嵌套的查询也在主库执行", "written", moment.getString("content"));
+		} finally {
+			inner.close();
+			outer.close();
+		}
+	}
+
+	@Test
+	public void testFallbackToPrimaryWhenReplicaIsDown() throws Exception {
+		H2SQLConfig.DB_REPLICA_URI_LIST = Arrays.asList(DOWN_URI);
+		assertEquals("从库不可用时在主库查询", "primary", getContent(1006));
+	}
+
+}
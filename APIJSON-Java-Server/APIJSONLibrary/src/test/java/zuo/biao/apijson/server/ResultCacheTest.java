@@ -0,0 +1,200 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**{@link ResultCache} 命中、复制隔离、失效，以及查询期间表被修改时不存入过时的结果
+ * @author Lemon
+ */
+public class ResultCacheTest {
+
+	private static final String URI = "jdbc:h2:mem:cache";
+	private static final String[] MOMENT = new String[]{"Moment"};
+	private static final String[] MOMENT_USER = new String[]{"Moment", "User"};
+
+	private int size;
+
+	@Before
+	public void setUp() throws Exception {
+		size = ResultCache.SIZE;
+		ResultCache.clear();
+		ResultCache.TIME_MAP.put("Moment", new long[]{60*1000, 60*1000});
+		ResultCache.TIME_MAP.put("User", new long[]{60*1000, 0});
+
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+				, "DELETE FROM sys.Moment"
+				, "INSERT INTO sys.Moment (id, userId, content) VALUES (1, 10, 'a')");
+		H2SQLConfig.DB_URI = URI;
+	}
+
+	@After
+	public void tearDown() {
+		ResultCache.SIZE = size;
+		ResultCache.TIME_MAP.remove("Moment");
+		ResultCache.TIME_MAP.remove("User");
+		ResultCache.clear();
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static Map<Integer, JSONObject> rows(String... contents) {
+		Map<Integer, JSONObject> map = new LinkedHashMap<Integer, JSONObject>();
+		for (int i = 0; i < contents.length; i++) {
+			map.put(i, JSON.parseObject("{\"id\":" + (i + 1) + ",\"content\":\"" + contents[i] + "\"}"));
+		}
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getContent(String key) {
+		Map<Integer, JSONObject> map = (Map<Integer, JSONObject>) ResultCache.get(key);
+		return map == null ? null : map.get(0).getString("content");
+	}
+
+
+	@Test
+	public void testHit() {
+		ResultCache.put("k", MOMENT, rows("a"), ResultCache.getVersion());
+		assertEquals("a", getContent("k"));
+		assertNull(ResultCache.get("other"));
+
+		ResultCache.put("count", MOMENT, 3L, ResultCache.getVersion());
+		assertEquals(3L, ResultCache.get("count"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCopyIsolation() {
+		Map<Integer, JSONObject> value = rows("a");
+		ResultCache.put("k", MOMENT, value, ResultCache.getVersion());
+		value.get(0).put("content", "changed after put");
+
+		Map<Integer, JSONObject> got = (Map<Integer, JSONObject>) ResultCache.get("k");
+		got.get(0).put("content", "changed after get");
+		got.remove(0);
+
+		assertEquals("存入和取出的都是副本，修改后不影响缓存", "a", getContent("k"));
+	}
+
+	@Test
+	public void testInvalidate() {
+		ResultCache.put("moment", MOMENT, rows("a"), ResultCache.getVersion());
+		ResultCache.put("join", MOMENT_USER, rows("b"), ResultCache.getVersion());
+		ResultCache.put("user", new String[]{"User"}, rows("c"), ResultCache.getVersion());
+
+		ResultCache.invalidate("User");
+		assertEquals("a", getContent("moment"));
+		assertNull("包含副表的缓存也要清除", getContent("join"));
+		assertNull(getContent("user"));
+
+		ResultCache.invalidate("Moment");
+		assertNull(getContent("moment"));
+	}
+
+	@Test
+	public void testStalePutIsRejected() {
+		long version = ResultCache.getVersion(); //查询前
+		ResultCache.invalidate("Moment"); //查询期间别的请求修改了表
+		ResultCache.put("k", MOMENT, rows("old"), version); //查询完成后存入
+		assertNull("查询期间表被修改过，结果可能已过时，不能缓存", ResultCache.get("k"));
+
+		ResultCache.put("k", MOMENT, rows("new"), ResultCache.getVersion());
+		assertEquals("new", getContent("k"));
+	}
+
+	@Test
+	public void testStalePutOnJoinedTableIsRejected() {
+		long version = ResultCache.getVersion();
+		ResultCache.invalidate("User");
+		ResultCache.put("join", MOMENT_USER, rows("old"), version);
+		assertNull(ResultCache.get("join"));
+
+		ResultCache.put("moment", MOMENT, rows("a"), version);
+		assertEquals("其它表被修改不影响", "a", getContent("moment"));
+	}
+
+	@Test
+	public void testNotFoundTime() {
+		ResultCache.put("empty", MOMENT, rows(), ResultCache.getVersion());
+		assertNotNull(ResultCache.get("empty"));
+
+		ResultCache.put("zero", new String[]{"User"}, 0L, ResultCache.getVersion());
+		assertNull("User 没查到结果时不缓存", ResultCache.get("zero"));
+
+		ResultCache.put("undeclared", new String[]{"Comment"}, rows("a"), ResultCache.getVersion());
+		assertNull("没有声明缓存时间的表不缓存", ResultCache.get("undeclared"));
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		ResultCache.TIME_MAP.put("Moment", new long[]{30, 30});
+		ResultCache.put("k", MOMENT, rows("a"), ResultCache.getVersion());
+		assertEquals("a", getContent("k"));
+
+		Thread.sleep(60);
+		assertNull(ResultCache.get("k"));
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		ResultCache.SIZE = 2;
+		ResultCache.put("k0", MOMENT, rows("a"), ResultCache.getVersion());
+		ResultCache.put("k1", MOMENT, rows("b"), ResultCache.getVersion());
+		ResultCache.get("k0");
+		ResultCache.put("k2", MOMENT, rows("c"), ResultCache.getVersion());
+
+		assertEquals("a", getContent("k0"));
+		assertNull(ResultCache.get("k1"));
+		assertEquals("c", getContent("k2"));
+	}
+
+	@Test
+	public void testExecutorUsesAndInvalidatesCache() throws Exception {
+		assertEquals("a", getMomentContent());
+
+		//绕过 executor 直接改数据库，查询命中缓存所以还是旧值
+		H2SQLExecutor.update(URI, "UPDATE sys.Moment SET content = 'direct' WHERE id = 1");
+		assertEquals("a", getMomentContent());
+
+		//通过 executor 修改会清除缓存
+		JSONObject result = new H2Parser(RequestMethod.PUT, true).parseResponse("{\"Moment\":{\"id\":1,\"content\":\"put\"}}");
+		assertEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("put", getMomentContent());
+	}
+
+	private static String getMomentContent() {
+		JSONObject result = new H2Parser(RequestMethod.GET, true).parseResponse("{\"Moment\":{\"id\":1}}");
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		return result.getJSONObject("Moment").getString("content");
+	}
+
+}
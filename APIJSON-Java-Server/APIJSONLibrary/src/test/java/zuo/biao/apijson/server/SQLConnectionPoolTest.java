@@ -0,0 +1,260 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import zuo.biao.apijson.RequestMethod;
+
+/**{@link SQLConnectionPool} 和 {@link AbstractPoolSQLExecutor} 借出、复用、归还连接
+ * @author Lemon
+ */
+public class SQLConnectionPoolTest {
+
+	private static final String URI = "jdbc:h2:mem:pool";
+
+	private SQLConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+				, "DELETE FROM sys.Moment"
+				, "INSERT INTO sys.Moment (id, userId, content) VALUES (1, 10, 'a')");
+		H2SQLConfig.DB_URI = URI;
+		pool = H2SQLExecutor.getPool(URI);
+	}
+
+	@After
+	public void tearDown() {
+		SQLConnectionPool.shutdown(URI);
+	}
+
+
+	@Test
+	public void testReleasedConnectionIsReused() throws Exception {
+		Connection c0 = pool.borrow();
+		pool.release(c0);
+		Connection c1 = pool.borrow();
+		pool.release(c1);
+
+		assertSame(c0, c1);
+		assertEquals(1, pool.getTotalCount());
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(2, pool.getBorrowCount());
+	}
+
+	@Test
+	public void testIndependentBorrowIsNotShared() throws Exception {
+		Connection outer = pool.borrow();
+		Connection independent = pool.borrow(false);
+		assertNotSame("独立借出的连接不复用当前线程的连接", outer, independent);
+
+		Connection inner = pool.borrow();
+		assertSame("独立借出的连接也不会被之后的 borrow() 复用", outer, inner);
+		assertEquals(1, pool.getReuseCount());
+
+		pool.release(independent);
+		assertTrue(pool.isBorrowed());
+		pool.release(inner);
+		pool.release(outer);
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(2, pool.getIdleCount());
+	}
+
+	@Test
+	public void testNestedBorrowInSameThreadSharesConnection() throws Exception {
+		Connection outer = pool.borrow();
+		Connection inner = pool.borrow();
+		assertSame(outer, inner);
+		assertEquals(1, pool.getReuseCount());
+
+		pool.release(inner);
+		assertEquals("内层归还后外层还在用", 1, pool.getActiveCount());
+		pool.release(outer);
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testOtherThreadGetsOtherConnection() throws Exception {
+		final Connection c0 = pool.borrow();
+		ExecutorService service = Executors.newSingleThreadExecutor();
+		try {
+			Connection c1 = service.submit(new Callable<Connection>() {
+				@Override
+				public Connection call() throws Exception {
+					Connection c = pool.borrow();
+					pool.release(c);
+					return c;
+				}
+			}).get();
+			assertNotSame(c0, c1);
+			assertEquals(2, pool.getTotalCount());
+		} finally {
+			service.shutdown();
+			pool.release(c0);
+		}
+	}
+
+	@Test
+	public void testBorrowTimesOutWhenExhausted() throws Exception {
+		pool.setMaxSize(1).setTimeout(100);
+		Connection c0 = pool.borrow();
+		ExecutorService service = Executors.newSingleThreadExecutor();
+		try {
+			Future<Connection> future = service.submit(new Callable<Connection>() {
+				@Override
+				public Connection call() throws Exception {
+					return pool.borrow();
+				}
+			});
+			try {
+				future.get();
+				fail("连接已用完，应该超时");
+			} catch (Exception e) {
+				assertTrue(e.getCause() instanceof SQLException);
+			}
+			assertEquals(1, pool.getTimeoutCount());
+		} finally {
+			service.shutdown();
+			pool.release(c0);
+		}
+	}
+
+	@Test
+	public void testReleaseRollsBackUncommittedTransaction() throws Exception {
+		Connection c = pool.borrow();
+		c.setAutoCommit(false);
+		c.createStatement().executeUpdate("UPDATE sys.Moment SET content = 'changed' WHERE id = 1");
+		pool.release(c);
+
+		Connection c1 = pool.borrow();
+		try {
+			assertSame(c, c1);
+			assertTrue("归还时还原自动提交", c1.getAutoCommit());
+		} finally {
+			pool.release(c1);
+		}
+		assertEquals(0, H2SQLExecutor.queryLong(URI, "SELECT count(*) FROM sys.Moment WHERE content = 'changed'"));
+	}
+
+	@Test
+	public void testExpiredConnectionIsDiscarded() throws Exception {
+		pool.setMaxLifetime(1);
+		Connection c0 = pool.borrow();
+		Thread.sleep(5);
+		pool.release(c0);
+		assertTrue(c0.isClosed());
+		assertEquals(0, pool.getTotalCount());
+
+		Connection c1 = pool.borrow();
+		pool.release(c1);
+		assertNotSame(c0, c1);
+	}
+
+	@Test
+	public void testClosedPoolRejectsBorrow() throws Exception {
+		Connection c = pool.borrow();
+		pool.release(c);
+		pool.close();
+		assertTrue(c.isClosed());
+		try {
+			pool.borrow();
+			fail("连接池已关闭，不能再借出");
+		} catch (SQLException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testCloseCancelsLeakDetection() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		SQLConnectionPool detected = new SQLConnectionPool(new SQLConnectionPool.Callback() {
+			@Override
+			public Connection newConnection() throws SQLException {
+				return DriverManager.getConnection(URI + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE;DB_CLOSE_DELAY=-1", "sa", "");
+			}
+		}) {
+			@Override
+			protected void detectLeak() {
+				count.incrementAndGet();
+				super.detectLeak();
+			}
+		};
+		detected.setLeakDetectionThreshold(100);
+		detected.setLeakDetectionThreshold(200); //已经在检测则不重复提交
+		Thread.sleep(1500);
+		assertEquals("每秒检测一次", 1, count.get());
+
+		detected.close();
+		Thread.sleep(1200);
+		assertEquals("关闭后不再检测", 1, count.get());
+	}
+
+	@Test
+	public void testStatementCache() throws Exception {
+		Connection c = pool.borrow();
+		try {
+			PreparedStatement s0 = pool.prepareStatement(c, "SELECT * FROM sys.Moment WHERE id = ?");
+			PreparedStatement s1 = pool.prepareStatement(c, "SELECT * FROM sys.Moment WHERE id = ?");
+			assertSame(s0, s1);
+			assertTrue(pool.isCached(c, s0));
+			assertEquals(1, pool.getStatementHitCount());
+			assertEquals(1, pool.getStatementMissCount());
+		} finally {
+			pool.release(c);
+		}
+	}
+
+	@Test
+	public void testNestedExecutorsShareConnection() throws Exception {
+		H2SQLExecutor outer = new H2SQLExecutor();
+		H2SQLExecutor inner = new H2SQLExecutor();
+		try {
+			outer.execute(H2SQLConfig.newSQLConfig(RequestMethod.GET, "Moment", "{\"id\":1}"));
+			assertEquals("a", inner.execute(H2SQLConfig.newSQLConfig(RequestMethod.GET, "Moment", "{\"id\":1}")).getString("content"));
+			assertEquals(1, pool.getBorrowCount());
+			assertEquals(1, pool.getReuseCount());
+		} finally {
+			inner.close();
+			outer.close();
+		}
+		assertEquals(0, pool.getActiveCount());
+		assertFalse(pool.isBorrowed());
+	}
+
+}
@@ -0,0 +1,214 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**水平分片，Moment 按 userId 分到 3 个内嵌的 H2 数据库，跨分片查询合并排序后分页
+ * @author Lemon
+ */
+public class ShardQueryTest {
+
+	private static final String URI = "jdbc:h2:mem:shardmain";
+	private static final List<String> SHARD_URI_LIST = Arrays.asList("jdbc:h2:mem:shard0", "jdbc:h2:mem:shard1", "jdbc:h2:mem:shard2");
+	private static final int ROW_COUNT = 40;
+
+	/**
+	 * 所有行按 score 降序，作为跨分片查询期望的顺序
+	 */
+	private List<long[]> rowList;
+
+	@Before
+	public void setUp() throws Exception {
+		for (String uri : SHARD_URI_LIST) {
+			H2SQLExecutor.update(uri, "CREATE SCHEMA IF NOT EXISTS sys"
+					, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, score INT)"
+					, "DELETE FROM sys.Moment");
+		}
+		rowList = new ArrayList<long[]>();
+		for (int i = 1; i <= ROW_COUNT; i++) {
+			long userId = i % 7;
+			long score = (i*37) % 101; //不重复，且和 id, userId 的顺序无关
+			rowList.add(new long[]{i, userId, score});
+			H2SQLExecutor.update(SHARD_URI_LIST.get(AbstractSQLConfig.getShard(userId, SHARD_URI_LIST.size()))
+					, "INSERT INTO sys.Moment (id, userId, score) VALUES (" + i + ", " + userId + ", " + score + ")");
+		}
+		Collections.sort(rowList, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) {
+				return Long.compare(o2[2], o1[2]);
+			}
+		});
+
+		H2SQLConfig.DB_URI = URI;
+		H2SQLConfig.DB_SHARD_URI_LIST = SHARD_URI_LIST;
+		AbstractSQLConfig.SHARD_KEY_MAP.put("Moment", "userId");
+	}
+
+	@After
+	public void tearDown() {
+		AbstractSQLConfig.SHARD_KEY_MAP.remove("Moment");
+		H2SQLConfig.DB_SHARD_URI_LIST = null;
+		SQLConnectionPool.shutdown(URI);
+		for (String uri : SHARD_URI_LIST) {
+			SQLConnectionPool.shutdown(uri);
+		}
+	}
+
+	private static JSONObject get(String request) {
+		JSONObject result = new H2Parser(RequestMethod.GET, true).parseResponse(request);
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		return result;
+	}
+
+	private static List<Long> getIdList(JSONObject result) {
+		JSONArray arr = result.getJSONArray("[]");
+		List<Long> list = new ArrayList<Long>();
+		for (int i = 0; arr != null && i < arr.size(); i++) {
+			list.add(arr.getJSONObject(i).getJSONObject("Moment").getLong("id"));
+		}
+		return list;
+	}
+
+
+	@Test
+	public void testMergeSortedPages() throws Exception {
+		int count = 6;
+		for (int page = 0; page*count < ROW_COUNT + count; page++) {
+			List<Long> expected = new ArrayList<Long>();
+			for (int i = page*count; i < Math.min(page*count + count, ROW_COUNT); i++) {
+				expected.add(rowList.get(i)[0]);
+			}
+			List<Long> ids = getIdList(get("{\"[]\":{\"count\":" + count + ",\"page\":" + page + ",\"Moment\":{\"@order\":\"score-\"}}}"));
+			assertEquals("第 " + page + " 页", expected, ids);
+		}
+	}
+
+	@Test
+	public void testRoutedByShardKey() throws Exception {
+		List<Long> ids = getIdList(get("{\"[]\":{\"count\":100,\"Moment\":{\"userId\":3,\"@order\":\"id+\"}}}"));
+		assertEquals(Arrays.asList(3L, 10L, 17L, 24L, 31L, 38L), ids);
+
+		ids = getIdList(get("{\"[]\":{\"count\":100,\"Moment\":{\"userId{}\":[1,2],\"@order\":\"id+\"}}}"));
+		assertEquals(Arrays.asList(1L, 2L, 8L, 9L, 15L, 16L, 22L, 23L, 29L, 30L, 36L, 37L), ids);
+	}
+
+	@Test
+	public void testHeadSumsShards() throws Exception {
+		JSONObject result = new H2Parser(RequestMethod.HEAD, true).parseResponse("{\"Moment\":{}}");
+		assertEquals(ROW_COUNT, result.getJSONObject("Moment").getIntValue(JSONResponse.KEY_COUNT));
+
+		result = new H2Parser(RequestMethod.HEAD, true).parseResponse("{\"Moment\":{\"score{}\":\">50\"}}");
+		int expected = 0;
+		for (long[] row : rowList) {
+			expected += row[2] > 50 ? 1 : 0;
+		}
+		assertEquals(expected, result.getJSONObject("Moment").getIntValue(JSONResponse.KEY_COUNT));
+	}
+
+	@Test
+	public void testPostRoutedByShardKey() throws Exception {
+		JSONObject result = new H2Parser(RequestMethod.POST, true).parseResponse("{\"Moment\":{\"id\":100,\"userId\":4,\"score\":1}}");
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+
+		int shard = AbstractSQLConfig.getShard(4L, SHARD_URI_LIST.size());
+		for (int i = 0; i < SHARD_URI_LIST.size(); i++) {
+			assertEquals(i == shard ? 1 : 0, H2SQLExecutor.queryLong(SHARD_URI_LIST.get(i), "SELECT count(*) FROM sys.Moment WHERE id = 100"));
+		}
+	}
+
+	@Test
+	public void testShardTaskDoesNotReuseThreadConnection() throws Exception {
+		SQLConnectionPool pool = H2SQLExecutor.getPool(SHARD_URI_LIST.get(0));
+		Connection held = pool.borrow(); //例如当前线程的其它 executor 正在用这个分片
+		try {
+			pool.prepareStatement(held, "SELECT 1");
+			long hit = pool.getStatementHitCount();
+			long miss = pool.getStatementMissCount();
+
+			H2SQLExecutor executor = new H2SQLExecutor();
+			try {
+				SQLConfig config = H2SQLConfig.newSQLConfig(RequestMethod.GET, "Moment", "{\"@order\":\"score-\"}");
+				config.setCount(5);
+				config.setType(SQLConfig.TYPE_ITEM);
+				executor.execute(config);
+			} finally {
+				executor.close();
+			}
+
+			assertEquals("分片查询不能复用当前线程已借出的连接", 0, pool.getReuseCount());
+			assertEquals("分片查询不能用连接上缓存的 PreparedStatement", hit, pool.getStatementHitCount());
+			assertEquals(miss, pool.getStatementMissCount());
+			assertEquals(1, pool.getActiveCount());
+			assertTrue(pool.isBorrowed());
+		} finally {
+			pool.release(held);
+		}
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testConcurrentFanOut() throws Exception {
+		final List<Long> expected = new ArrayList<Long>();
+		for (int i = 0; i < 10; i++) {
+			expected.add(rowList.get(10 + i)[0]);
+		}
+
+		ExecutorService service = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<Long>>> futureList = new ArrayList<Future<List<Long>>>();
+			for (int i = 0; i < 32; i++) {
+				futureList.add(service.submit(new Callable<List<Long>>() {
+					@Override
+					public List<Long> call() throws Exception {
+						return getIdList(get("{\"[]\":{\"count\":10,\"page\":1,\"Moment\":{\"@order\":\"score-\"}}}"));
+					}
+				}));
+			}
+			for (Future<List<Long>> future : futureList) {
+				assertEquals(expected, future.get());
+			}
+		} finally {
+			service.shutdown();
+		}
+		for (String uri : SHARD_URI_LIST) {
+			assertEquals(0, H2SQLExecutor.getPool(uri).getActiveCount());
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+import zuo.biao.apijson.RequestRole;
+
+/**{@link AbstractParser#parse(JSONObject, Writer)} 流式查询
+ * @author Lemon
+ */
+public class StreamParseTest {
+
+	private static final String URI = "jdbc:h2:mem:stream";
+	private static final int ROW_COUNT = 150;
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+				, "DELETE FROM sys.Moment");
+		for (int i = 1; i <= ROW_COUNT; i++) {
+			H2SQLExecutor.update(URI, "INSERT INTO sys.Moment (id, userId, content) VALUES (" + i + ", 10, 'c" + i + "')");
+		}
+		H2SQLConfig.DB_URI = URI;
+
+		Map<RequestMethod, RequestRole[]> access = new HashMap<RequestMethod, RequestRole[]>();
+		for (RequestMethod method : RequestMethod.values()) {
+			access.put(method, RequestRole.values());
+		}
+		AbstractVerifier.ACCESS_MAP.put("Moment", access);
+	}
+
+	@After
+	public void tearDown() {
+		AbstractVerifier.ACCESS_MAP.remove("Moment");
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static String stream(AbstractParser parser, String request) throws Exception {
+		StringWriter writer = new StringWriter();
+		parser.parse(request, writer);
+		return writer.toString();
+	}
+
+
+	@Test
+	public void testStreamWritesAllRows() throws Exception {
+		JSONObject result = JSON.parseObject(stream(new H2Parser(RequestMethod.GET, true)
+				, "{\"Moment[]\":{\"count\":10,\"Moment\":{\"userId\":10}}}"));
+
+		assertEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals(10, result.getJSONArray("Moment[]").size());
+		assertEquals(1, result.getJSONArray("Moment[]").getJSONObject(0).getIntValue("id"));
+	}
+
+	@Test
+	public void testClientRoleDoesNotRaiseMaxCount() throws Exception {
+		AbstractParser parser = new H2Parser(RequestMethod.GET).setVisitor(new Visitor() {
+
+			@Override
+			public Long getId() {
+				return 10L;
+			}
+
+			@Override
+			public List<Long> getContactIdList() {
+				return null;
+			}
+		});
+		JSONObject result = JSON.parseObject(stream(parser
+				, "{\"Moment[]\":{\"count\":1000,\"Moment\":{}},\"@role\":\"ADMIN\"}"));
+
+		assertEquals("客户端传的 @role 不能放宽流式查询数量", 100, result.getJSONArray("Moment[]").size());
+	}
+
+	@Test
+	public void testErrorAfterRowsClosesArray() throws Exception {
+		H2Parser parser = new H2Parser(RequestMethod.GET, true) {
+			@Override
+			protected int onStreamParse(JSONObject array, String name, String table, Writer writer) throws Exception {
+				super.onStreamParse(array, name, table, writer);
+				throw new IllegalStateException("stream broken");
+			}
+		};
+		String s = stream(parser, "{\"Moment[]\":{\"count\":5,\"Moment\":{}}}");
+
+		JSONObject result = JSON.parseObject(s); //写出行后出错也必须是一个完整的 JSON 对象
+		assertEquals(-1, s.indexOf("}{"));
+		assertEquals('}', s.charAt(s.length() - 1));
+		assertEquals(5, result.getJSONArray("Moment[]").size());
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("stream broken", result.getString(JSONResponse.KEY_MSG));
+	}
+
+	@Test
+	public void testErrorBeforeRowsWritesOnlyError() throws Exception {
+		String s = stream(new H2Parser(RequestMethod.GET, true), "{\"Moment[]\":{\"count\":5,\"Moment\":{\"nothing\":1}}}");
+
+		JSONObject result = JSON.parseObject(s);
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals(null, result.get("Moment[]"));
+	}
+
+}
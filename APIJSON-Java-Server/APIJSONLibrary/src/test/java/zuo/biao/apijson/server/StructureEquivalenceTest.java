@@ -0,0 +1,144 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.RequestMethod;
+
+/**同样的 Request 表结构和请求，{@link Structure#parseRequest} 和 {@link CompiledStructure#parseRequest} 的结果和异常必须一样
+ * @author Lemon
+ */
+public class StructureEquivalenceTest {
+
+	private static final SQLCreator CREATOR = new H2Parser();
+
+	/**分别用 Structure 解释和 CompiledStructure 校验，结构和请求每次都重新解析，避免互相影响
+	 * @param method
+	 * @param structure
+	 * @param request
+	 * @return Structure 抛出的异常，没有则为 null
+	 */
+	private static Exception assertSame(RequestMethod method, String structure, String request) throws Exception {
+		JSONObject expected = null;
+		Exception expectedError = null;
+		try {
+			expected = Structure.parseRequest(method, "", JSON.parseObject(structure), JSON.parseObject(request), CREATOR);
+		} catch (Exception e) {
+			expectedError = e;
+		}
+
+		JSONObject actual = null;
+		Exception actualError = null;
+		try {
+			actual = CompiledStructure.compile(JSON.parseObject(structure)).parseRequest(method, "", JSON.parseObject(request), CREATOR);
+		} catch (Exception e) {
+			actualError = e;
+		}
+
+		String msg = method + " " + structure + " " + request;
+		if (expectedError == null) {
+			assertNull(msg + " 不能抛出 " + actualError, actualError);
+			assertEquals(msg, JSON.toJSONString(expected), JSON.toJSONString(actual));
+		} else {
+			assertNotNull(msg + " 要抛出 " + expectedError, actualError);
+			assertEquals(msg, expectedError.getClass(), actualError.getClass());
+			assertEquals(msg, expectedError.getMessage(), actualError.getMessage());
+		}
+		return expectedError;
+	}
+
+	private static void assertOk(RequestMethod method, String structure, String request) throws Exception {
+		assertNull(assertSame(method, structure, request));
+	}
+	private static void assertError(RequestMethod method, String structure, String request) throws Exception {
+		assertNotNull(assertSame(method, structure, request));
+	}
+
+
+	@Test
+	public void testNecessary() throws Exception {
+		String s = "{\"Moment\":{\"NECESSARY\":\"userId,content\"}}";
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"userId\":1,\"content\":\"a\"}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"userId\":1}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"userId\":1,\"content\":null}}");
+		assertError(RequestMethod.POST, s, "{}");
+	}
+
+	@Test
+	public void testDisallow() throws Exception {
+		String all = "{\"Moment\":{\"NECESSARY\":\"content\",\"DISALLOW\":\"!\"}}";
+		assertOk(RequestMethod.POST, all, "{\"Moment\":{\"content\":\"a\"}}");
+		assertError(RequestMethod.POST, all, "{\"Moment\":{\"content\":\"a\",\"userId\":1}}");
+
+		String some = "{\"Moment\":{\"DISALLOW\":\"userId,date\"}}";
+		assertOk(RequestMethod.POST, some, "{\"Moment\":{\"content\":\"a\"}}");
+		assertError(RequestMethod.POST, some, "{\"Moment\":{\"content\":\"a\",\"date\":1}}");
+		assertError(RequestMethod.POST, some, "{\"Moment\":{\"id\":1,\"content\":\"a\"}}");
+	}
+
+	@Test
+	public void testType() throws Exception {
+		String s = "{\"Moment\":{\"TYPE\":{\"userId\":\"Long\",\"content\":\"String\",\"pictureList\":\"Array\",\"visible\":\"Boolean\",\"score\":\"Double\"}}}";
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"userId\":1,\"content\":\"a\",\"pictureList\":[],\"visible\":true,\"score\":1.5}}");
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"content\":null}}");
+		assertSame(RequestMethod.POST, s, "{\"Moment\":{\"userId\":\"1\"}}"); //能转为 Long 的字符串
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"content\":1}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"pictureList\":{}}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"visible\":1}}");
+	}
+
+	@Test
+	public void testVerify() throws Exception {
+		String s = "{\"Moment\":{\"VERIFY\":{\"content?\":\"^[a-z]+$\",\"userId{}\":[10,20],\"praiseUserIdList<>\":1,\"score{}\":\">0\"}}}";
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"abc\",\"userId\":10,\"praiseUserIdList\":[1,2],\"score\":3}}");
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"ABC\"}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"userId\":30}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"praiseUserIdList\":[2]}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"score\":0}}");
+	}
+
+	@Test
+	public void testAddPutReplace() throws Exception {
+		String s = "{\"Moment\":{\"ADD\":{\"content\":\"add\",\"date\":1},\"PUT\":{\"userId\":1},\"REPLACE\":{\"visible\":true}}}";
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"a\"}}");
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"userId\":2,\"visible\":false}}");
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{}}");
+	}
+
+	@Test
+	public void testNestedTables() throws Exception {
+		String s = "{\"Moment\":{\"NECESSARY\":\"content\",\"DISALLOW\":\"userId\"},\"Comment\":{\"NECESSARY\":\"content\",\"PUT\":{\"toId\":0}}}";
+		assertOk(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"m\"},\"Comment\":{\"content\":\"c\"}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"m\"}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"m\"},\"Comment\":{}}");
+		assertError(RequestMethod.POST, s, "{\"Moment\":{\"content\":\"m\",\"userId\":1},\"Comment\":{\"content\":\"c\"}}");
+
+		String put = "{\"Moment\":{\"NECESSARY\":\"id\"},\"Comment\":{\"DISALLOW\":\"momentId\"}}";
+		assertOk(RequestMethod.PUT, put, "{\"Moment\":{\"id\":1,\"content\":\"m\"},\"Comment\":{\"id{}\":[1,2],\"content\":\"c\"}}");
+		assertError(RequestMethod.PUT, put, "{\"Moment\":{\"id\":1},\"Comment\":{\"content\":\"c\"}}");
+		assertError(RequestMethod.PUT, put, "{\"Moment\":{\"id\":\"a\"},\"Comment\":{\"id\":1}}");
+		assertError(RequestMethod.PUT, put, "{\"Moment\":{\"id\":1},\"Comment\":{\"id\":1,\"momentId\":2}}");
+	}
+
+}
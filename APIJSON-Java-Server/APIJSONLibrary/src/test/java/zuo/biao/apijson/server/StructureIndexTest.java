@@ -0,0 +1,101 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import zuo.biao.apijson.RequestMethod;
+
+/**{@link StructureIndex} 加载和被修改后合并刷新
+ * @author Lemon
+ */
+public class StructureIndexTest {
+
+	private static final String URI = "jdbc:h2:mem:structure";
+
+	/**每次刷新都计数，并放慢刷新，模拟刷新期间又收到失效消息
+	 */
+	private static class CountParser extends H2Parser {
+		final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public SQLExecutor createSQLExecutor() {
+			count.incrementAndGet();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.createSQLExecutor();
+		}
+	}
+
+	private StructureIndex index;
+	private CountParser parser;
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Request (id BIGINT PRIMARY KEY, method VARCHAR(10), tag VARCHAR(20), version TINYINT, structure VARCHAR(200))"
+				, "DELETE FROM sys.Request"
+				, "INSERT INTO sys.Request (id, method, tag, version, structure) VALUES (1, 'POST', 'Moment', 1, '{\"MUST\":\"userId\"}')");
+		H2SQLConfig.DB_URI = URI;
+
+		index = new StructureIndex("Request", "tag");
+		parser = new CountParser();
+	}
+
+	@After
+	public void tearDown() {
+		SQLConnectionPool.shutdown(URI);
+	}
+
+
+	@Test
+	public void testLoad() throws Exception {
+		index.init(parser);
+		index.init(parser);
+		assertEquals("已加载则 init 不再查询", 1, parser.count.get());
+		assertNotNull(index.get(RequestMethod.POST, "Moment", 0));
+		assertEquals("userId", index.get(RequestMethod.POST, "Moment", 1).getString("MUST"));
+	}
+
+	@Test
+	public void testInvalidateIsCoalesced() throws Exception {
+		index.invalidate();
+		assertEquals("没加载过则不刷新", 0, parser.count.get());
+
+		index.refresh(parser);
+		H2SQLExecutor.update(URI, "UPDATE sys.Request SET structure = '{\"MUST\":\"content\"}' WHERE id = 1");
+		for (int i = 0; i < 100; i++) {
+			index.invalidate();
+			Thread.sleep(1);
+		}
+		Thread.sleep(500);
+
+		int n = parser.count.get() - 1;
+		assertTrue("同时只能有一个在刷新，期间的修改合并为一次，n = " + n, n >= 1 && n <= 3);
+		assertEquals("最后一次修改后要刷新到", "content", index.get(RequestMethod.POST, "Moment", 0).getString("MUST"));
+	}
+
+}
@@ -0,0 +1,176 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONObject;
+
+import zuo.biao.apijson.JSONResponse;
+import zuo.biao.apijson.RequestMethod;
+
+/**写请求在一个连接的一个事务内执行，出错则跨表全部回滚
+ * @author Lemon
+ */
+public class TransactionTest {
+
+	private static final String URI = "jdbc:h2:mem:transaction";
+
+	private SQLConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		H2SQLExecutor.update(URI, "CREATE SCHEMA IF NOT EXISTS sys"
+				, "CREATE TABLE IF NOT EXISTS sys.Moment (id BIGINT PRIMARY KEY, userId BIGINT, content VARCHAR(100))"
+				, "CREATE TABLE IF NOT EXISTS sys.Comment (id BIGINT PRIMARY KEY, momentId BIGINT, content VARCHAR(100))"
+				, "DELETE FROM sys.Moment"
+				, "DELETE FROM sys.Comment"
+				, "INSERT INTO sys.Comment (id, momentId, content) VALUES (1, 0, 'a')");
+		H2SQLConfig.DB_URI = URI;
+		pool = H2SQLExecutor.getPool(URI);
+	}
+
+	@After
+	public void tearDown() {
+		SQLConnectionPool.shutdown(URI);
+	}
+
+	private static long count(String table) throws Exception {
+		return H2SQLExecutor.queryLong(URI, "SELECT count(*) FROM sys." + table);
+	}
+
+	private static JSONObject post(String request) {
+		return new H2Parser(RequestMethod.POST, true).parseResponse(request);
+	}
+
+
+	@Test
+	public void testCommitAcrossTables() throws Exception {
+		JSONObject result = post("{\"Moment\":{\"id\":10,\"userId\":1,\"content\":\"m\"}"
+				+ ",\"Comment\":{\"id\":2,\"momentId\":10,\"content\":\"c\"}}");
+
+		assertEquals(result.getString(JSONResponse.KEY_MSG), JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals(1, count("Moment"));
+		assertEquals(2, count("Comment"));
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testRollbackAcrossTables() throws Exception {
+		//Comment 的 id 重复，前面已经插入的 Moment 也要回滚
+		JSONObject result = post("{\"Moment\":{\"id\":10,\"userId\":1,\"content\":\"m\"}"
+				+ ",\"Comment\":{\"id\":1,\"momentId\":10,\"content\":\"c\"}}");
+
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("出错后前面的写操作必须回滚", 0, count("Moment"));
+		assertEquals(1, count("Comment"));
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testVerifyResponseRollsBack() throws Exception {
+		//例如注册时 User 和 Privacy 的 id 不同，已写入的都要回滚
+		JSONObject result = new H2Parser(RequestMethod.POST, true) {
+			@Override
+			protected void onVerifyResponse(JSONObject response) throws Exception {
+				JSONObject moment = response.getJSONObject("Moment");
+				JSONObject comment = response.getJSONObject("Comment");
+				if (moment.getLongValue("id") != comment.getLongValue("id")) {
+					throw new Exception("id 不同");
+				}
+			}
+		}.parseResponse("{\"Moment\":{\"id\":10,\"userId\":1,\"content\":\"m\"}"
+				+ ",\"Comment\":{\"id\":2,\"momentId\":10,\"content\":\"c\"}}");
+
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("校验结果失败时前面的写操作必须回滚", 0, count("Moment"));
+		assertEquals(1, count("Comment"));
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testTransactionCanBeDisabled() throws Exception {
+		JSONObject result = post("{\"Moment\":{\"id\":10,\"userId\":1,\"content\":\"m\"}"
+				+ ",\"Comment\":{\"id\":1,\"momentId\":10,\"content\":\"c\"},\"@transaction\":false}");
+
+		assertNotEquals(JSONResponse.CODE_SUCCESS, result.getIntValue(JSONResponse.KEY_CODE));
+		assertEquals("不在事务内时已执行的不会回滚", 1, count("Moment"));
+	}
+
+	@Test
+	public void testNestedExecutorJoinsTransaction() throws Exception {
+		H2SQLExecutor outer = new H2SQLExecutor();
+		H2SQLExecutor inner = new H2SQLExecutor();
+		try {
+			outer.begin(0);
+			outer.execute(H2SQLConfig.newSQLConfig(RequestMethod.POST, "Moment", "{\"id\":10,\"userId\":1,\"content\":\"m\"}"));
+			assertEquals("提交前其它连接看不到", 0, count("Moment"));
+
+			//例如校验和引用查询时新建的 executor，在同一个线程内用同一个连接，能看到未提交的数据
+			JSONObject moment = inner.execute(H2SQLConfig.newSQLConfig(RequestMethod.GET, "Moment", "{\"id\":10}"));
+			assertEquals("m", moment.getString("content"));
+
+			outer.rollback();
+		} finally {
+			inner.close();
+			outer.close();
+		}
+		assertEquals(0, count("Moment"));
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testCommit() throws Exception {
+		H2SQLExecutor executor = new H2SQLExecutor();
+		try {
+			executor.begin(0);
+			executor.execute(H2SQLConfig.newSQLConfig(RequestMethod.POST, "Moment", "{\"id\":10,\"userId\":1,\"content\":\"m\"}"));
+			executor.execute(H2SQLConfig.newSQLConfig(RequestMethod.PUT, "Comment", "{\"id\":1,\"momentId\":10}"));
+			executor.commit();
+		} finally {
+			executor.close();
+		}
+		assertEquals(1, count("Moment"));
+		assertEquals(10, H2SQLExecutor.queryLong(URI, "SELECT momentId FROM sys.Comment WHERE id = 1"));
+	}
+
+	@Test
+	public void testCloseWithoutCommitRollsBack() throws Exception {
+		H2SQLExecutor executor = new H2SQLExecutor();
+		executor.begin(0);
+		executor.execute(H2SQLConfig.newSQLConfig(RequestMethod.POST, "Moment", "{\"id\":10,\"userId\":1,\"content\":\"m\"}"));
+		executor.close();
+
+		assertEquals("没有提交的事务在关闭时回滚", 0, count("Moment"));
+
+		//归还后的连接恢复自动提交，不影响下一个借用者
+		H2SQLExecutor next = new H2SQLExecutor();
+		try {
+			next.execute(H2SQLConfig.newSQLConfig(RequestMethod.POST, "Moment", "{\"id\":11,\"userId\":1,\"content\":\"n\"}"));
+		} finally {
+			next.close();
+		}
+		assertEquals(1, count("Moment"));
+		assertFalse(pool.isBorrowed());
+	}
+
+}
@@ -0,0 +1,297 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+
+package zuo.biao.apijson.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**两个单播的 {@link UDPInvalidationBus} 在 127.0.0.1 的不同端口互相发送，以及来源、签名和 @type 的校验
+ * @author Lemon
+ */
+public class UDPInvalidationBusTest {
+
+	/**被实例化时计数，用来验证消息里的 @type 不会生效
+	 */
+	public static class Probe {
+		static final AtomicInteger COUNT = new AtomicInteger();
+
+		public Probe() {
+			COUNT.incrementAndGet();
+		}
+	}
+
+	/**收到的一条消息
+	 */
+	private static class Message {
+		final String table;
+		final List<Object> idList;
+
+		Message(String table, List<Object> idList) {
+			this.table = table;
+			this.idList = idList;
+		}
+	}
+
+	/**把收到的消息放到队列里
+	 */
+	private static class QueueCallback implements CacheInvalidationBus.Callback {
+		final BlockingQueue<Message> queue = new LinkedBlockingQueue<Message>();
+
+		@Override
+		public void onInvalidate(String table, List<Object> idList) {
+			queue.add(new Message(table, idList));
+		}
+
+		Message poll() throws InterruptedException {
+			return queue.poll(2, TimeUnit.SECONDS);
+		}
+	}
+
+
+	private DatagramSocket socketB;
+	private UDPInvalidationBus busA;
+	private UDPInvalidationBus busB;
+	private QueueCallback callbackA;
+	private QueueCallback callbackB;
+
+	private static int getFreePort() throws SocketException {
+		DatagramSocket socket = new DatagramSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		int portA = getFreePort();
+		int portB = getFreePort();
+		//A 也发给自己，用来验证忽略自己发出的消息
+		busA = new UDPInvalidationBus(portA, Arrays.asList(new InetSocketAddress("127.0.0.1", portA), new InetSocketAddress("127.0.0.1", portB)));
+		socketB = new DatagramSocket(portB);
+		busB = new UDPInvalidationBus(socketB, Arrays.asList(new InetSocketAddress("127.0.0.1", portA)));
+
+		callbackA = new QueueCallback();
+		callbackB = new QueueCallback();
+		busA.subscribe(callbackA);
+		busB.subscribe(callbackB);
+	}
+
+	@After
+	public void tearDown() {
+		busA.close();
+		busB.close();
+	}
+
+	private static void send(DatagramSocket sender, DatagramSocket receiver, String text) throws IOException {
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		sender.send(new DatagramPacket(data, data.length, new InetSocketAddress("127.0.0.1", receiver.getLocalPort())));
+	}
+	private static List<SocketAddress> addressList(DatagramSocket... sockets) {
+		List<SocketAddress> list = new ArrayList<SocketAddress>();
+		for (DatagramSocket socket : sockets) {
+			list.add(new InetSocketAddress("127.0.0.1", socket.getLocalPort()));
+		}
+		return list;
+	}
+
+
+	@Test
+	public void testPublishReachesOtherNode() throws Exception {
+		busA.publish("Moment", Arrays.<Object>asList(1, 2));
+
+		Message local = callbackA.poll();
+		assertEquals("当前节点的订阅者直接收到", "Moment", local.table);
+
+		Message remote = callbackB.poll();
+		assertNotNull("其它节点的订阅者要收到", remote);
+		assertEquals("Moment", remote.table);
+		assertEquals(Arrays.<Object>asList(1, 2), remote.idList);
+	}
+
+	@Test
+	public void testOwnEchoIsIgnored() throws Exception {
+		busA.publish("Moment", Arrays.<Object>asList(1));
+		assertNotNull(callbackA.poll()); //本地直接通知
+		assertNotNull(callbackB.poll()); //A 发出的消息已经到达
+
+		//B 在 A 的回环消息之后发出，A 收到 B 的消息时已经处理过自己发出的
+		busB.publish("Comment", null);
+		Message m = callbackA.poll();
+		assertNotNull(m);
+		assertEquals("自己发出的消息不能再通知一次", "Comment", m.table);
+		assertNull(m.idList);
+		assertNull(callbackA.queue.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testOversizedIdListInvalidatesWholeTable() throws Exception {
+		List<Object> idList = new ArrayList<Object>();
+		for (long i = 0; i < 2000; i++) {
+			idList.add(1000000000000L + i);
+		}
+		busA.publish("Moment", idList);
+
+		assertEquals("当前节点收到完整的 id", idList, callbackA.poll().idList);
+
+		Message remote = callbackB.poll();
+		assertNotNull("超出 MAX_PACKET_SIZE 也要发出", remote);
+		assertEquals("Moment", remote.table);
+		assertNull("超出 MAX_PACKET_SIZE 则不带 id，视为整个表", remote.idList);
+	}
+
+	@Test
+	public void testReceiveErrorBacksOff() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		DatagramSocket broken = new DatagramSocket(0) {
+			@Override
+			public synchronized void receive(DatagramPacket p) throws IOException {
+				count.incrementAndGet();
+				throw new IOException("broken");
+			}
+		};
+		UDPInvalidationBus bus = new UDPInvalidationBus(broken, new ArrayList<InetSocketAddress>());
+		try {
+			Thread.sleep(500);
+			int n = count.get();
+			assertTrue("一直出错时要等待后重试，不能空转，n = " + n, n > 1 && n < 20);
+		} finally {
+			bus.close();
+		}
+
+		int n = count.get();
+		Thread.sleep(200);
+		assertTrue("关闭后结束接收线程", count.get() <= n + 1);
+		assertTrue(broken.isClosed());
+	}
+
+	@Test
+	public void testUnknownSourceIsDropped() throws Exception {
+		DatagramSocket stranger = new DatagramSocket(0);
+		try {
+			send(stranger, socketB, "{\"node\":\"x\",\"table\":\"Request\"}");
+			assertNull("不在 targetList 里的地址发来的消息要丢弃", callbackB.queue.poll(300, TimeUnit.MILLISECONDS));
+		} finally {
+			stranger.close();
+		}
+
+		busA.publish("Moment", null);
+		assertEquals("配置的节点仍然能收到", "Moment", callbackB.poll().table);
+	}
+
+	@Test
+	public void testSpecialKeysAreIgnored() throws Exception {
+		DatagramSocket sender = new DatagramSocket(0);
+		DatagramSocket socket = new DatagramSocket(0);
+		UDPInvalidationBus bus = new UDPInvalidationBus(socket, new ArrayList<SocketAddress>(), addressList(sender), null);
+		QueueCallback callback = new QueueCallback();
+		bus.subscribe(callback);
+		Probe.COUNT.set(0);
+		try {
+			String type = "\"@type\":\"" + Probe.class.getName() + "\"";
+			send(sender, socket, "{" + type + ",\"node\":\"x\",\"table\":\"Moment\"}");
+			Message m = callback.poll();
+			assertNotNull(m);
+			assertEquals("@type 只是普通的 key", "Moment", m.table);
+
+			send(sender, socket, "{\"node\":\"x\",\"table\":\"Moment\",\"idList\":[{" + type + "}]}");
+			send(sender, socket, "{\"node\":\"x\",\"table\":{" + type + "}}");
+			send(sender, socket, "{\"node\":\"x\",\"table\":\"Moment; DROP\"}");
+			assertNull("id 不是数字或字符串、table 不是表名的消息要丢弃", callback.queue.poll(300, TimeUnit.MILLISECONDS));
+			assertEquals("不能按消息实例化任意类", 0, Probe.COUNT.get());
+		} finally {
+			bus.close();
+			sender.close();
+		}
+	}
+
+	@Test
+	public void testSignedMessages() throws Exception {
+		DatagramSocket socketC = new DatagramSocket(0);
+		DatagramSocket socketD = new DatagramSocket(0);
+		DatagramSocket socketE = new DatagramSocket(0);
+		int portC = socketC.getLocalPort();
+		List<SocketAddress> all = addressList(socketC, socketD, socketE);
+		UDPInvalidationBus busC = new UDPInvalidationBus(socketC, all, all, "secret");
+		UDPInvalidationBus busD = new UDPInvalidationBus(socketD, all, all, "secret");
+		UDPInvalidationBus busE = new UDPInvalidationBus(socketE, all, all, "other");
+		QueueCallback callbackD = new QueueCallback();
+		busD.subscribe(callbackD);
+		try {
+			busC.publish("Moment", Arrays.<Object>asList(1));
+			Message m = callbackD.poll();
+			assertNotNull("密钥相同的节点能收到", m);
+			assertEquals(Arrays.<Object>asList(1), m.idList);
+
+			busE.publish("Request", null);
+			assertNull("密钥不同则签名不对，要丢弃", callbackD.queue.poll(300, TimeUnit.MILLISECONDS));
+		} finally {
+			busC.close();
+			busE.close();
+		}
+
+		//同一个来源地址伪造消息
+		DatagramSocket forger = new DatagramSocket(portC);
+		try {
+			send(forger, socketD, "{\"node\":\"x\",\"table\":\"Request\"}");
+			assertNull("没有签名的消息要丢弃", callbackD.queue.poll(300, TimeUnit.MILLISECONDS));
+
+			String body = "{\"node\":\"x\",\"table\":\"Request\",\"time\":" + (System.currentTimeMillis() - 2*UDPInvalidationBus.MAX_MESSAGE_AGE) + "}";
+			send(forger, socketD, busD.sign(body.getBytes(StandardCharsets.UTF_8), 0, body.length()) + body);
+			assertNull("过期的消息视为重放，要丢弃", callbackD.queue.poll(300, TimeUnit.MILLISECONDS));
+
+			body = "{\"node\":\"x\",\"table\":\"Request\",\"time\":" + System.currentTimeMillis() + "}";
+			send(forger, socketD, busD.sign(body.getBytes(StandardCharsets.UTF_8), 0, body.length()) + body);
+			assertEquals("签名正确且没过期", "Request", callbackD.poll().table);
+		} finally {
+			forger.close();
+			busD.close();
+		}
+	}
+
+	@Test
+	public void testAnySourceRequiresSecret() throws Exception {
+		DatagramSocket socket = new DatagramSocket(0);
+		try {
+			new UDPInvalidationBus(socket, new ArrayList<SocketAddress>(), null, null);
+			fail("不限来源时必须有共享密钥");
+		} catch (IllegalArgumentException e) {
+			assertTrue(socket.isClosed());
+		}
+	}
+
+}